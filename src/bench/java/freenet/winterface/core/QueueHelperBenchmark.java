@@ -0,0 +1,73 @@
+package freenet.winterface.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import freenet.node.fcp.RequestStatus;
+
+/**
+ * Benchmarks classification of global requests into queues (see
+ * {@link QueueHelper}) and access to the resulting queues.
+ *
+ * @author pausb
+ * @see SyntheticRequests
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueueHelperBenchmark {
+
+	/** Number of global requests */
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	/** Synthetic global requests */
+	private List<RequestStatus> requests;
+	/** A prepared helper containing all queues */
+	private QueueHelper helper;
+	/** Same requests as array */
+	private RequestStatus[] requestArray;
+
+	@Setup
+	public void setup() {
+		requestArray = SyntheticRequests.create(size);
+		requests = Arrays.asList(requestArray);
+		helper = new QueueHelper(QueueHelper.DL_ALL | QueueHelper.UP_ALL, null, requests);
+	}
+
+	@Benchmark
+	public QueueHelper constructAll() {
+		return new QueueHelper(QueueHelper.DL_ALL | QueueHelper.UP_ALL, null, requests);
+	}
+
+	@Benchmark
+	public QueueHelper constructDownloads() {
+		return new QueueHelper(QueueHelper.DL_ALL, null, requests);
+	}
+
+	@Benchmark
+	public List<RequestStatus> getList() {
+		return helper.getList(QueueHelper.DL_C_DISK);
+	}
+
+	@Benchmark
+	public List<RequestStatus> getMerged() {
+		return helper.get(QueueHelper.DL_F_U_MIME);
+	}
+
+	@Benchmark
+	public RequestTable buildRequestTable() {
+		return new RequestTable(requestArray, null);
+	}
+
+}
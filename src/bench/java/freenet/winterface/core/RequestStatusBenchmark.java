@@ -0,0 +1,154 @@
+package freenet.winterface.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.wicket.Localizer;
+import org.apache.wicket.mock.MockApplication;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.resource.loader.ClassStringResourceLoader;
+import org.apache.wicket.util.tester.BaseWicketTester;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import freenet.node.fcp.RequestStatus;
+import freenet.support.TimeUtil;
+import freenet.winterface.web.core.WinterfaceApplication;
+
+/**
+ * Benchmarks per-row work of the queue page: {@link RequestProgress}
+ * construction and {@link RequestStatusUtil} formatting. Methods prefixed
+ * with "legacy" contain former implementations to compare with.
+ * <p>
+ * Localization needs a Wicket {@link org.apache.wicket.Application} bound to
+ * the current thread. A {@link MockApplication} which reads localizations of
+ * {@link WinterfaceApplication} is used for that purpose.
+ * </p>
+ *
+ * @author pausb
+ * @see SyntheticRequests
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestStatusBenchmark {
+
+	// L10N (same as in RequestStatusUtil)
+	private final static String L10N_UNKNOW_LA = "QueueToadlet.lastActivity.unknown";
+	private final static String L10N_AGO_LA = "QueueToadlet.lastActivity.ago";
+	private final static String L10N_PRIO_PREFIX = "QueueToadlet.priority";
+
+	/** Logger used by legacy implementations (same level as shipped config) */
+	private final static Logger logger = Logger.getLogger(RequestStatusBenchmark.class);
+
+	/** Number of distinct requests to cycle through */
+	private final static int SIZE = 1024;
+
+	/** Synthetic requests */
+	private RequestStatus[] requests;
+	/** Index of next request */
+	private int next;
+	/** Binds a mock application to the benchmark thread */
+	private BaseWicketTester tester;
+
+	@Setup
+	public void setup() {
+		requests = SyntheticRequests.create(SIZE);
+		tester = new BaseWicketTester(new MockApplication() {
+			@Override
+			protected void init() {
+				super.init();
+				getResourceSettings().getStringResourceLoaders().add(new ClassStringResourceLoader(WinterfaceApplication.class));
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() {
+		tester.destroy();
+	}
+
+	/**
+	 * @return next request to work on
+	 */
+	private RequestStatus nextRequest() {
+		next = (next + 1) & (SIZE - 1);
+		return requests[next];
+	}
+
+	@Benchmark
+	public RequestProgress progress() {
+		return new RequestProgress(nextRequest());
+	}
+
+	@Benchmark
+	public RequestProgress cachedProgress() {
+		return RequestStatusUtil.getProgress(nextRequest());
+	}
+
+	@Benchmark
+	public void formatRow(Blackhole bh) {
+		RequestStatus req = nextRequest();
+		bh.consume(RequestStatusUtil.getPriority(req));
+		bh.consume(RequestStatusUtil.getSize(req));
+		bh.consume(RequestStatusUtil.getMIME(req));
+		bh.consume(RequestStatusUtil.getLastActivity(req));
+		bh.consume(RequestStatusUtil.getPersistence(req));
+		bh.consume(RequestStatusUtil.getFileName(req));
+	}
+
+	@Benchmark
+	public String lastActivity() {
+		return RequestStatusUtil.getLastActivity(nextRequest());
+	}
+
+	@Benchmark
+	public String priority() {
+		return RequestStatusUtil.getPriority(nextRequest());
+	}
+
+	/**
+	 * Former implementation of {@link RequestStatusUtil#getLastActivity(RequestStatus)}
+	 * (resolves localization and allocates a {@link Map} per call) to compare
+	 * with.
+	 */
+	@Benchmark
+	public String legacyLastActivity() {
+		RequestStatus req = nextRequest();
+		String result;
+		long lastActiveTime = req.getLastActivity();
+		Localizer localizer = Localizer.get();
+		if (lastActiveTime == 0) {
+			result = localizer.getString(L10N_UNKNOW_LA, null, L10N_UNKNOW_LA);
+		} else {
+			String lastActivityAgo = TimeUtil.formatTime(System.currentTimeMillis() - lastActiveTime);
+			Map<String, String> substitution = new HashMap<String, String>();
+			substitution.put("time", lastActivityAgo);
+			result = localizer.getString(L10N_AGO_LA, null, Model.ofMap(substitution), L10N_AGO_LA);
+		}
+		logger.trace(String.format("Last activity for RequestStatus (%s) : %s", req.hashCode(), result));
+		return result;
+	}
+
+	/**
+	 * Former implementation of {@link RequestStatusUtil#getPriority(RequestStatus)}
+	 * to compare with.
+	 */
+	@Benchmark
+	public String legacyPriority() {
+		RequestStatus req = nextRequest();
+		String result = Localizer.get().getString(L10N_PRIO_PREFIX + req.getPriority(), null);
+		logger.trace(String.format("Priority for RequestStatus (%s) : %s", req.hashCode(), result));
+		return result;
+	}
+
+}
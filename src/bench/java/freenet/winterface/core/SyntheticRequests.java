@@ -0,0 +1,131 @@
+package freenet.winterface.core;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.File;
+import java.util.Random;
+
+import freenet.client.FetchException;
+import freenet.node.fcp.ClientPut.COMPRESS_STATE;
+import freenet.node.fcp.DownloadRequestStatus;
+import freenet.node.fcp.RequestStatus;
+import freenet.node.fcp.UploadDirRequestStatus;
+import freenet.node.fcp.UploadFileRequestStatus;
+
+/**
+ * Creates arrays of stub {@link RequestStatus}(es), so benchmarks can run
+ * without a running node.
+ * <p>
+ * The generated mix roughly resembles a long running node: 70% downloads
+ * (mostly completed), 25% file uploads and 5% directory uploads.
+ * </p>
+ *
+ * @author pausb
+ */
+public final class SyntheticRequests {
+
+	/** MIME types to choose from */
+	private final static String[] MIME_TYPES = { "text/html", "image/png", "image/jpeg", "application/zip", "application/x-bittorrent", "video/ogg" };
+
+	/**
+	 * Avoid instantiation
+	 */
+	private SyntheticRequests() {
+		// nothing!
+	}
+
+	/**
+	 * Creates a reproducible array of requests
+	 *
+	 * @param size
+	 *            number of requests
+	 * @return created requests
+	 */
+	public static RequestStatus[] create(int size) {
+		Random random = new Random(size);
+		RequestStatus[] result = new RequestStatus[size];
+		for (int i = 0; i < size; i++) {
+			int type = random.nextInt(100);
+			if (type < 70) {
+				result[i] = download(i, random);
+			} else if (type < 95) {
+				result[i] = upload(i, random);
+			} else {
+				result[i] = uploadDir(i, random);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Stubs values common to all requests
+	 */
+	private static void common(RequestStatus req, String identifier, Random random, boolean finished, boolean succeeded) {
+		int total = 1 + random.nextInt(10000);
+		int fetched = succeeded ? total : random.nextInt(total);
+		when(req.getIdentifier()).thenReturn(identifier);
+		when(req.getPriority()).thenReturn((short) random.nextInt(7));
+		when(req.isStarted()).thenReturn(true);
+		when(req.hasFinished()).thenReturn(finished);
+		when(req.hasSucceeded()).thenReturn(succeeded);
+		when(req.getTotalBlocks()).thenReturn(total);
+		when(req.getMinBlocks()).thenReturn(total);
+		when(req.getFetchedBlocks()).thenReturn(fetched);
+		when(req.getFailedBlocks()).thenReturn(finished && !succeeded ? total - fetched : 0);
+		when(req.getFatalyFailedBlocks()).thenReturn(0);
+		when(req.getLastActivity()).thenReturn(System.currentTimeMillis() - random.nextInt(86400000));
+		when(req.isPersistent()).thenReturn(true);
+		when(req.isPersistentForever()).thenReturn(random.nextBoolean());
+	}
+
+	/**
+	 * Creates a download in a random state
+	 */
+	private static RequestStatus download(int i, Random random) {
+		DownloadRequestStatus req = mock(DownloadRequestStatus.class, withSettings().stubOnly());
+		int state = random.nextInt(100);
+		boolean finished = state < 85;
+		boolean succeeded = state < 70;
+		common(req, "download-" + i, random, finished, succeeded);
+		when(req.toTempSpace()).thenReturn(random.nextBoolean());
+		int failureCode = 0;
+		if (finished && !succeeded) {
+			int failure = random.nextInt(10);
+			failureCode = (failure == 0) ? FetchException.CONTENT_VALIDATION_UNKNOWN_MIME : (failure == 1 ? FetchException.CONTENT_VALIDATION_BAD_MIME
+					: FetchException.DATA_NOT_FOUND);
+		}
+		when(req.getFailureCode()).thenReturn(failureCode);
+		when(req.getMIMEType()).thenReturn(MIME_TYPES[random.nextInt(MIME_TYPES.length)]);
+		when(req.getDataSize()).thenReturn((long) random.nextInt(Integer.MAX_VALUE));
+		when(req.getDestFilename()).thenReturn(new File("/tmp/downloads/file-" + i));
+		return req;
+	}
+
+	/**
+	 * Creates a file upload in a random state
+	 */
+	private static RequestStatus upload(int i, Random random) {
+		UploadFileRequestStatus req = mock(UploadFileRequestStatus.class, withSettings().stubOnly());
+		int state = random.nextInt(100);
+		common(req, "upload-" + i, random, state < 80, state < 75);
+		when(req.getMIMEType()).thenReturn(MIME_TYPES[random.nextInt(MIME_TYPES.length)]);
+		when(req.getDataSize()).thenReturn((long) random.nextInt(Integer.MAX_VALUE));
+		when(req.isCompressing()).thenReturn(COMPRESS_STATE.DONE);
+		when(req.getOrigFilename()).thenReturn(new File("/tmp/uploads/file-" + i));
+		return req;
+	}
+
+	/**
+	 * Creates a directory upload in a random state
+	 */
+	private static RequestStatus uploadDir(int i, Random random) {
+		UploadDirRequestStatus req = mock(UploadDirRequestStatus.class, withSettings().stubOnly());
+		int state = random.nextInt(100);
+		common(req, "uploaddir-" + i, random, state < 80, state < 75);
+		when(req.getTotalDataSize()).thenReturn((long) random.nextInt(Integer.MAX_VALUE));
+		return req;
+	}
+
+}
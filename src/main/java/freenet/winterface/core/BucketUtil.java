@@ -0,0 +1,123 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import freenet.support.api.Bucket;
+
+/**
+ * A Util class to write content of {@link Bucket}s to {@link OutputStream}s.
+ * <p>
+ * Content is copied using buffers of {@link #BUFFER_SIZE} bytes which are
+ * taken from a shared pool, so serving many large files does not allocate a
+ * new buffer per response.
+ * </p>
+ *
+ * @author pausb
+ */
+public final class BucketUtil {
+
+	/** Size of pooled buffers */
+	public final static int BUFFER_SIZE = 64 * 1024;
+	/** Maximum number of pooled buffers */
+	public final static int MAX_POOLED = 32;
+
+	/** Pooled buffers */
+	private final static BlockingQueue<byte[]> pool = new ArrayBlockingQueue<byte[]>(MAX_POOLED);
+
+	/**
+	 * Avoid instantiation
+	 */
+	private BucketUtil() {
+		// nothing!
+	}
+
+	/**
+	 * Writes whole content of a {@link Bucket}
+	 *
+	 * @param data
+	 *            {@link Bucket} to read from
+	 * @param os
+	 *            {@link OutputStream} to write to
+	 * @return number of written bytes
+	 * @throws IOException
+	 *             if reading or writing fails
+	 * @see #copy(Bucket, OutputStream, long, long)
+	 */
+	public static long copy(Bucket data, OutputStream os) throws IOException {
+		return copy(data, os, 0, data.size());
+	}
+
+	/**
+	 * Writes a part of a {@link Bucket}'s content. Opened streams are always
+	 * closed (but not the given {@link OutputStream}).
+	 *
+	 * @param data
+	 *            {@link Bucket} to read from
+	 * @param os
+	 *            {@link OutputStream} to write to
+	 * @param offset
+	 *            first byte to write
+	 * @param length
+	 *            number of bytes to write
+	 * @return number of written bytes
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	public static long copy(Bucket data, OutputStream os, long offset, long length) throws IOException {
+		InputStream is = data.getInputStream();
+		try {
+			return copy(is, os, offset, length);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Copies a part of an {@link InputStream} using a pooled buffer
+	 */
+	private static long copy(InputStream is, OutputStream os, long offset, long length) throws IOException {
+		long skipped = 0;
+		while (skipped < offset) {
+			long count = is.skip(offset - skipped);
+			if (count <= 0) {
+				return 0;
+			}
+			skipped += count;
+		}
+		byte[] buffer = acquire();
+		try {
+			long written = 0;
+			while (written < length) {
+				int count = is.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+				if (count < 0) {
+					break;
+				}
+				os.write(buffer, 0, count);
+				written += count;
+			}
+			return written;
+		} finally {
+			release(buffer);
+		}
+	}
+
+	/**
+	 * @return a pooled or (if pool is empty) new buffer
+	 */
+	private static byte[] acquire() {
+		byte[] buffer = pool.poll();
+		return (buffer == null) ? new byte[BUFFER_SIZE] : buffer;
+	}
+
+	/**
+	 * Returns a buffer to pool (if pool is not full)
+	 */
+	private static void release(byte[] buffer) {
+		pool.offer(buffer);
+	}
+
+}
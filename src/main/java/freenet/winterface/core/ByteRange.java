@@ -0,0 +1,148 @@
+package freenet.winterface.core;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A single range of bytes as requested by an HTTP {@code Range} header.
+ * <p>
+ * Use {@link #parse(String, long)} to parse a header. Overlapping and adjacent
+ * ranges are merged, so the result contains each byte at most once.
+ * </p>
+ *
+ * @author pausb
+ */
+public class ByteRange {
+
+	/** First byte of range */
+	public final long start;
+	/** Last byte of range (inclusive) */
+	public final long end;
+
+	/** Unit of supported ranges */
+	public final static String UNIT = "bytes";
+	/** Maximum number of ranges accepted in a single header */
+	public final static int MAX_RANGES = 16;
+
+	/** Result of {@link #parse(String, long)} if no range is satisfiable */
+	public final static List<ByteRange> UNSATISFIABLE = Collections.emptyList();
+
+	/**
+	 * Constructs.
+	 *
+	 * @param start
+	 *            first byte
+	 * @param end
+	 *            last byte (inclusive)
+	 */
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return number of bytes in this range
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Returns value of {@code Content-Range} header for this range
+	 *
+	 * @param size
+	 *            total size of content
+	 * @return header value
+	 */
+	public String toContentRange(long size) {
+		return UNIT + " " + start + "-" + end + "/" + size;
+	}
+
+	/**
+	 * Parses a {@code Range} header
+	 *
+	 * @param header
+	 *            value of header (e.g. {@code bytes=0-499,1000-})
+	 * @param size
+	 *            total size of content
+	 * @return sorted and merged ranges, {@link #UNSATISFIABLE} if none of the
+	 *         ranges lies within content or {@code null} if header is invalid
+	 *         (in which case it should be ignored)
+	 */
+	public static List<ByteRange> parse(String header, long size) {
+		if (header == null || !header.startsWith(UNIT + "=")) {
+			return null;
+		}
+		String[] specs = header.substring(UNIT.length() + 1).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<ByteRange> ranges = Lists.newArrayList();
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			long start, end;
+			try {
+				if (first.length() == 0) {
+					// Suffix range: last N bytes
+					long suffix = Long.parseLong(last);
+					if (suffix <= 0) {
+						continue;
+					}
+					start = Math.max(0, size - suffix);
+					end = size - 1;
+				} else {
+					start = Long.parseLong(first);
+					end = (last.length() == 0) ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+					if (start < 0 || (last.length() > 0 && Long.parseLong(last) < start)) {
+						return null;
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (start < size && start <= end) {
+				ranges.add(new ByteRange(start, end));
+			}
+		}
+		return ranges.isEmpty() ? UNSATISFIABLE : merge(ranges);
+	}
+
+	/**
+	 * Sorts ranges and merges overlapping or adjacent ones
+	 *
+	 * @param ranges
+	 *            ranges to merge
+	 * @return merged ranges
+	 */
+	private static List<ByteRange> merge(List<ByteRange> ranges) {
+		Collections.sort(ranges, new Comparator<ByteRange>() {
+			@Override
+			public int compare(ByteRange o1, ByteRange o2) {
+				return (o1.start < o2.start) ? -1 : ((o1.start == o2.start) ? 0 : 1);
+			}
+		});
+		List<ByteRange> result = Lists.newArrayList();
+		ByteRange current = ranges.get(0);
+		for (int i = 1; i < ranges.size(); i++) {
+			ByteRange next = ranges.get(i);
+			if (next.start <= current.end + 1) {
+				current = new ByteRange(current.start, Math.max(current.end, next.end));
+			} else {
+				result.add(current);
+				current = next;
+			}
+		}
+		result.add(current);
+		return result;
+	}
+
+}
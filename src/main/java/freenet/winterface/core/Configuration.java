@@ -1,11 +1,15 @@
 package freenet.winterface.core;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.apache.wicket.util.time.Duration;
 
 import freenet.config.ConfigCallback;
 import freenet.config.InvalidConfigValueException;
 import freenet.config.NodeNeedRestartException;
 import freenet.config.SubConfig;
+import freenet.node.RequestStarter;
 import freenet.support.api.BooleanCallback;
 import freenet.support.api.IntCallback;
 import freenet.support.api.LongCallback;
@@ -29,10 +33,52 @@ public class Configuration {
 	private String allowedHosts;
 	/** Full access hosts */
 	private String fullAccessHosts;
+	/** Compiled allowed hosts */
+	private volatile IPMatcher allowedHostsMatcher;
+	/** Compiled full access hosts */
+	private volatile IPMatcher fullAccessMatcher;
+	/** Listeners notified about changes of server options */
+	private final List<ServerListener> serverListeners = new CopyOnWriteArrayList<ServerListener>();
 	/** Bind to addresses */
 	private String bindTo;
 	/** Maximum size for transparent pass-through */
 	private long maxLength;
+	/** Browser cache lifetime (in seconds) of immutable content */
+	private int immutableMaxAge;
+	/** Browser cache lifetime (in seconds) of latest USK editions */
+	private int uskMaxAge;
+	/** Byte budget of cache for small results */
+	private long resourceCacheSize;
+	/** If cached results are kept off-heap */
+	private boolean resourceCacheOffHeap;
+	/** If subresources of fetched pages are prefetched */
+	private boolean prefetch;
+	/** Priority class of prefetches */
+	private int prefetchPriority;
+	/** Maximum number of restricted fetches in flight */
+	private int maxFetches;
+	/** Maximum number of restricted fetches in flight per host */
+	private int maxFetchesPerHost;
+	/** Maximum number of bytes reserved by restricted fetches */
+	private long maxBytesInFlight;
+	/** Maximum number of bytes reserved by restricted fetches per host */
+	private long maxBytesInFlightPerHost;
+	/** Maximum time (in seconds) a restricted fetch waits for admission */
+	private int admissionTimeout;
+	/** Connector type ({@code nio} or {@code bio}) */
+	private String connectorMode;
+	/** Minimum number of server threads */
+	private int minThreads;
+	/** Maximum number of server threads */
+	private int maxThreads;
+	/** Maximum number of jobs waiting for a server thread */
+	private int maxQueued;
+	/** Size of accept queue (backlog) of connectors */
+	private int acceptQueueSize;
+	/** Number of acceptor threads per connector */
+	private int acceptors;
+	/** If pages and resources are warmed up on startup */
+	private boolean warmup;
 
 	/** Default server port value */
 	private final static int PORT_DEFAULT = 8080;
@@ -69,6 +115,100 @@ public class Configuration {
 	/** MaxLength entry name in config file */
 	private final static String MAXLENGTH_OPTION = "maxLength";
 
+	/** Default browser cache lifetime of immutable content (one year) */
+	private final static int IMMUTABLE_MAXAGE_DEFAULT = 365 * 24 * 60 * 60;
+	/** Browser cache lifetime of immutable content entry name in config file */
+	private final static String IMMUTABLE_MAXAGE_OPTION = "immutableMaxAge";
+
+	/** Default browser cache lifetime of latest USK editions */
+	private final static int USK_MAXAGE_DEFAULT = 60;
+	/** Browser cache lifetime of USK editions entry name in config file */
+	private final static String USK_MAXAGE_OPTION = "uskMaxAge";
+
+	/** Default byte budget of cache for small results (16 MiB) */
+	private final static long RESOURCE_CACHE_SIZE_DEFAULT = 16 * 1024 * 1024;
+	/** Byte budget of cache for small results entry name in config file */
+	private final static String RESOURCE_CACHE_SIZE_OPTION = "resourceCacheSize";
+
+	/** Default storage of cached results */
+	private final static boolean RESOURCE_CACHE_OFFHEAP_DEFAULT = false;
+	/** Storage of cached results entry name in config file */
+	private final static String RESOURCE_CACHE_OFFHEAP_OPTION = "resourceCacheOffHeap";
+
+	/** Default prefetching of subresources */
+	private final static boolean PREFETCH_DEFAULT = false;
+	/** Prefetching of subresources entry name in config file */
+	private final static String PREFETCH_OPTION = "prefetch";
+
+	/** Default priority class of prefetches */
+	private final static int PREFETCH_PRIORITY_DEFAULT = RequestStarter.PREFETCH_PRIORITY_CLASS;
+	/** Priority class of prefetches entry name in config file */
+	private final static String PREFETCH_PRIORITY_OPTION = "prefetchPriority";
+
+	/** Default maximum number of restricted fetches in flight */
+	private final static int MAX_FETCHES_DEFAULT = 64;
+	/** Maximum number of restricted fetches entry name in config file */
+	private final static String MAX_FETCHES_OPTION = "maxFetches";
+
+	/** Default maximum number of restricted fetches in flight per host */
+	private final static int MAX_FETCHES_PER_HOST_DEFAULT = 4;
+	/** Maximum number of restricted fetches per host entry name in config file */
+	private final static String MAX_FETCHES_PER_HOST_OPTION = "maxFetchesPerHost";
+
+	/** Default maximum number of bytes reserved by restricted fetches (256 MiB) */
+	private final static long MAX_BYTES_IN_FLIGHT_DEFAULT = 256 * 1024 * 1024;
+	/** Maximum number of reserved bytes entry name in config file */
+	private final static String MAX_BYTES_IN_FLIGHT_OPTION = "maxBytesInFlight";
+
+	/** Default maximum number of bytes reserved per host (32 MiB) */
+	private final static long MAX_BYTES_IN_FLIGHT_PER_HOST_DEFAULT = 32 * 1024 * 1024;
+	/** Maximum number of reserved bytes per host entry name in config file */
+	private final static String MAX_BYTES_IN_FLIGHT_PER_HOST_OPTION = "maxBytesInFlightPerHost";
+
+	/** Default admission timeout (in seconds) */
+	private final static int ADMISSION_TIMEOUT_DEFAULT = 15;
+	/** Admission timeout entry name in config file */
+	private final static String ADMISSION_TIMEOUT_OPTION = "admissionTimeout";
+
+	/** Non-blocking connectors */
+	public final static String CONNECTOR_NIO = "nio";
+	/** Blocking (thread per connection) connectors */
+	public final static String CONNECTOR_BIO = "bio";
+	/** Default connector type */
+	private final static String CONNECTOR_MODE_DEFAULT = CONNECTOR_NIO;
+	/** Connector type entry name in config file */
+	private final static String CONNECTOR_MODE_OPTION = "connectorMode";
+
+	/** Default minimum number of server threads */
+	private final static int MIN_THREADS_DEFAULT = 4;
+	/** Minimum number of server threads entry name in config file */
+	private final static String MIN_THREADS_OPTION = "minThreads";
+
+	/** Default maximum number of server threads (same as Jetty's default) */
+	private final static int MAX_THREADS_DEFAULT = 254;
+	/** Maximum number of server threads entry name in config file */
+	private final static String MAX_THREADS_OPTION = "maxThreads";
+
+	/** Default maximum number of jobs waiting for a server thread */
+	private final static int MAX_QUEUED_DEFAULT = 256;
+	/** Maximum number of waiting jobs entry name in config file */
+	private final static String MAX_QUEUED_OPTION = "maxQueued";
+
+	/** Default size of accept queue ({@code 0} uses system default) */
+	private final static int ACCEPT_QUEUE_SIZE_DEFAULT = 0;
+	/** Size of accept queue entry name in config file */
+	private final static String ACCEPT_QUEUE_SIZE_OPTION = "acceptQueueSize";
+
+	/** Default number of acceptor threads per connector */
+	private final static int ACCEPTORS_DEFAULT = 1;
+	/** Number of acceptor threads entry name in config file */
+	private final static String ACCEPTORS_OPTION = "acceptors";
+
+	/** Default warm-up on startup */
+	private final static boolean WARMUP_DEFAULT = true;
+	/** Warm-up on startup entry name in config file */
+	private final static String WARMUP_OPTION = "warmup";
+
 	/**
 	 * {@link ConfigCallback} for gate public way mode
 	 * 
@@ -102,7 +242,17 @@ public class Configuration {
 
 		@Override
 		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			int old = port;
 			port = val;
+			if (old != val) {
+				try {
+					notifyBindingChanged();
+				} catch (InvalidConfigValueException e) {
+					// Keep value matching running connectors
+					port = old;
+					throw e;
+				}
+			}
 		}
 	}
 
@@ -122,6 +272,9 @@ public class Configuration {
 		@Override
 		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
 			idleTimeout = val;
+			for (ServerListener listener : serverListeners) {
+				listener.idleTimeoutChanged();
+			}
 		}
 
 	}
@@ -145,7 +298,8 @@ public class Configuration {
 				throw new InvalidConfigValueException("Host list contains illegal characters.");
 			}
 			allowedHosts = val;
-			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+			// Picked up by IPFilter with next request
+			allowedHostsMatcher = IPMatcher.compile(val);
 		}
 
 	}
@@ -169,6 +323,7 @@ public class Configuration {
 				throw new InvalidConfigValueException("Host list contains illegal characters.");
 			}
 			fullAccessHosts = val;
+			fullAccessMatcher = IPMatcher.compile(val);
 		}
 
 	}
@@ -191,7 +346,17 @@ public class Configuration {
 			if (!isHostListValid(val)) {
 				throw new InvalidConfigValueException("Host list contains illegal characters.");
 			}
+			String old = bindTo;
 			bindTo = val;
+			if (!val.equals(old)) {
+				try {
+					notifyBindingChanged();
+				} catch (InvalidConfigValueException e) {
+					// Keep value matching running connectors
+					bindTo = old;
+					throw e;
+				}
+			}
 		}
 
 	}
@@ -217,6 +382,421 @@ public class Configuration {
 
 	}
 
+	/**
+	 * {@link ConfigCallback} for browser cache lifetime of immutable content
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class ImmutableMaxAge extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return immutableMaxAge;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Cache lifetime may not be negative.");
+			}
+			immutableMaxAge = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for browser cache lifetime of USK editions
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class UskMaxAge extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return uskMaxAge;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Cache lifetime may not be negative.");
+			}
+			uskMaxAge = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for byte budget of cached results
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class ResourceCacheSize extends LongCallback {
+
+		@Override
+		public Long get() {
+			return resourceCacheSize;
+		}
+
+		@Override
+		public void set(Long val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Cache size may not be negative.");
+			}
+			resourceCacheSize = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for storage of cached results
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class ResourceCacheOffHeap extends BooleanCallback {
+
+		@Override
+		public Boolean get() {
+			return resourceCacheOffHeap;
+		}
+
+		@Override
+		public void set(Boolean val) throws InvalidConfigValueException, NodeNeedRestartException {
+			resourceCacheOffHeap = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for prefetching of subresources
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class PrefetchOption extends BooleanCallback {
+
+		@Override
+		public Boolean get() {
+			return prefetch;
+		}
+
+		@Override
+		public void set(Boolean val) throws InvalidConfigValueException, NodeNeedRestartException {
+			prefetch = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for priority class of prefetches
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class PrefetchPriority extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return prefetchPriority;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < RequestStarter.MAXIMUM_PRIORITY_CLASS || val > RequestStarter.MINIMUM_PRIORITY_CLASS) {
+				throw new InvalidConfigValueException("Invalid priority class.");
+			}
+			prefetchPriority = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for maximum number of restricted fetches
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class MaxFetches extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return maxFetches;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Limit may not be negative.");
+			}
+			maxFetches = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for maximum number of restricted fetches per host
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class MaxFetchesPerHost extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return maxFetchesPerHost;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Limit may not be negative.");
+			}
+			maxFetchesPerHost = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for maximum number of reserved bytes
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class MaxBytesInFlight extends LongCallback {
+
+		@Override
+		public Long get() {
+			return maxBytesInFlight;
+		}
+
+		@Override
+		public void set(Long val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Limit may not be negative.");
+			}
+			maxBytesInFlight = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for maximum number of reserved bytes per host
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class MaxBytesInFlightPerHost extends LongCallback {
+
+		@Override
+		public Long get() {
+			return maxBytesInFlightPerHost;
+		}
+
+		@Override
+		public void set(Long val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Limit may not be negative.");
+			}
+			maxBytesInFlightPerHost = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for admission timeout
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class AdmissionTimeout extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return admissionTimeout;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Timeout may not be negative.");
+			}
+			admissionTimeout = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for connector type
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class ConnectorMode extends StringCallback {
+
+		@Override
+		public String get() {
+			return connectorMode;
+		}
+
+		@Override
+		public void set(String val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (!CONNECTOR_NIO.equals(val) && !CONNECTOR_BIO.equals(val)) {
+				throw new InvalidConfigValueException("Connector mode must be either " + CONNECTOR_NIO + " or " + CONNECTOR_BIO + ".");
+			}
+			connectorMode = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for minimum number of server threads
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class MinThreads extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return minThreads;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 1 || val > maxThreads) {
+				throw new InvalidConfigValueException("Minimum number of threads must be between 1 and " + maxThreads + ".");
+			}
+			minThreads = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for maximum number of server threads
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class MaxThreads extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return maxThreads;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < minThreads) {
+				throw new InvalidConfigValueException("Maximum number of threads may not be less than " + minThreads + ".");
+			}
+			maxThreads = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for maximum number of jobs waiting for a server
+	 * thread
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class MaxQueued extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return maxQueued;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 1) {
+				throw new InvalidConfigValueException("Queue must hold at least one job.");
+			}
+			maxQueued = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for size of accept queue
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class AcceptQueueSize extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return acceptQueueSize;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Queue size may not be negative.");
+			}
+			acceptQueueSize = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for number of acceptor threads
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class Acceptors extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return acceptors;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 1) {
+				throw new InvalidConfigValueException("At least one acceptor is needed.");
+			}
+			acceptors = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for warm-up on startup
+	 * 
+	 * @author pausb
+	 * 
+	 */
+	class WarmupOption extends BooleanCallback {
+
+		@Override
+		public Boolean get() {
+			return warmup;
+		}
+
+		@Override
+		public void set(Boolean val) throws InvalidConfigValueException, NodeNeedRestartException {
+			// Used on next startup
+			warmup = val;
+		}
+
+	}
+
 	/**
 	 * Initializes {@link SubConfig} passed by Freenet before
 	 * {@link WinterfacePlugin} starts
@@ -238,14 +818,69 @@ public class Configuration {
 		subConfig.register(ALLOWED_HOSTS_OPTION, ALLOWED_HOSTS_DEFAULT, ++sortOrder, true, false, shortDesc(ALLOWED_HOSTS_OPTION),
 				longDesc(ALLOWED_HOSTS_OPTION), new AllowedHosts());
 		allowedHosts = subConfig.getString(ALLOWED_HOSTS_OPTION);
+		allowedHostsMatcher = IPMatcher.compile(allowedHosts);
 		subConfig.register(FULLACCESS_HOSTS_OPTION, FULLACCESS_HOSTS_DEFAULT, ++sortOrder, true, false, shortDesc(FULLACCESS_HOSTS_OPTION),
 				longDesc(FULLACCESS_HOSTS_OPTION), new FullAccessHosts());
 		fullAccessHosts = subConfig.getString(FULLACCESS_HOSTS_OPTION);
+		fullAccessMatcher = IPMatcher.compile(fullAccessHosts);
 		subConfig.register(BINDTO_OPTION, BINDTO_DEFAULT, ++sortOrder, true, false, shortDesc(BINDTO_OPTION), longDesc(BINDTO_OPTION), new BindToHosts());
 		bindTo = subConfig.getString(BINDTO_OPTION);
 		subConfig.register(MAXLENGTH_OPTION, MAXLENGTH_DEFAULT, ++sortOrder, true, false, shortDesc(MAXLENGTH_OPTION), longDesc(MAXLENGTH_OPTION),
 				new MaxLength(), false);
 		maxLength = subConfig.getLong(MAXLENGTH_OPTION);
+		subConfig.register(IMMUTABLE_MAXAGE_OPTION, IMMUTABLE_MAXAGE_DEFAULT, ++sortOrder, true, false, shortDesc(IMMUTABLE_MAXAGE_OPTION),
+				longDesc(IMMUTABLE_MAXAGE_OPTION), new ImmutableMaxAge(), false);
+		immutableMaxAge = subConfig.getInt(IMMUTABLE_MAXAGE_OPTION);
+		subConfig.register(USK_MAXAGE_OPTION, USK_MAXAGE_DEFAULT, ++sortOrder, true, false, shortDesc(USK_MAXAGE_OPTION), longDesc(USK_MAXAGE_OPTION),
+				new UskMaxAge(), false);
+		uskMaxAge = subConfig.getInt(USK_MAXAGE_OPTION);
+		subConfig.register(RESOURCE_CACHE_SIZE_OPTION, RESOURCE_CACHE_SIZE_DEFAULT, ++sortOrder, true, false, shortDesc(RESOURCE_CACHE_SIZE_OPTION),
+				longDesc(RESOURCE_CACHE_SIZE_OPTION), new ResourceCacheSize(), true);
+		resourceCacheSize = subConfig.getLong(RESOURCE_CACHE_SIZE_OPTION);
+		subConfig.register(RESOURCE_CACHE_OFFHEAP_OPTION, RESOURCE_CACHE_OFFHEAP_DEFAULT, ++sortOrder, true, false, shortDesc(RESOURCE_CACHE_OFFHEAP_OPTION),
+				longDesc(RESOURCE_CACHE_OFFHEAP_OPTION), new ResourceCacheOffHeap());
+		resourceCacheOffHeap = subConfig.getBoolean(RESOURCE_CACHE_OFFHEAP_OPTION);
+		subConfig.register(PREFETCH_OPTION, PREFETCH_DEFAULT, ++sortOrder, true, false, shortDesc(PREFETCH_OPTION), longDesc(PREFETCH_OPTION),
+				new PrefetchOption());
+		prefetch = subConfig.getBoolean(PREFETCH_OPTION);
+		subConfig.register(PREFETCH_PRIORITY_OPTION, PREFETCH_PRIORITY_DEFAULT, ++sortOrder, true, false, shortDesc(PREFETCH_PRIORITY_OPTION),
+				longDesc(PREFETCH_PRIORITY_OPTION), new PrefetchPriority(), false);
+		prefetchPriority = subConfig.getInt(PREFETCH_PRIORITY_OPTION);
+		subConfig.register(MAX_FETCHES_OPTION, MAX_FETCHES_DEFAULT, ++sortOrder, true, false, shortDesc(MAX_FETCHES_OPTION), longDesc(MAX_FETCHES_OPTION),
+				new MaxFetches(), false);
+		maxFetches = subConfig.getInt(MAX_FETCHES_OPTION);
+		subConfig.register(MAX_FETCHES_PER_HOST_OPTION, MAX_FETCHES_PER_HOST_DEFAULT, ++sortOrder, true, false, shortDesc(MAX_FETCHES_PER_HOST_OPTION),
+				longDesc(MAX_FETCHES_PER_HOST_OPTION), new MaxFetchesPerHost(), false);
+		maxFetchesPerHost = subConfig.getInt(MAX_FETCHES_PER_HOST_OPTION);
+		subConfig.register(MAX_BYTES_IN_FLIGHT_OPTION, MAX_BYTES_IN_FLIGHT_DEFAULT, ++sortOrder, true, false, shortDesc(MAX_BYTES_IN_FLIGHT_OPTION),
+				longDesc(MAX_BYTES_IN_FLIGHT_OPTION), new MaxBytesInFlight(), true);
+		maxBytesInFlight = subConfig.getLong(MAX_BYTES_IN_FLIGHT_OPTION);
+		subConfig.register(MAX_BYTES_IN_FLIGHT_PER_HOST_OPTION, MAX_BYTES_IN_FLIGHT_PER_HOST_DEFAULT, ++sortOrder, true, false,
+				shortDesc(MAX_BYTES_IN_FLIGHT_PER_HOST_OPTION), longDesc(MAX_BYTES_IN_FLIGHT_PER_HOST_OPTION), new MaxBytesInFlightPerHost(), true);
+		maxBytesInFlightPerHost = subConfig.getLong(MAX_BYTES_IN_FLIGHT_PER_HOST_OPTION);
+		subConfig.register(ADMISSION_TIMEOUT_OPTION, ADMISSION_TIMEOUT_DEFAULT, ++sortOrder, true, false, shortDesc(ADMISSION_TIMEOUT_OPTION),
+				longDesc(ADMISSION_TIMEOUT_OPTION), new AdmissionTimeout(), false);
+		admissionTimeout = subConfig.getInt(ADMISSION_TIMEOUT_OPTION);
+		subConfig.register(CONNECTOR_MODE_OPTION, CONNECTOR_MODE_DEFAULT, ++sortOrder, true, false, shortDesc(CONNECTOR_MODE_OPTION),
+				longDesc(CONNECTOR_MODE_OPTION), new ConnectorMode());
+		connectorMode = subConfig.getString(CONNECTOR_MODE_OPTION);
+		subConfig.register(MAX_THREADS_OPTION, MAX_THREADS_DEFAULT, ++sortOrder, true, false, shortDesc(MAX_THREADS_OPTION), longDesc(MAX_THREADS_OPTION),
+				new MaxThreads(), false);
+		maxThreads = subConfig.getInt(MAX_THREADS_OPTION);
+		subConfig.register(MIN_THREADS_OPTION, MIN_THREADS_DEFAULT, ++sortOrder, true, false, shortDesc(MIN_THREADS_OPTION), longDesc(MIN_THREADS_OPTION),
+				new MinThreads(), false);
+		minThreads = subConfig.getInt(MIN_THREADS_OPTION);
+		subConfig.register(MAX_QUEUED_OPTION, MAX_QUEUED_DEFAULT, ++sortOrder, true, false, shortDesc(MAX_QUEUED_OPTION), longDesc(MAX_QUEUED_OPTION),
+				new MaxQueued(), false);
+		maxQueued = subConfig.getInt(MAX_QUEUED_OPTION);
+		subConfig.register(ACCEPT_QUEUE_SIZE_OPTION, ACCEPT_QUEUE_SIZE_DEFAULT, ++sortOrder, true, false, shortDesc(ACCEPT_QUEUE_SIZE_OPTION),
+				longDesc(ACCEPT_QUEUE_SIZE_OPTION), new AcceptQueueSize(), false);
+		acceptQueueSize = subConfig.getInt(ACCEPT_QUEUE_SIZE_OPTION);
+		subConfig.register(ACCEPTORS_OPTION, ACCEPTORS_DEFAULT, ++sortOrder, true, false, shortDesc(ACCEPTORS_OPTION), longDesc(ACCEPTORS_OPTION),
+				new Acceptors(), false);
+		acceptors = subConfig.getInt(ACCEPTORS_OPTION);
+		subConfig.register(WARMUP_OPTION, WARMUP_DEFAULT, ++sortOrder, true, false, shortDesc(WARMUP_OPTION), longDesc(WARMUP_OPTION), new WarmupOption());
+		warmup = subConfig.getBoolean(WARMUP_OPTION);
 	}
 
 	/**
@@ -315,6 +950,28 @@ public class Configuration {
 		return fullAccessHosts;
 	}
 
+	/**
+	 * Returns compiled list of allowed hosts. The matcher is replaced as a
+	 * whole if the list changes.
+	 * 
+	 * @return {@link IPMatcher} of allowed hosts
+	 * @see #getAllowedHosts()
+	 */
+	public IPMatcher getAllowedHostsMatcher() {
+		return allowedHostsMatcher;
+	}
+
+	/**
+	 * Returns compiled list of hosts with full access. The matcher is replaced
+	 * as a whole if the list changes.
+	 * 
+	 * @return {@link IPMatcher} of full access hosts
+	 * @see #getFullAccessHosts()
+	 */
+	public IPMatcher getFullAccessMatcher() {
+		return fullAccessMatcher;
+	}
+
 	/**
 	 * Returns a list of hosts to bind server to
 	 * 
@@ -332,6 +989,204 @@ public class Configuration {
 	public long getMaxLength() {
 		return maxLength;
 	}
+
+	/**
+	 * Returns browser cache lifetime of immutable content (CHKs and SSKs)
+	 * 
+	 * @return lifetime in seconds ({@code 0} disables caching)
+	 */
+	public int getImmutableMaxAge() {
+		return immutableMaxAge;
+	}
+
+	/**
+	 * Returns browser cache lifetime of the latest known edition of a USK
+	 * 
+	 * @return lifetime in seconds ({@code 0} disables caching)
+	 */
+	public int getUskMaxAge() {
+		return uskMaxAge;
+	}
+
+	/**
+	 * Returns byte budget of cache for small results
+	 * 
+	 * @return maximum number of cached bytes ({@code 0} disables cache)
+	 */
+	public long getResourceCacheSize() {
+		return resourceCacheSize;
+	}
+
+	/**
+	 * {@code true} if cached results are kept in direct (off-heap) buffers
+	 * 
+	 * @return {@code false} if cached results are kept on heap
+	 */
+	public boolean isResourceCacheOffHeap() {
+		return resourceCacheOffHeap;
+	}
+
+	/**
+	 * {@code true} if subresources of fetched HTML pages are prefetched
+	 * 
+	 * @return {@code false} if prefetching is disabled
+	 */
+	public boolean isPrefetchEnabled() {
+		return prefetch;
+	}
+
+	/**
+	 * Returns priority class of prefetches
+	 * 
+	 * @return priority class (see {@link RequestStarter})
+	 */
+	public short getPrefetchPriority() {
+		return (short) prefetchPriority;
+	}
+
+	/**
+	 * Returns maximum number of fetches started by restricted hosts (public
+	 * gateway mode) which may run at the same time
+	 * 
+	 * @return maximum number of fetches ({@code 0} means unlimited)
+	 */
+	public int getMaxFetches() {
+		return maxFetches;
+	}
+
+	/**
+	 * Returns maximum number of fetches a single restricted host may run at
+	 * the same time
+	 * 
+	 * @return maximum number of fetches ({@code 0} means unlimited)
+	 */
+	public int getMaxFetchesPerHost() {
+		return maxFetchesPerHost;
+	}
+
+	/**
+	 * Returns maximum number of bytes reserved by fetches of restricted hosts
+	 * 
+	 * @return maximum number of bytes ({@code 0} means unlimited)
+	 */
+	public long getMaxBytesInFlight() {
+		return maxBytesInFlight;
+	}
+
+	/**
+	 * Returns maximum number of bytes reserved by fetches of a single
+	 * restricted host
+	 * 
+	 * @return maximum number of bytes ({@code 0} means unlimited)
+	 */
+	public long getMaxBytesInFlightPerHost() {
+		return maxBytesInFlightPerHost;
+	}
+
+	/**
+	 * Returns maximum time a fetch of a restricted host waits for admission
+	 * 
+	 * @return timeout in seconds
+	 */
+	public int getAdmissionTimeout() {
+		return admissionTimeout;
+	}
+
+	/**
+	 * {@code true} if server uses non-blocking connectors
+	 * 
+	 * @return {@code false} if server uses blocking (thread per connection)
+	 *         connectors
+	 */
+	public boolean isNioConnector() {
+		return CONNECTOR_NIO.equals(connectorMode);
+	}
+
+	/**
+	 * Returns minimum number of server threads
+	 * 
+	 * @return minimum number of threads
+	 */
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	/**
+	 * Returns maximum number of server threads
+	 * 
+	 * @return maximum number of threads
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Returns maximum number of jobs waiting for a server thread
+	 * 
+	 * @return maximum number of waiting jobs
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * Returns size of accept queue (backlog) of connectors
+	 * 
+	 * @return queue size ({@code 0} uses system default)
+	 */
+	public int getAcceptQueueSize() {
+		return acceptQueueSize;
+	}
+
+	/**
+	 * Returns number of acceptor threads per connector
+	 * 
+	 * @return number of acceptors
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	/**
+	 * {@code true} if pages and resources are warmed up on startup
+	 * 
+	 * @return {@code false} if warm-up is disabled
+	 */
+	public boolean isWarmupEnabled() {
+		return warmup;
+	}
+
+	/**
+	 * Registers a listener for changes of server options
+	 * 
+	 * @param listener
+	 *            {@link ServerListener} to notify
+	 */
+	public void addServerListener(ServerListener listener) {
+		serverListeners.add(listener);
+	}
+
+	/**
+	 * Notifies all {@link ServerListener}s about changed bindings
+	 * 
+	 * @throws InvalidConfigValueException
+	 *             if new bindings could not be applied
+	 */
+	private void notifyBindingChanged() throws InvalidConfigValueException {
+		for (ServerListener listener : serverListeners) {
+			listener.bindingChanged();
+		}
+	}
+
+	/**
+	 * Removes a registered listener
+	 * 
+	 * @param listener
+	 *            {@link ServerListener} to remove
+	 */
+	public void removeServerListener(ServerListener listener) {
+		serverListeners.remove(listener);
+	}
 	
 	/**
 	 * Checks a comma separated list of hosts (IPs) for validity.
@@ -351,4 +1206,32 @@ public class Configuration {
 		return true;
 	}
 
+	/**
+	 * Is notified about server options which are applied without restart.
+	 * <p>
+	 * Changes of allowed and full access hosts need no notification, since
+	 * their compiled {@link IPMatcher}s are read on each request.
+	 * </p>
+	 * 
+	 * @author pausb
+	 * @see ServerManager
+	 */
+	public interface ServerListener {
+
+		/**
+		 * Called after port or bind to hosts have changed
+		 * 
+		 * @throws InvalidConfigValueException
+		 *             if new bindings could not be applied (former bindings
+		 *             are kept running)
+		 */
+		void bindingChanged() throws InvalidConfigValueException;
+
+		/**
+		 * Called after idle timeout has changed
+		 */
+		void idleTimeoutChanged();
+
+	}
+
 }
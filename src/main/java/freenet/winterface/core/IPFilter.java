@@ -1,7 +1,6 @@
 package freenet.winterface.core;
 
 import java.io.IOException;
-import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -16,7 +15,6 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 
-import freenet.io.AddressMatcher;
 import freenet.winterface.web.core.WinterfaceApplication;
 
 /**
@@ -26,8 +24,9 @@ import freenet.winterface.web.core.WinterfaceApplication;
  * hosts in its {@link Configuration}. Hosts can be also in CIDR format.
  * Filtering is done in following steps:
  * <ul>
- * <li>Match remote address against allowed hosts. This is done using
- * {@link AddressMatcher} which is also capable of subnet matching.</li>
+ * <li>Match remote address against allowed hosts. This is done using the
+ * compiled {@link IPMatcher} of {@link Configuration}, which is also capable
+ * of subnet matching and caches its decisions.</li>
  * <li>If remote host is not in the list of allowed hosts it is blocked
  * <b>only</b> if required page is not contained in list of white listed paths
  * (see bellow)</li>
@@ -45,11 +44,8 @@ import freenet.winterface.web.core.WinterfaceApplication;
  */
 public class IPFilter implements Filter {
 
-	/** List of allowedHosts as read from filter config */
-	private String[] allowedHosts;
-
-	/** Filter parameter name containing allowed hosts */
-	public final static String ALLOWED_HOSTS_PARAM = "allowedHosts";
+	/** Configuration containing allowed hosts */
+	private Configuration config;
 
 	/** List of urls not to block **/
 	private final static List<String> whiteUrls = Arrays.asList("/error", "/static");
@@ -59,30 +55,19 @@ public class IPFilter implements Filter {
 
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException {
-		String configAllowed = filterConfig.getInitParameter(ALLOWED_HOSTS_PARAM);
-		logger.info("Filter initiated with following hosts: " + configAllowed);
-		allowedHosts = configAllowed.split(",");
+		config = (Configuration) filterConfig.getServletContext().getAttribute(ServerManager.CONFIG_ID);
+		logger.info("Filter initiated with following hosts: " + config.getAllowedHosts());
 	}
 
 	@Override
 	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
 		String path = ((HttpServletRequest) request).getServletPath();
 		String remoteAddr = request.getRemoteAddr();
-		boolean unblock = false;
-		// First check if remote address is included in allowed hosts
-		for (String allowed : allowedHosts) {
-			try {
-				unblock |= IPUtils.quietMatches(allowed, remoteAddr);
-			} catch (UnknownHostException e) {
-				logger.error("Error while matching allowed hosts and remoter address.", e);
-				unblock = false;
-			}
-		}
 		// We don't block access to specific URLs such as error pages and static
 		// data.
 		// This is necessary because a blocking request forwards to an error
 		// page with static resources
-		if (unblock || whiteUrls.contains(path)) {
+		if (config.getAllowedHostsMatcher().matches(remoteAddr) || whiteUrls.contains(path)) {
 			chain.doFilter(request, response);
 			return;
 		}
@@ -0,0 +1,319 @@
+package freenet.winterface.core;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.net.InetAddresses;
+
+/**
+ * Matches IP addresses against a compiled list of hosts.
+ * <p>
+ * A comma separated list of hosts (which may be in CIDR format) is compiled
+ * once into sorted, merged ranges over 128 bit keys. IPv4 addresses are mapped
+ * into IPv6 space ({@code ::ffff:a.b.c.d}), so both versions share the same
+ * ranges. Addresses are only parsed as literals, so matching never does a DNS
+ * lookup. Host names in the list are ignored.
+ * </p>
+ * <p>
+ * Decisions are cached per address in a bounded, concurrent Guava
+ * {@link Cache}. Instances are immutable (apart from their cache) and are
+ * replaced as a whole if the host list changes.
+ * </p>
+ *
+ * @author pausb
+ * @see IPFilter
+ * @see Configuration#getAllowedHostsMatcher()
+ * @see Configuration#getFullAccessMatcher()
+ */
+public class IPMatcher {
+
+	/** Host list this matcher was compiled from */
+	private final String hostList;
+	/** Range starts (upper/lower 64 bits with flipped sign bit) */
+	private final long[] startHi, startLo;
+	/** Range ends (upper/lower 64 bits with flipped sign bit) */
+	private final long[] endHi, endLo;
+	/** Cached decisions mapped by address */
+	private final Cache<String, Boolean> decisions;
+
+	/** Maximum number of cached decisions */
+	public final static int MAX_CACHED = 1024;
+
+	/** Bit length of an IPv4 address */
+	private final static int IPV4_BITS = 32;
+	/** Bit length of an IPv6 address */
+	private final static int IPV6_BITS = 128;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(IPMatcher.class);
+
+	/**
+	 * Constructs.
+	 *
+	 * @param hostList
+	 *            comma separated list of IPs (may be in CIDR format)
+	 */
+	private IPMatcher(String hostList) {
+		this.hostList = hostList;
+		List<long[]> ranges = Lists.newArrayList();
+		for (String host : hostList.split(",")) {
+			long[] range = parseRange(host.trim());
+			if (range != null) {
+				ranges.add(range);
+			}
+		}
+		ranges = merge(ranges);
+		int size = ranges.size();
+		this.startHi = new long[size];
+		this.startLo = new long[size];
+		this.endHi = new long[size];
+		this.endLo = new long[size];
+		for (int i = 0; i < size; i++) {
+			long[] range = ranges.get(i);
+			startHi[i] = range[0];
+			startLo[i] = range[1];
+			endHi[i] = range[2];
+			endLo[i] = range[3];
+		}
+		this.decisions = CacheBuilder.newBuilder().maximumSize(MAX_CACHED).build();
+	}
+
+	/**
+	 * Compiles a list of hosts
+	 *
+	 * @param hostList
+	 *            comma separated list of IPs (may be in CIDR format)
+	 * @return compiled {@link IPMatcher}
+	 */
+	public static IPMatcher compile(String hostList) {
+		return new IPMatcher(hostList == null ? "" : hostList);
+	}
+
+	/**
+	 * Checks if an address is contained in any of the compiled hosts
+	 *
+	 * @param addr
+	 *            IP literal to check
+	 * @return {@code true} if any of the hosts <i>contains</i> given IP
+	 */
+	public boolean matches(String addr) {
+		if (addr == null) {
+			return false;
+		}
+		Boolean decision = decisions.getIfPresent(addr);
+		if (decision == null) {
+			// Lookup is cheap, so concurrent misses may compute it twice
+			decision = lookup(addr);
+			decisions.put(addr, decision);
+		}
+		return decision;
+	}
+
+	/**
+	 * @return host list this matcher was compiled from
+	 */
+	public String getHostList() {
+		return hostList;
+	}
+
+	/**
+	 * Searches the range containing given address
+	 */
+	private boolean lookup(String addr) {
+		long[] key = parseKey(addr);
+		if (key == null) {
+			return false;
+		}
+		long hi = key[0], lo = key[1];
+		// Find last range starting at or before key
+		int low = 0, high = startHi.length - 1, found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (compare(startHi[mid], startLo[mid], hi, lo) <= 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found >= 0 && compare(hi, lo, endHi[found], endLo[found]) <= 0;
+	}
+
+	/**
+	 * Parses an IP literal into a 128 bit key
+	 *
+	 * @return upper and lower 64 bits (with flipped sign bit) or {@code null}
+	 *         if address is not an IP literal
+	 */
+	private static long[] parseKey(String addr) {
+		InetAddress parsed = parseLiteral(addr);
+		if (parsed == null) {
+			return null;
+		}
+		byte[] bytes = parsed.getAddress();
+		long hi = 0, lo = 0;
+		if (parsed instanceof Inet4Address) {
+			// ::ffff:a.b.c.d
+			lo = 0xffffL;
+			for (byte b : bytes) {
+				lo = (lo << 8) | (b & 0xff);
+			}
+		} else {
+			for (int i = 0; i < 8; i++) {
+				hi = (hi << 8) | (bytes[i] & 0xff);
+				lo = (lo << 8) | (bytes[i + 8] & 0xff);
+			}
+		}
+		return new long[] { hi ^ Long.MIN_VALUE, lo ^ Long.MIN_VALUE };
+	}
+
+	/**
+	 * Parses an IP literal without DNS lookup
+	 *
+	 * @return parsed address or {@code null} if it is no literal
+	 */
+	private static InetAddress parseLiteral(String addr) {
+		String literal = addr;
+		if (literal.startsWith("[") && literal.endsWith("]")) {
+			literal = literal.substring(1, literal.length() - 1);
+		}
+		int scope = literal.indexOf('%');
+		if (scope > -1) {
+			literal = literal.substring(0, scope);
+		}
+		try {
+			return InetAddresses.forString(literal);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parses a host (which may be in CIDR format) into a range of keys
+	 *
+	 * @return start and end of range or {@code null} if host is invalid
+	 */
+	private static long[] parseRange(String host) {
+		if (host.length() == 0) {
+			return null;
+		}
+		int maskIndex = host.indexOf('/');
+		String addr = (maskIndex > -1) ? host.substring(0, maskIndex) : host;
+		InetAddress parsed = parseLiteral(addr);
+		if (parsed == null) {
+			logger.warn("Ignoring host which is no IP literal: " + host);
+			return null;
+		}
+		// IPv4-mapped IPv6 literals are parsed as IPv4 but have an IPv6 mask
+		boolean v4 = !addr.contains(IPUtils.IPV6_HINT);
+		int bits = v4 ? IPV4_BITS : IPV6_BITS;
+		int prefix = bits;
+		if (maskIndex > -1) {
+			prefix = parsePrefix(host.substring(maskIndex + 1), bits);
+			if (prefix < 0) {
+				logger.warn("Ignoring host with invalid mask: " + host);
+				return null;
+			}
+		}
+		if (v4) {
+			prefix += IPV6_BITS - IPV4_BITS;
+		}
+		long[] key = parseKey(addr);
+		long hi = key[0] ^ Long.MIN_VALUE, lo = key[1] ^ Long.MIN_VALUE;
+		long maskHi = (prefix >= 64) ? -1L : (prefix == 0 ? 0 : -1L << (64 - prefix));
+		long maskLo = (prefix <= 64) ? 0 : (prefix == 128 ? -1L : -1L << (128 - prefix));
+		long sHi = hi & maskHi, sLo = lo & maskLo;
+		long eHi = sHi | ~maskHi, eLo = sLo | ~maskLo;
+		return new long[] { sHi ^ Long.MIN_VALUE, sLo ^ Long.MIN_VALUE, eHi ^ Long.MIN_VALUE, eLo ^ Long.MIN_VALUE };
+	}
+
+	/**
+	 * Parses a subnet mask given either as prefix length or (for IPv4) in
+	 * dotted format
+	 *
+	 * @return prefix length or {@code -1} if mask is invalid
+	 */
+	private static int parsePrefix(String mask, int bits) {
+		if (mask.contains(IPUtils.IPV4_HINT)) {
+			InetAddress parsed = parseLiteral(mask);
+			if (!(parsed instanceof Inet4Address) || bits != IPV4_BITS) {
+				return -1;
+			}
+			byte[] bytes = parsed.getAddress();
+			int value = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+			// Mask bits must be contiguous
+			int host = ~value;
+			return ((host & (host + 1)) == 0) ? Integer.bitCount(value) : -1;
+		}
+		try {
+			int prefix = Integer.parseInt(mask);
+			return (prefix >= 0 && prefix <= bits) ? prefix : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Sorts ranges by start and merges overlapping or adjacent ones
+	 */
+	private static List<long[]> merge(List<long[]> ranges) {
+		long[][] sorted = ranges.toArray(new long[ranges.size()][]);
+		Arrays.sort(sorted, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return IPMatcher.compare(a[0], a[1], b[0], b[1]);
+			}
+		});
+		List<long[]> merged = Lists.newArrayList();
+		long[] current = null;
+		for (long[] range : sorted) {
+			if (current != null && !isAfter(range[0], range[1], current[2], current[3])) {
+				if (compare(range[2], range[3], current[2], current[3]) > 0) {
+					current[2] = range[2];
+					current[3] = range[3];
+				}
+			} else {
+				current = range;
+				merged.add(current);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Checks if a key lies behind the successor of given end
+	 */
+	private static boolean isAfter(long hi, long lo, long endHi, long endLo) {
+		if (endHi == Long.MAX_VALUE && endLo == Long.MAX_VALUE) {
+			// End is the largest key
+			return false;
+		}
+		// Carry into upper bits if lower bits overflow
+		boolean carry = endLo == Long.MAX_VALUE;
+		long nextLo = carry ? Long.MIN_VALUE : endLo + 1;
+		long nextHi = carry ? endHi + 1 : endHi;
+		return compare(hi, lo, nextHi, nextLo) > 0;
+	}
+
+	/**
+	 * Compares two keys (with flipped sign bit)
+	 */
+	private static int compare(long aHi, long aLo, long bHi, long bLo) {
+		if (aHi != bHi) {
+			return (aHi < bHi) ? -1 : 1;
+		}
+		if (aLo != bLo) {
+			return (aLo < bLo) ? -1 : 1;
+		}
+		return 0;
+	}
+
+}
@@ -13,6 +13,7 @@ import freenet.io.Inet6AddressMatcher;
  * @author pausb
  * @see IPAddress
  * @see IPFilter
+ * @see IPMatcher
  */
 public final class IPUtils {
 
@@ -1,5 +1,6 @@
 package freenet.winterface.core;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -9,7 +10,6 @@ import org.apache.wicket.Application;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableBiMap.Builder;
-import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -71,6 +71,10 @@ public class QueueHelper {
 	public final ImmutableBiMap<String, List<RequestStatus>> dl_f_b_mime;
 	/** Backing map of {@link #dl_f_b_mime} (mutable) */
 	private final Map<String, List<RequestStatus>> dl_f_b_mimeBackingMap;
+	/** All values of {@link #dl_f_b_mime} merged into one list */
+	private final List<RequestStatus> dl_f_b_mimeMerged;
+	/** All values of {@link #dl_f_u_mime} merged into one list */
+	private final List<RequestStatus> dl_f_u_mimeMerged;
 
 	/**
 	 * A bi directional map of class codes to corresponding list of
@@ -161,6 +165,41 @@ public class QueueHelper {
 	 *             is thrown if database is disabled
 	 */
 	public QueueHelper(int requestedClass) throws DatabaseDisabledException {
+		this(requestedClass, ((WinterfaceApplication) Application.get()).getFreenetWrapper().getNode().clientCore.getFCPServer());
+	}
+
+	/**
+	 * Constructs.
+	 * <p>
+	 * Same as {@link #QueueHelper(int)} but uses the given {@link FCPServer}
+	 * instead of looking it up in current {@link Application}. This makes it
+	 * possible to create a {@link QueueHelper} outside of a Wicket request
+	 * (e.g. in {@link QueueIndex}).
+	 * </p>
+	 * 
+	 * @param requestedClass
+	 *            class of requested queues
+	 * @param fcp
+	 *            {@link FCPServer} to read global requests from
+	 * @throws DatabaseDisabledException
+	 *             is thrown if database is disabled
+	 */
+	public QueueHelper(int requestedClass, FCPServer fcp) throws DatabaseDisabledException {
+		this(requestedClass, fcp, Arrays.asList(fcp.getGlobalRequests()));
+	}
+
+	/**
+	 * Constructs a {@link QueueHelper} from an already known set of
+	 * {@link RequestStatus}
+	 * 
+	 * @param requestedClass
+	 *            class of requested queues
+	 * @param fcp
+	 *            {@link FCPServer} the requests belong to
+	 * @param globalRequests
+	 *            requests to divide into queues
+	 */
+	QueueHelper(int requestedClass, FCPServer fcp, Iterable<RequestStatus> globalRequests) {
 		requestsBackingMap = Maps.newHashMap();
 		dl_f_b_mimeBackingMap = Maps.newHashMap();
 		dl_f_u_mimeBackingMap = Maps.newHashMap();
@@ -168,9 +207,7 @@ public class QueueHelper {
 		logger.debug("Getting request queue for code " + Integer.toBinaryString(requestedClass));
 		this.requestedClass = requestedClass;
 		this.lowestQueuedPriority = RequestStarter.MINIMUM_PRIORITY_CLASS;
-		fcp = ((WinterfaceApplication) Application.get()).getFreenetWrapper().getNode().clientCore.getFCPServer();
-		RequestStatus[] globalRequests;
-		globalRequests = fcp.getGlobalRequests();
+		this.fcp = fcp;
 		long tmpTotalQueuedDownloadSize = 0;
 		long tmpTotalQueuedUploadSize = 0;
 		for (RequestStatus req : globalRequests) {
@@ -188,9 +225,85 @@ public class QueueHelper {
 		totalQueueDownloadSize = tmpTotalQueuedDownloadSize;
 		totalQueueUploadSize = tmpTotalQueuedUploadSize;
 		// Create immutable bimaps from backing maps
-		requests = ImmutableBiMap.copyOf(requestsBackingMap);
-		dl_f_b_mime = ImmutableBiMap.copyOf(dl_f_b_mimeBackingMap);
-		dl_f_u_mime = ImmutableBiMap.copyOf(dl_f_u_mimeBackingMap);
+		requests = ImmutableBiMap.copyOf(toImmutableLists(requestsBackingMap));
+		dl_f_b_mime = ImmutableBiMap.copyOf(toImmutableLists(dl_f_b_mimeBackingMap));
+		dl_f_u_mime = ImmutableBiMap.copyOf(toImmutableLists(dl_f_u_mimeBackingMap));
+		// Merge MIME maps once, so get(int) does not need to copy
+		dl_f_b_mimeMerged = merge(dl_f_b_mime);
+		dl_f_u_mimeMerged = merge(dl_f_u_mime);
+	}
+
+	/**
+	 * Replaces all (mutable) lists of given map with {@link ImmutableList}s.
+	 * This way the lists can be handed out without copying them.
+	 * 
+	 * @param backingMap
+	 *            map to convert
+	 * @return map containing immutable lists
+	 */
+	private static <K> Map<K, List<RequestStatus>> toImmutableLists(Map<K, List<RequestStatus>> backingMap) {
+		Map<K, List<RequestStatus>> result = Maps.newHashMapWithExpectedSize(backingMap.size());
+		for (Map.Entry<K, List<RequestStatus>> entry : backingMap.entrySet()) {
+			result.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Merges all values of given map into a single {@link ImmutableList}
+	 * 
+	 * @param map
+	 *            map to merge values of
+	 * @return merged list
+	 */
+	private static ImmutableList<RequestStatus> merge(Map<String, List<RequestStatus>> map) {
+		ImmutableList.Builder<RequestStatus> builder = ImmutableList.builder();
+		for (List<RequestStatus> list : map.values()) {
+			builder.addAll(list);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the queue class a single {@link RequestStatus} belongs to.
+	 * <p>
+	 * This is the same classification done by the constructor, but without
+	 * any filtering. It is used by {@link QueueIndex} to find out if a
+	 * request has moved to another queue since the last refresh.
+	 * </p>
+	 * 
+	 * @param req
+	 *            {@link RequestStatus} to classify
+	 * @return queue class of request or {@code 0} if request type is unknown
+	 */
+	public static int classOf(RequestStatus req) {
+		if (req instanceof DownloadRequestStatus) {
+			DownloadRequestStatus download = (DownloadRequestStatus) req;
+			if (download.hasSucceeded()) {
+				return download.toTempSpace() ? DL_C_TEMP : DL_C_DISK;
+			} else if (download.hasFinished()) {
+				int failureCode = download.getFailureCode();
+				if (failureCode == FetchException.CONTENT_VALIDATION_UNKNOWN_MIME) {
+					return DL_F_U_MIME;
+				} else if (failureCode == FetchException.CONTENT_VALIDATION_BAD_MIME) {
+					String mimeType = ContentFilter.stripMIMEType(download.getMIMEType());
+					return ContentFilter.getMIMEType(mimeType) == null ? DL_F_U_MIME : DL_F_B_MIME;
+				}
+				return DL_F;
+			}
+			return DL_UC;
+		} else if (req instanceof UploadFileRequestStatus) {
+			if (req.hasSucceeded()) {
+				return UP_C;
+			}
+			return req.hasFinished() ? UP_F : UP_UC;
+		} else if (req instanceof UploadDirRequestStatus) {
+			if (req.hasSucceeded()) {
+				return UP_C_DIR;
+			}
+			return req.hasFinished() ? UP_F_DIR : UP_UC_DIR;
+		}
+		return 0;
 	}
 
 	/**
@@ -215,7 +328,7 @@ public class QueueHelper {
 				if (download.toTempSpace()) {
 					addToList(download, DL_C_TEMP);
 				} else {
-					addToList(download, DL_C_TEMP);
+					addToList(download, DL_C_DISK);
 				}
 			} else if (download.hasFinished() && isDesired(DL_F)) {
 				int failureCode = download.getFailureCode();
@@ -382,7 +495,7 @@ public class QueueHelper {
 		}
 		List<RequestStatus> list = requestsBackingMap.get(targetClass);
 		if (list == null) {
-			list = Lists.newLinkedList();
+			list = Lists.newArrayList();
 		}
 		list.add(request);
 		requestsBackingMap.put(targetClass, list);
@@ -410,14 +523,14 @@ public class QueueHelper {
 		case DL_F_B_MIME:
 			list = dl_f_b_mimeBackingMap.get(MIMEType);
 			if (list == null) {
-				list = Lists.newLinkedList();
+				list = Lists.newArrayList();
 			}
 			dl_f_b_mimeBackingMap.put(MIMEType, list);
 			break;
 		case DL_F_U_MIME:
 			list = dl_f_u_mimeBackingMap.get(MIMEType);
 			if (list == null) {
-				list = Lists.newLinkedList();
+				list = Lists.newArrayList();
 			}
 			dl_f_u_mimeBackingMap.put(MIMEType, list);
 			break;
@@ -430,6 +543,39 @@ public class QueueHelper {
 		queueSize++;
 	}
 
+	/**
+	 * Parses a target class from a {@link String}
+	 * <p>
+	 * The {@link String} can be either "downloads", "uploads" or a comma
+	 * separated list of class names (see {@link #codeNameMap}). If none of
+	 * them applies, all queues are targeted.
+	 * </p>
+	 * 
+	 * @param param
+	 *            {@link String} to parse (can be {@code null})
+	 * @return parsed target class
+	 */
+	public static int parseTargetClass(String param) {
+		int targetClass = 0;
+		if ("downloads".equalsIgnoreCase(param)) {
+			targetClass = DL_ALL;
+		} else if ("uploads".equalsIgnoreCase(param)) {
+			targetClass = UP_ALL;
+		} else if (param != null) {
+			String[] allClasses = param.split(",");
+			for (String cl : allClasses) {
+				Integer code = codeNameMap.inverse().get(cl);
+				targetClass = (code == null) ? targetClass : (targetClass |= code);
+			}
+		}
+		// None of the above conditions are fulfilled: either parameter is
+		// invalid or not available at all
+		if (targetClass == 0) {
+			targetClass = DL_ALL | UP_ALL;
+		}
+		return targetClass;
+	}
+
 	/**
 	 * Returns {@code true} if base class contains the target class.
 	 * <p>
@@ -479,8 +625,8 @@ public class QueueHelper {
 	 */
 	public List<RequestStatus> getList(int targetClass) {
 		classMustBeSingle(targetClass);
-		List<RequestStatus> result = requests.get(targetClass);
-		return result != null ? ImmutableList.copyOf(result) : null;
+		// Lists are already immutable, no need to copy
+		return requests.get(targetClass);
 	}
 
 	/**
@@ -526,18 +672,10 @@ public class QueueHelper {
 	 */
 	public List<RequestStatus> get(int targetClass) {
 		classMustBeSingle(targetClass);
-		ImmutableCollection<List<RequestStatus>> values = null;
 		if (targetClass == DL_F_U_MIME) {
-			values = ImmutableList.copyOf(dl_f_b_mime.values());
+			return dl_f_u_mimeMerged;
 		} else if (targetClass == DL_F_B_MIME) {
-			values = ImmutableList.copyOf(dl_f_b_mime.values());
-		}
-		if (values != null) {
-			List<RequestStatus> result = Lists.newLinkedList();
-			for (List<RequestStatus> list : values) {
-				result.addAll(list);
-			}
-			return ImmutableList.copyOf(result);
+			return dl_f_b_mimeMerged;
 		} else {
 			return getList(targetClass);
 		}
@@ -0,0 +1,271 @@
+package freenet.winterface.core;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import freenet.client.async.DatabaseDisabledException;
+import freenet.node.fcp.FCPServer;
+import freenet.node.fcp.RequestStatus;
+import freenet.winterface.web.core.WinterfaceApplication;
+
+/**
+ * A long-lived index of all global {@link RequestStatus}(es).
+ * <p>
+ * Instead of reading and classifying all global requests on each page render
+ * (see {@link QueueHelper}), {@link QueueIndex} polls {@link FCPServer} on a
+ * background thread and keeps the queue classes (see
+ * {@link QueueHelper#codeNameMap}) up-to-date incrementally: only requests
+ * which are new, removed or have changed their class are moved between the
+ * buckets.
+ * </p>
+ * <p>
+ * Readers get immutable {@link QueueHelper} snapshots (see
+ * {@link #getSnapshot(int)}) which are built from the desired buckets only and
+ * are shared between all sessions until the {@link RequestTable#generation}
+ * changes.
+ * </p>
+ *
+ * @author pausb
+ * @see QueueHelper
+ * @see WinterfaceApplication
+ */
+public class QueueIndex {
+
+	/** {@link FCPServer} to read global requests from */
+	private final FCPServer fcp;
+
+	/** Maps identifiers to their current queue class */
+	private final Map<String, Integer> classes;
+	/** Maps queue classes to their requests (in insertion order) */
+	private final Map<Integer, Map<String, RequestStatus>> buckets;
+
+	/** Snapshots mapped by their requested class (cleared if generation changes) */
+	private final ConcurrentMap<Integer, QueueHelper> snapshots;
+
+	/** Columnar snapshot of latest refresh */
+	private volatile RequestTable table;
+
+	/** Executes periodic refreshes */
+	private ScheduledExecutorService executor;
+
+	/** Interval (in milliseconds) between two refreshes */
+	public final static long REFRESH_INTERVAL = 2000;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(QueueIndex.class);
+
+	/**
+	 * Constructs.
+	 *
+	 * @param fcp
+	 *            {@link FCPServer} to read global requests from
+	 */
+	public QueueIndex(FCPServer fcp) {
+		this.fcp = fcp;
+		this.classes = Maps.newHashMap();
+		this.buckets = Maps.newHashMap();
+		this.snapshots = Maps.newConcurrentMap();
+		this.table = RequestTable.EMPTY;
+	}
+
+	/**
+	 * Starts refreshing the index periodically in background
+	 *
+	 * @see #REFRESH_INTERVAL
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("winterface-queue-index").build());
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+				} catch (DatabaseDisabledException e) {
+					logger.debug("Database is disabled. Queue index is not refreshed.");
+				} catch (RuntimeException e) {
+					// Never let the scheduled task die
+					logger.error("Error while refreshing queue index", e);
+				}
+			}
+		}, 0, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+		logger.debug("Queue index started");
+	}
+
+	/**
+	 * Stops background refreshing
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+			logger.debug("Queue index stopped");
+		}
+	}
+
+	/**
+	 * Reads global requests from {@link FCPServer} and updates the buckets.
+	 * <p>
+	 * This is called periodically, but can also be called directly (e.g. after
+	 * removing requests) to make changes visible immediately.
+	 * </p>
+	 *
+	 * @return {@code true} if anything has changed
+	 * @throws DatabaseDisabledException
+	 *             if database is disabled
+	 */
+	public synchronized boolean refresh() throws DatabaseDisabledException {
+		RequestStatus[] globalRequests = fcp.getGlobalRequests();
+		Set<String> seen = Sets.newHashSetWithExpectedSize(globalRequests.length);
+		for (RequestStatus req : globalRequests) {
+			String identifier = req.getIdentifier();
+			seen.add(identifier);
+			int newClass = QueueHelper.classOf(req);
+			Integer oldClass = classes.put(identifier, newClass);
+			if (oldClass != null && oldClass != newClass) {
+				buckets.get(oldClass).remove(identifier);
+			}
+			// Node may have replaced the status object
+			bucket(newClass).put(identifier, req);
+		}
+		// Remove vanished requests
+		Iterator<Entry<String, Integer>> it = classes.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<String, Integer> entry = it.next();
+			if (!seen.contains(entry.getKey())) {
+				buckets.get(entry.getValue()).remove(entry.getKey());
+				it.remove();
+			}
+		}
+		// Table compares values of all rows and only increments its generation
+		// if any of them has changed (including progress within a class)
+		RequestTable previous = table;
+		table = new RequestTable(globalRequests, previous);
+		boolean changed = table.generation != previous.generation;
+		if (changed) {
+			snapshots.clear();
+			logger.trace("Queue index changed. Generation is now " + table.generation);
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns an immutable {@link QueueHelper} containing only requests of
+	 * the given queue class.
+	 * <p>
+	 * Snapshots are built from the desired buckets only and are cached until
+	 * the index changes.
+	 * </p>
+	 *
+	 * @param requestedClass
+	 *            class of requested queues (see {@link QueueHelper})
+	 * @return snapshot of current state
+	 */
+	public QueueHelper getSnapshot(int requestedClass) {
+		QueueHelper snapshot = snapshots.get(requestedClass);
+		if (snapshot == null) {
+			// Lock to make sure no refresh happens while building
+			synchronized (this) {
+				snapshot = snapshots.get(requestedClass);
+				if (snapshot == null) {
+					snapshot = buildSnapshot(requestedClass);
+					snapshots.put(requestedClass, snapshot);
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Returns the request with given identifier as known by the latest
+	 * refresh
+	 *
+	 * @param identifier
+	 *            identifier of request
+	 * @return desired request or {@code null} if not known
+	 */
+	public synchronized RequestStatus getRequest(String identifier) {
+		Integer queueClass = classes.get(identifier);
+		return (queueClass == null) ? null : buckets.get(queueClass).get(identifier);
+	}
+
+	/**
+	 * Returns current generation. Generation is incremented each time any
+	 * request is added, removed or changed.
+	 *
+	 * @return current generation
+	 * @see RequestTable#generation
+	 */
+	public long getGeneration() {
+		return table.generation;
+	}
+
+	/**
+	 * Returns a columnar snapshot of all global requests as read by the latest
+	 * refresh. The returned table is immutable and shared by all callers.
+	 *
+	 * @return latest {@link RequestTable}
+	 */
+	public RequestTable getRequestTable() {
+		return table;
+	}
+
+	/**
+	 * @return {@link FCPServer} this index belongs to
+	 */
+	public FCPServer getFCPServer() {
+		return fcp;
+	}
+
+	/**
+	 * Builds a new {@link QueueHelper} from buckets matching the requested
+	 * class
+	 *
+	 * @param requestedClass
+	 *            class of requested queues
+	 * @return created snapshot
+	 */
+	private QueueHelper buildSnapshot(int requestedClass) {
+		List<RequestStatus> desired = Lists.newArrayList();
+		for (Entry<Integer, Map<String, RequestStatus>> entry : buckets.entrySet()) {
+			// Class 0 contains requests of unknown type
+			if (entry.getKey() != 0 && QueueHelper.matches(requestedClass, entry.getKey())) {
+				desired.addAll(entry.getValue().values());
+			}
+		}
+		return new QueueHelper(requestedClass, fcp, desired);
+	}
+
+	/**
+	 * Returns bucket of given class and creates it if necessary
+	 *
+	 * @param queueClass
+	 *            class of bucket
+	 * @return desired bucket
+	 */
+	private Map<String, RequestStatus> bucket(int queueClass) {
+		Map<String, RequestStatus> bucket = buckets.get(queueClass);
+		if (bucket == null) {
+			bucket = Maps.newLinkedHashMap();
+			buckets.put(queueClass, bucket);
+		}
+		return bucket;
+	}
+
+}
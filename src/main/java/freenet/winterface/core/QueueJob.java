@@ -0,0 +1,154 @@
+package freenet.winterface.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import freenet.node.fcp.RequestStatus;
+
+/**
+ * A bulk operation on global {@link RequestStatus}(es) which is executed in
+ * background by {@link QueueJobManager}.
+ * <p>
+ * Instances are used as handles to observe progress of the operation. All
+ * methods are thread-safe.
+ * </p>
+ *
+ * @author pausb
+ * @see QueueJobManager#submit(Operation, java.util.Collection, short)
+ */
+public class QueueJob {
+
+	/** Supported operations */
+	public enum Operation {
+		/** Remove requests */
+		REMOVE,
+		/** Change priority of requests */
+		CHANGE_PRIORITY,
+		/** Restart requests */
+		RESTART;
+	}
+
+	/** Unique ID of this job */
+	private final long id;
+	/** Operation to execute */
+	private final Operation operation;
+	/** Identifiers to execute operation on */
+	private final List<String> identifiers;
+	/** New priority (only used by {@link Operation#CHANGE_PRIORITY}) */
+	private final short priority;
+
+	/** Number of processed identifiers */
+	private final AtomicInteger processed;
+	/** Identifiers for which the operation has failed */
+	private final List<String> failed;
+	/** Number of batches not yet finished */
+	private final AtomicInteger pendingBatches;
+
+	/**
+	 * Constructs.
+	 *
+	 * @param id
+	 *            unique ID
+	 * @param operation
+	 *            operation to execute
+	 * @param identifiers
+	 *            identifiers of requests
+	 * @param priority
+	 *            new priority (ignored for operations other than
+	 *            {@link Operation#CHANGE_PRIORITY})
+	 */
+	QueueJob(long id, Operation operation, List<String> identifiers, short priority) {
+		this.id = id;
+		this.operation = operation;
+		this.identifiers = ImmutableList.copyOf(identifiers);
+		this.priority = priority;
+		this.processed = new AtomicInteger();
+		this.failed = Collections.synchronizedList(Lists.<String> newArrayList());
+		this.pendingBatches = new AtomicInteger();
+	}
+
+	/**
+	 * @return unique ID of this job
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @return operation of this job
+	 */
+	public Operation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return new priority
+	 */
+	public short getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @return all identifiers of this job
+	 */
+	public List<String> getIdentifiers() {
+		return identifiers;
+	}
+
+	/**
+	 * @return total number of identifiers
+	 */
+	public int getTotal() {
+		return identifiers.size();
+	}
+
+	/**
+	 * @return number of processed identifiers (both successful and failed)
+	 */
+	public int getProcessed() {
+		return processed.get();
+	}
+
+	/**
+	 * @return a copy of identifiers for which the operation has failed
+	 */
+	public List<String> getFailed() {
+		synchronized (failed) {
+			return ImmutableList.copyOf(failed);
+		}
+	}
+
+	/**
+	 * @return {@code true} if all identifiers have been processed
+	 */
+	public boolean isFinished() {
+		return processed.get() >= identifiers.size();
+	}
+
+	/**
+	 * Marks an identifier as processed
+	 *
+	 * @param identifier
+	 *            processed identifier
+	 * @param success
+	 *            {@code false} if operation has failed
+	 */
+	void processed(String identifier, boolean success) {
+		if (!success) {
+			failed.add(identifier);
+		}
+		processed.incrementAndGet();
+	}
+
+	/**
+	 * @return counter of batches not yet finished
+	 */
+	AtomicInteger getPendingBatches() {
+		return pendingBatches;
+	}
+
+}
@@ -0,0 +1,233 @@
+package freenet.winterface.core;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import freenet.client.async.DatabaseDisabledException;
+import freenet.node.fcp.FCPServer;
+import freenet.node.fcp.MessageInvalidException;
+import freenet.node.fcp.RequestStatus;
+import freenet.winterface.core.QueueJob.Operation;
+
+/**
+ * Executes bulk operations on global {@link RequestStatus}(es) in background.
+ * <p>
+ * {@link FCPServer} only offers blocking operations on single requests, each
+ * of them waiting for a database job. Doing that for thousands of requests in
+ * a request thread times out the HTTP request. Instead identifiers of a
+ * {@link QueueJob} are split into batches of {@link #BATCH_SIZE} which are
+ * executed by at most {@link #MAX_IN_FLIGHT} threads. Submitting a job returns
+ * immediately.
+ * </p>
+ * <p>
+ * Once a job is finished, {@link QueueIndex} is refreshed to make the changes
+ * visible. Finished jobs are kept for {@link #KEEP_FINISHED} milliseconds so
+ * their result can be shown.
+ * </p>
+ *
+ * @author pausb
+ * @see QueueJob
+ */
+public class QueueJobManager {
+
+	/** Index to refresh after each job */
+	private final QueueIndex index;
+	/** {@link FCPServer} to execute operations on */
+	private final FCPServer fcp;
+
+	/** All known jobs mapped by their ID */
+	private final Map<Long, QueueJob> jobs;
+	/** Time of finishing mapped by job ID */
+	private final Map<Long, Long> finishTimes;
+	/** Generates job IDs */
+	private final AtomicLong nextId;
+
+	/** Executes batches */
+	private ExecutorService executor;
+
+	/** Number of identifiers processed in a single batch */
+	public final static int BATCH_SIZE = 50;
+	/** Maximum number of batches being executed at the same time */
+	public final static int MAX_IN_FLIGHT = 2;
+	/** Time (in milliseconds) to keep finished jobs */
+	public final static long KEEP_FINISHED = 10 * 60 * 1000;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(QueueJobManager.class);
+
+	/**
+	 * Constructs.
+	 *
+	 * @param index
+	 *            {@link QueueIndex} to refresh after each job
+	 */
+	public QueueJobManager(QueueIndex index) {
+		this.index = index;
+		this.fcp = index.getFCPServer();
+		this.jobs = Maps.newHashMap();
+		this.finishTimes = Maps.newHashMap();
+		this.nextId = new AtomicLong();
+	}
+
+	/**
+	 * Starts worker threads
+	 */
+	public synchronized void start() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(MAX_IN_FLIGHT, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("winterface-queue-job-%d").build());
+		}
+	}
+
+	/**
+	 * Stops worker threads. Pending batches are dropped.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Submits a new bulk operation
+	 *
+	 * @param operation
+	 *            operation to execute
+	 * @param identifiers
+	 *            identifiers of requests
+	 * @param priority
+	 *            new priority (only used by
+	 *            {@link Operation#CHANGE_PRIORITY})
+	 * @return a {@link QueueJob} to observe progress
+	 */
+	public synchronized QueueJob submit(Operation operation, Collection<String> identifiers, short priority) {
+		purge();
+		final QueueJob job = new QueueJob(nextId.incrementAndGet(), operation, Lists.newArrayList(identifiers), priority);
+		jobs.put(job.getId(), job);
+		logger.debug(String.format("Submitting job %d (%s) for %d requests", job.getId(), operation, job.getTotal()));
+		if (job.getTotal() == 0) {
+			finished(job);
+			return job;
+		}
+		List<List<String>> batches = Lists.partition(job.getIdentifiers(), BATCH_SIZE);
+		job.getPendingBatches().set(batches.size());
+		for (final List<String> batch : batches) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							execute(job, batch);
+						} finally {
+							if (job.getPendingBatches().decrementAndGet() == 0) {
+								finished(job);
+							}
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Manager is being stopped
+				logger.debug("Batch of job " + job.getId() + " has been rejected");
+				for (String id : batch) {
+					job.processed(id, false);
+				}
+				if (job.getPendingBatches().decrementAndGet() == 0) {
+					finished(job);
+				}
+			}
+		}
+		return job;
+	}
+
+	/**
+	 * Returns job with given ID
+	 *
+	 * @param id
+	 *            ID of job
+	 * @return desired job or {@code null} if not known (anymore)
+	 */
+	public synchronized QueueJob getJob(long id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * Executes operation of given job on a single batch
+	 *
+	 * @param job
+	 *            job to execute
+	 * @param batch
+	 *            identifiers to process
+	 */
+	private void execute(QueueJob job, List<String> batch) {
+		for (String id : batch) {
+			boolean success = false;
+			try {
+				switch (job.getOperation()) {
+				case REMOVE:
+					fcp.removeGlobalRequestBlocking(id);
+					break;
+				case CHANGE_PRIORITY:
+					fcp.modifyGlobalRequestBlocking(id, null, job.getPriority());
+					break;
+				case RESTART:
+					fcp.restartBlocking(id, false);
+					break;
+				}
+				success = true;
+			} catch (MessageInvalidException e) {
+				logger.debug("Invalid identifier: " + id);
+			} catch (DatabaseDisabledException e) {
+				logger.debug("Database is disabled. Cannot process " + id);
+			} catch (RuntimeException e) {
+				logger.error("Error while processing " + id, e);
+			}
+			job.processed(id, success);
+		}
+	}
+
+	/**
+	 * Called after all batches of a job are executed
+	 *
+	 * @param job
+	 *            finished job
+	 */
+	private void finished(QueueJob job) {
+		synchronized (this) {
+			finishTimes.put(job.getId(), System.currentTimeMillis());
+		}
+		logger.debug(String.format("Job %d finished (%d failed)", job.getId(), job.getFailed().size()));
+		try {
+			index.refresh();
+		} catch (DatabaseDisabledException e) {
+			logger.debug("Database is disabled. Queue index is not refreshed.");
+		}
+	}
+
+	/**
+	 * Forgets finished jobs older than {@link #KEEP_FINISHED}
+	 */
+	private void purge() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Long, Long>> it = finishTimes.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Long, Long> entry = it.next();
+			if (now - entry.getValue() > KEEP_FINISHED) {
+				jobs.remove(entry.getKey());
+				it.remove();
+			}
+		}
+	}
+
+}
@@ -1,17 +1,19 @@
 package freenet.winterface.core;
 
-import org.apache.wicket.Localizer;
-
 import freenet.node.fcp.ClientPut.COMPRESS_STATE;
 import freenet.node.fcp.RequestStatus;
 import freenet.winterface.web.core.RequestStatusView;
 
 /**
  * A Wrapper class which calculates the progress of a {@link RequestStatus}
+ * <p>
+ * Instances are immutable and are shared using {@link RequestProgressCache}.
+ * </p>
  * 
  * @author pausb
  * @see QueueHelper
  * @see RequestStatusUtil
+ * @see RequestProgressCache
  * @see RequestStatusView
  */
 public class RequestProgress {
@@ -46,33 +48,51 @@ public class RequestProgress {
 	 *            {@link RequestStatus} to calculate progress of
 	 */
 	public RequestProgress(RequestStatus req) {
+		this(req.getTotalBlocks(), req.getMinBlocks(), req.getFetchedBlocks(), req.getFailedBlocks(), req.getFatalyFailedBlocks(), req.isStarted(),
+				RequestStatusUtil.getCompressState(req));
+	}
 
-		int total = req.getTotalBlocks();
-		int min = req.getMinBlocks();
-		int fetched = req.getFetchedBlocks();
-		int failed = req.getFailedBlocks();
-		int fatallyFailed = req.getFatalyFailedBlocks();
-
+	/**
+	 * Constructs from already read values of a {@link RequestStatus}
+	 * 
+	 * @param total
+	 *            total blocks
+	 * @param min
+	 *            minimum required blocks
+	 * @param fetched
+	 *            fetched blocks
+	 * @param failed
+	 *            failed blocks
+	 * @param fatallyFailed
+	 *            fatally failed blocks
+	 * @param started
+	 *            {@code true} if request has started
+	 * @param compressState
+	 *            compress state of request
+	 * @see RequestProgressCache
+	 */
+	public RequestProgress(int total, int min, int fetched, int failed, int fatallyFailed, boolean started, COMPRESS_STATE compressState) {
 		// Copied from QueueToadlet.
 		if (total < min /* FIXME why? */) {
 			total = min;
 		}
 
-		if (!req.isStarted() || ((fetched < 0) || (total <= 0))) {
+		if (!started || ((fetched < 0) || (total <= 0))) {
 			specialFlag = FLAG_PROG_STARTING;
-		} else if (COMPRESS_STATE.WAITING.equals(RequestStatusUtil.getCompressState(req))) {
+		} else if (COMPRESS_STATE.WAITING.equals(compressState)) {
 			specialFlag = FLAG_PROG_COMP_W;
-		} else if (COMPRESS_STATE.WORKING.equals(RequestStatusUtil.getCompressState(req))) {
+		} else if (COMPRESS_STATE.WORKING.equals(compressState)) {
 			specialFlag = FLAG_PROG_COMP;
 		} else {
 			specialFlag = 0;
 		}
 		if (total != 0) {
 			// No special state
-			this.fetchedPercent = (int) (fetched / (double) total * 100);
-			this.failedPercent = (int) (failed / (double) total * 100);
-			this.fatallyFailedPercent = (int) (fatallyFailed / (double) total * 100);
-			this.minPercent = (int) (min / (double) total * 100);
+			double totalBlocks = total;
+			this.fetchedPercent = (int) (fetched / totalBlocks * 100);
+			this.failedPercent = (int) (failed / totalBlocks * 100);
+			this.fatallyFailedPercent = (int) (fatallyFailed / totalBlocks * 100);
+			this.minPercent = (int) (min / totalBlocks * 100);
 			this.mainPercent = (int) (((fetched / (double) min) * 1000) / 10.0);
 		} else {
 			// Indicate that the progress is not available yet
@@ -117,7 +137,7 @@ public class RequestProgress {
 			key = L10N_PROG_COMP;
 			break;
 		}
-		return Localizer.get().getString(key, null, key);
+		return RequestStatusFormatter.get().template(key);
 	}
 
 }
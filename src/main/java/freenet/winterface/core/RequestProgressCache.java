@@ -0,0 +1,167 @@
+package freenet.winterface.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import freenet.node.fcp.ClientPut.COMPRESS_STATE;
+import freenet.node.fcp.RequestStatus;
+
+/**
+ * A bounded cache of {@link RequestProgress}(es) shared between all sessions.
+ * <p>
+ * Entries are mapped by identifier of {@link RequestStatus} and remember the
+ * block counters they were calculated from. As long as those counters do not
+ * change, the cached {@link RequestProgress} is returned. Least recently used
+ * entries are evicted once the cache is full.
+ * </p>
+ *
+ * @author pausb
+ * @see RequestStatusUtil#getProgress(RequestStatus)
+ */
+public class RequestProgressCache {
+
+	/** Maximum number of cached entries */
+	private final int maxSize;
+	/** Cached entries in access order */
+	private final Map<String, Entry> entries;
+
+	/** Number of lookups returning a cached {@link RequestProgress} */
+	private final AtomicLong hits;
+	/** Number of lookups which needed a new {@link RequestProgress} */
+	private final AtomicLong misses;
+
+	/** Default maximum number of entries */
+	public final static int DEFAULT_MAX_SIZE = 10000;
+
+	/**
+	 * Constructs.
+	 *
+	 * @param maxSize
+	 *            maximum number of entries
+	 */
+	@SuppressWarnings("serial")
+	public RequestProgressCache(final int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > RequestProgressCache.this.maxSize;
+			}
+		};
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+	}
+
+	/**
+	 * Returns progress of given {@link RequestStatus}. The progress is only
+	 * calculated if its block counters have changed since last call.
+	 *
+	 * @param req
+	 *            {@link RequestStatus} to get progress of
+	 * @return progress of request
+	 */
+	public RequestProgress get(RequestStatus req) {
+		String identifier = req.getIdentifier();
+		int total = req.getTotalBlocks();
+		int min = req.getMinBlocks();
+		int fetched = req.getFetchedBlocks();
+		int failed = req.getFailedBlocks();
+		int fatallyFailed = req.getFatalyFailedBlocks();
+		boolean started = req.isStarted();
+		COMPRESS_STATE compressState = RequestStatusUtil.getCompressState(req);
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(identifier);
+		}
+		if (entry != null && entry.matches(total, min, fetched, failed, fatallyFailed, started, compressState)) {
+			hits.incrementAndGet();
+			return entry.progress;
+		}
+		misses.incrementAndGet();
+		RequestProgress progress = new RequestProgress(total, min, fetched, failed, fatallyFailed, started, compressState);
+		entry = new Entry(total, min, fetched, failed, fatallyFailed, started, compressState, progress);
+		synchronized (entries) {
+			entries.put(identifier, entry);
+		}
+		return progress;
+	}
+
+	/**
+	 * @return number of lookups returning a cached {@link RequestProgress}
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of lookups which needed a new {@link RequestProgress}
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return current number of cached entries
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return maximum number of cached entries
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Removes all entries and resets counters
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * A cached {@link RequestProgress} together with the values it was
+	 * calculated from
+	 *
+	 * @author pausb
+	 */
+	private static class Entry {
+
+		final int total, min, fetched, failed, fatallyFailed;
+		final boolean started;
+		final COMPRESS_STATE compressState;
+		final RequestProgress progress;
+
+		/**
+		 * Constructs.
+		 */
+		Entry(int total, int min, int fetched, int failed, int fatallyFailed, boolean started, COMPRESS_STATE compressState, RequestProgress progress) {
+			this.total = total;
+			this.min = min;
+			this.fetched = fetched;
+			this.failed = failed;
+			this.fatallyFailed = fatallyFailed;
+			this.started = started;
+			this.compressState = compressState;
+			this.progress = progress;
+		}
+
+		/**
+		 * @return {@code true} if given values equal values of this entry
+		 */
+		boolean matches(int total, int min, int fetched, int failed, int fatallyFailed, boolean started, COMPRESS_STATE compressState) {
+			return this.total == total && this.min == min && this.fetched == fetched && this.failed == failed && this.fatallyFailed == fatallyFailed
+					&& this.started == started && this.compressState == compressState;
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package freenet.winterface.core;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.wicket.Localizer;
+import org.apache.wicket.Session;
+
+import com.google.common.collect.Maps;
+
+import freenet.node.fcp.RequestStatus;
+import freenet.support.TimeUtil;
+
+/**
+ * Formats properties of {@link RequestStatus}(es) for a single {@link Locale}.
+ * <p>
+ * Localized templates are resolved once per locale using {@link Localizer}
+ * and are cached afterwards. Substitutions (e.g. "${time} ago") are done in a
+ * reused per-thread {@link StringBuilder} instead of creating a {@link java.util.Map}
+ * and a model for each row.
+ * </p>
+ *
+ * @author pausb
+ * @see RequestStatusUtil
+ */
+public class RequestStatusFormatter {
+
+	/** Locale of this formatter */
+	private final Locale locale;
+	/** Resolved templates mapped by their key */
+	private final ConcurrentMap<String, String> templates;
+
+	/** Placeholder of elapsed time */
+	private final static String TIME_PLACEHOLDER = "${time}";
+
+	/** Formatters mapped by their locale */
+	private final static ConcurrentMap<Locale, RequestStatusFormatter> formatters = Maps.newConcurrentMap();
+
+	/** Buffer used for substitutions */
+	private final static ThreadLocal<StringBuilder> buffer = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(64);
+		}
+	};
+
+	/**
+	 * Constructs.
+	 *
+	 * @param locale
+	 *            locale of formatter
+	 */
+	private RequestStatusFormatter(Locale locale) {
+		this.locale = locale;
+		this.templates = Maps.newConcurrentMap();
+	}
+
+	/**
+	 * Returns formatter of current {@link Session}'s locale (or default locale
+	 * if there is no session)
+	 *
+	 * @return formatter of current locale
+	 */
+	public static RequestStatusFormatter get() {
+		Locale locale = Session.exists() ? Session.get().getLocale() : Locale.getDefault();
+		RequestStatusFormatter formatter = formatters.get(locale);
+		if (formatter == null) {
+			formatter = new RequestStatusFormatter(locale);
+			RequestStatusFormatter existing = formatters.putIfAbsent(locale, formatter);
+			formatter = (existing == null) ? formatter : existing;
+		}
+		return formatter;
+	}
+
+	/**
+	 * Returns localized template of given key. Templates are resolved only
+	 * once.
+	 *
+	 * @param key
+	 *            localization key
+	 * @return localized (not substituted) template or key itself if not found
+	 */
+	public String template(String key) {
+		String result = templates.get(key);
+		if (result == null) {
+			result = Localizer.get().getString(key, null, key);
+			templates.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Substitutes a placeholder of a localized template
+	 *
+	 * @param key
+	 *            localization key
+	 * @param placeholder
+	 *            placeholder to replace (e.g. "${time}")
+	 * @param value
+	 *            value to substitute
+	 * @return substituted {@link String}
+	 */
+	public String substitute(String key, String placeholder, String value) {
+		String template = template(key);
+		int index = template.indexOf(placeholder);
+		if (index < 0) {
+			return template;
+		}
+		StringBuilder sb = buffer.get();
+		sb.setLength(0);
+		sb.append(template, 0, index).append(value).append(template, index + placeholder.length(), template.length());
+		return sb.toString();
+	}
+
+	/**
+	 * Formats time elapsed since given time
+	 *
+	 * @param key
+	 *            localization key containing a "${time}" variable
+	 * @param lastActiveTime
+	 *            time of last activity
+	 * @return localized {@link String}
+	 */
+	public String ago(String key, long lastActiveTime) {
+		return substitute(key, TIME_PLACEHOLDER, TimeUtil.formatTime(System.currentTimeMillis() - lastActiveTime));
+	}
+
+	/**
+	 * @return locale of this formatter
+	 */
+	public Locale getLocale() {
+		return locale;
+	}
+
+}
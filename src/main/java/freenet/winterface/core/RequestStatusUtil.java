@@ -1,12 +1,8 @@
 package freenet.winterface.core;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
-import org.apache.wicket.Localizer;
-import org.apache.wicket.model.Model;
 
 import freenet.keys.FreenetURI;
 import freenet.node.fcp.ClientPut.COMPRESS_STATE;
@@ -16,7 +12,6 @@ import freenet.node.fcp.UploadDirRequestStatus;
 import freenet.node.fcp.UploadFileRequestStatus;
 import freenet.node.fcp.UploadRequestStatus;
 import freenet.support.SizeUtil;
-import freenet.support.TimeUtil;
 import freenet.winterface.web.core.RequestStatusView;
 
 /**
@@ -27,6 +22,10 @@ import freenet.winterface.web.core.RequestStatusView;
  * {@link UploadRequestStatus} or {@link UploadDirRequestStatus}), the
  * properties are calculated.
  * </p>
+ * <p>
+ * Localized strings are resolved using {@link RequestStatusFormatter}, which
+ * caches templates per locale.
+ * </p>
  * 
  * @author pausb
  * @see RequestProgress
@@ -47,18 +46,32 @@ public class RequestStatusUtil {
 	private final static String L10N_UNKNOW_LA = "QueueToadlet.lastActivity.unknown";
 	private final static String L10N_AGO_LA = "QueueToadlet.lastActivity.ago";
 	private final static String L10N_PRIO_PREFIX = "QueueToadlet.priority";
+	private final static String[] L10N_PRIO_KEYS = new String[7];
+
+	static {
+		for (int i = 0; i < L10N_PRIO_KEYS.length; i++) {
+			L10N_PRIO_KEYS[i] = L10N_PRIO_PREFIX + i;
+		}
+	}
 
 	/** Log4j logger */
 	private final static Logger logger = Logger.getLogger(RequestsUtil.class);
 
+	/** Progresses shared between all sessions */
+	private final static RequestProgressCache progressCache = new RequestProgressCache(RequestProgressCache.DEFAULT_MAX_SIZE);
+
 	/**
 	 * @param req
 	 *            desired {@link RequestStatus}
 	 * @return localized {@link String} corresponding to priority
 	 */
 	public static String getPriority(RequestStatus req) {
-		String result = Localizer.get().getString(L10N_PRIO_PREFIX + req.getPriority(), null);
-		logger.trace(String.format("Priority for RequestStatus (%s) : %s", req.hashCode(), result));
+		short priority = req.getPriority();
+		String key = (priority >= 0 && priority < L10N_PRIO_KEYS.length) ? L10N_PRIO_KEYS[priority] : L10N_PRIO_PREFIX + priority;
+		String result = RequestStatusFormatter.get().template(key);
+		if (logger.isTraceEnabled()) {
+			logger.trace(String.format("Priority for RequestStatus (%s) : %s", req.hashCode(), result));
+		}
 		return result;
 	}
 
@@ -78,15 +91,17 @@ public class RequestStatusUtil {
 		} else {
 			return -1;
 		}
-		logger.trace(String.format("Size for RequestStatus (%s) : %s", req.hashCode(), result));
+		if (logger.isTraceEnabled()) {
+			logger.trace(String.format("Size for RequestStatus (%s) : %s", req.hashCode(), result));
+		}
 		return result;
 	}
 
 	/**
 	 * @param req
 	 *            desired {@link RequestStatus}
-	 * @return content type of request of {@link #FLAG_NO_MIME} flag if it
-	 *         cannot be calculated
+	 * @return content type of request or {@link #FLAG_NO_MIME} flag if it is
+	 *         unknown
 	 */
 	public static String getMIME(RequestStatus req) {
 		String result;
@@ -95,9 +110,14 @@ public class RequestStatusUtil {
 		} else if (req instanceof UploadFileRequestStatus) {
 			result = ((UploadFileRequestStatus) req).getMIMEType();
 		} else {
+			result = null;
+		}
+		if (result == null) {
 			result = FLAG_NO_MIME;
 		}
-		logger.trace(String.format("MIME for RequestStatus (%s) : %s", req.hashCode(), result));
+		if (logger.isTraceEnabled()) {
+			logger.trace(String.format("MIME for RequestStatus (%s) : %s", req.hashCode(), result));
+		}
 		return result;
 	}
 
@@ -111,18 +131,28 @@ public class RequestStatusUtil {
 		if (req instanceof UploadFileRequestStatus) {
 			result = ((UploadFileRequestStatus) req).isCompressing();
 		}
-		logger.trace(String.format("Compress state for RequestStatus (%s) : %s", req.hashCode(), result));
+		if (logger.isTraceEnabled()) {
+			logger.trace(String.format("Compress state for RequestStatus (%s) : %s", req.hashCode(), result));
+		}
 		return result;
 	}
 
 	/**
 	 * @param req
 	 *            desired {@link RequestStatus}
-	 * @return current progress
+	 * @return current progress (possibly shared with other callers)
 	 * @see RequestProgress
+	 * @see RequestProgressCache
 	 */
 	public static RequestProgress getProgress(RequestStatus req) {
-		return new RequestProgress(req);
+		return progressCache.get(req);
+	}
+
+	/**
+	 * @return cache used by {@link #getProgress(RequestStatus)}
+	 */
+	public static RequestProgressCache getProgressCache() {
+		return progressCache;
 	}
 
 	/**
@@ -133,16 +163,15 @@ public class RequestStatusUtil {
 	public static String getLastActivity(RequestStatus req) {
 		String result;
 		long lastActiveTime = req.getLastActivity();
-		Localizer localizer = Localizer.get();
+		RequestStatusFormatter formatter = RequestStatusFormatter.get();
 		if (lastActiveTime == 0) {
-			result = localizer.getString(L10N_UNKNOW_LA, null, L10N_UNKNOW_LA);
+			result = formatter.template(L10N_UNKNOW_LA);
 		} else {
-			String lastActivityAgo = TimeUtil.formatTime(System.currentTimeMillis() - lastActiveTime);
-			Map<String, String> substitution = new HashMap<String, String>();
-			substitution.put("time", lastActivityAgo);
-			result = localizer.getString(L10N_AGO_LA, null, Model.ofMap(substitution), L10N_AGO_LA);
+			result = formatter.ago(L10N_AGO_LA, lastActiveTime);
+		}
+		if (logger.isTraceEnabled()) {
+			logger.trace(String.format("Last activity for RequestStatus (%s) : %s", req.hashCode(), result));
 		}
-		logger.trace(String.format("Last activity for RequestStatus (%s) : %s", req.hashCode(), result));
 		return result;
 	}
 
@@ -160,8 +189,10 @@ public class RequestStatusUtil {
 		} else {
 			key = L10N_PERSISTENCE_NONE;
 		}
-		key = Localizer.get().getString(key, null);
-		logger.trace(String.format("Persistence key for RequestStatus (%s) : %s", req.hashCode(), key));
+		key = RequestStatusFormatter.get().template(key);
+		if (logger.isTraceEnabled()) {
+			logger.trace(String.format("Persistence key for RequestStatus (%s) : %s", req.hashCode(), key));
+		}
 		return key;
 	}
 
@@ -171,22 +202,35 @@ public class RequestStatusUtil {
 	 * @return file name of request (can also be none)
 	 */
 	public static String getFileName(RequestStatus req) {
-		File file = null;
+		File file = getFile(req);
 		String result = null;
-		if (req instanceof DownloadRequestStatus) {
-			file = ((DownloadRequestStatus) req).getDestFilename();
-		} else if (req instanceof UploadFileRequestStatus) {
-			file = ((UploadFileRequestStatus) req).getOrigFilename();
-		}
 		if (file == null) {
-			result = Localizer.get().getString(L10N_NONE, null, L10N_NONE);
+			result = RequestStatusFormatter.get().template(L10N_NONE);
 		} else {
 			result = file.toString();
 		}
-		logger.trace(String.format("File name for RequestStatus (%s) : %s", req.hashCode(), result));
+		if (logger.isTraceEnabled()) {
+			logger.trace(String.format("File name for RequestStatus (%s) : %s", req.hashCode(), result));
+		}
 		return result;
 	}
 
+	/**
+	 * @param req
+	 *            desired {@link RequestStatus}
+	 * @return destination file of downloads, original file of uploads or
+	 *         {@code null} if there is none
+	 */
+	public static File getFile(RequestStatus req) {
+		File file = null;
+		if (req instanceof DownloadRequestStatus) {
+			file = ((DownloadRequestStatus) req).getDestFilename();
+		} else if (req instanceof UploadFileRequestStatus) {
+			file = ((UploadFileRequestStatus) req).getOrigFilename();
+		}
+		return file;
+	}
+
 	/**
 	 * @param req
 	 *            desired {@link RequestStatus}
@@ -210,9 +254,11 @@ public class RequestStatusUtil {
 			result[0] = uri.toShortString();
 			result[1] = "/" + uri + postfix;
 		} else {
-			result[0] = result[1] = Localizer.get().getString(L10N_UNKNOWN, null, L10N_UNKNOWN);
+			result[0] = result[1] = RequestStatusFormatter.get().template(L10N_UNKNOWN);
+		}
+		if (logger.isTraceEnabled()) {
+			logger.trace(String.format("Link for RequestStatus (%s) : %s", req.hashCode(), result[1]));
 		}
-		logger.trace(String.format("Link for RequestStatus (%s) : %s", req.hashCode(), result[1]));
 		return result;
 	}
 
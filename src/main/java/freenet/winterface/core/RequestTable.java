@@ -0,0 +1,332 @@
+package freenet.winterface.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import freenet.node.fcp.RequestStatus;
+
+/**
+ * A compact, column oriented snapshot of global {@link RequestStatus}(es).
+ * <p>
+ * All frequently read properties of each {@link RequestStatus} are copied
+ * into parallel primitive arrays once per refresh of {@link QueueIndex}. Row
+ * {@code i} of each column belongs to the same request. This way pages,
+ * totals and other consumers can read those values without touching the
+ * node's {@link RequestStatus} objects again.
+ * </p>
+ * <p>
+ * Each table knows its predecessor's values: rows whose values have changed
+ * get the new {@link #generation} in {@link #modified}, and identifiers of
+ * vanished rows are kept for a while (see {@link #removedSince(long)}). Rows
+ * which have moved to another queue class additionally get the new generation
+ * in {@link #classModified}, so pollers of a single queue learn about rows
+ * leaving it (see {@link #leftSince(long, int)}). This way pollers can ask for
+ * changes since a known generation only. Rows are also indexed by their
+ * modification (see {@link #modifiedSince(long)}), so finding changes costs
+ * time proportional to the number of changes, not to the size of the table.
+ * </p>
+ * <p>
+ * Instances are immutable and can be shared between all sessions.
+ * </p>
+ *
+ * @author pausb
+ * @see QueueIndex#getRequestTable()
+ */
+public final class RequestTable {
+
+	/** Number of rows */
+	public final int size;
+	/**
+	 * Generation of this table. It is incremented each time any row is added,
+	 * changed or removed.
+	 */
+	public final long generation;
+	/** Creation time of this table */
+	public final long created;
+
+	/** Identifiers (interned) */
+	public final String[] identifier;
+	/** Queue classes (see {@link QueueHelper#classOf(RequestStatus)}) */
+	public final int[] queueClass;
+	/** Priority classes */
+	public final short[] priority;
+	/** Data size or -1 if unknown */
+	public final long[] dataSize;
+	/** Fetched blocks */
+	public final int[] fetchedBlocks;
+	/** Total blocks */
+	public final int[] totalBlocks;
+	/** Minimum required blocks */
+	public final int[] minBlocks;
+	/** Failed blocks */
+	public final int[] failedBlocks;
+	/** Time of last activity or 0 if unknown */
+	public final long[] lastActivity;
+	/** MIME types (interned) or {@link RequestStatusUtil#FLAG_NO_MIME} */
+	public final String[] mime;
+	/** Generation in which values of each row have last changed */
+	public final long[] modified;
+	/**
+	 * Generation in which queue class of each row has last changed, or
+	 * {@code 0} if it has not changed since the row was added
+	 */
+	public final long[] classModified;
+
+	/** Maps identifiers to their row */
+	private final Map<String, Integer> rows;
+	/** Rows in descending order of {@link #modified} */
+	private final int[] byModified;
+	/** Identifiers of removed rows mapped to generation of their removal */
+	private final Map<String, Long> removed;
+	/**
+	 * Generation up to which removals are known. Older removals have been
+	 * dropped (see {@link #MAX_REMOVED}).
+	 */
+	private final long removedHorizon;
+
+	/** Maximum number of removed identifiers to remember */
+	public final static int MAX_REMOVED = 1024;
+
+	/** Interner for repeated strings (mostly MIME types) */
+	private final static Interner<String> interner = Interners.newWeakInterner();
+
+	/** An empty table */
+	public final static RequestTable EMPTY = new RequestTable(new RequestStatus[0], null);
+
+	/**
+	 * Constructs.
+	 *
+	 * @param requests
+	 *            requests to copy values from
+	 * @param previous
+	 *            previous table to compare rows with (can be {@code null})
+	 */
+	public RequestTable(RequestStatus[] requests, RequestTable previous) {
+		this.size = requests.length;
+		this.created = System.currentTimeMillis();
+		identifier = new String[size];
+		queueClass = new int[size];
+		priority = new short[size];
+		dataSize = new long[size];
+		fetchedBlocks = new int[size];
+		totalBlocks = new int[size];
+		minBlocks = new int[size];
+		failedBlocks = new int[size];
+		lastActivity = new long[size];
+		mime = new String[size];
+		modified = new long[size];
+		classModified = new long[size];
+		rows = Maps.newHashMapWithExpectedSize(size);
+		for (int i = 0; i < size; i++) {
+			RequestStatus req = requests[i];
+			identifier[i] = interner.intern(req.getIdentifier());
+			queueClass[i] = QueueHelper.classOf(req);
+			priority[i] = req.getPriority();
+			dataSize[i] = RequestStatusUtil.getSize(req);
+			fetchedBlocks[i] = req.getFetchedBlocks();
+			totalBlocks[i] = req.getTotalBlocks();
+			minBlocks[i] = req.getMinBlocks();
+			failedBlocks[i] = req.getFailedBlocks();
+			lastActivity[i] = req.getLastActivity();
+			mime[i] = interner.intern(RequestStatusUtil.getMIME(req));
+			rows.put(identifier[i], i);
+		}
+		// Compare with previous table
+		long lastGeneration = (previous == null) ? 0 : previous.generation;
+		long nextGeneration = lastGeneration + 1;
+		boolean changed = false;
+		for (int i = 0; i < size; i++) {
+			int oldRow = (previous == null) ? -1 : previous.rowOf(identifier[i]);
+			if (oldRow > -1 && previous.rowEquals(oldRow, this, i)) {
+				modified[i] = previous.modified[oldRow];
+				classModified[i] = previous.classModified[oldRow];
+			} else {
+				modified[i] = nextGeneration;
+				if (oldRow > -1) {
+					classModified[i] = (previous.queueClass[oldRow] != queueClass[i]) ? nextGeneration : previous.classModified[oldRow];
+				}
+				changed = true;
+			}
+		}
+		Map<String, Long> removed = (previous == null) ? Collections.<String, Long> emptyMap() : previous.removed;
+		long removedHorizon = (previous == null) ? 0 : previous.removedHorizon;
+		if (previous != null && previous.size > 0) {
+			Map<String, Long> newRemoved = null;
+			for (String id : previous.identifier) {
+				if (!rows.containsKey(id)) {
+					if (newRemoved == null) {
+						newRemoved = Maps.newLinkedHashMap(removed);
+					}
+					newRemoved.put(id, nextGeneration);
+				}
+			}
+			if (newRemoved != null) {
+				changed = true;
+				// Forget oldest removals
+				Iterator<Entry<String, Long>> it = newRemoved.entrySet().iterator();
+				while (newRemoved.size() > MAX_REMOVED) {
+					removedHorizon = Math.max(removedHorizon, it.next().getValue());
+					it.remove();
+				}
+				removed = Collections.unmodifiableMap(newRemoved);
+			}
+		}
+		// Changed rows come first, followed by unchanged rows in their former
+		// order
+		byModified = new int[size];
+		int indexed = 0;
+		for (int i = 0; i < size; i++) {
+			if (modified[i] == nextGeneration) {
+				byModified[indexed++] = i;
+			}
+		}
+		if (previous != null) {
+			for (int oldRow : previous.byModified) {
+				int row = rowOf(previous.identifier[oldRow]);
+				if (row > -1 && modified[row] != nextGeneration) {
+					byModified[indexed++] = row;
+				}
+			}
+		}
+		this.generation = changed ? nextGeneration : lastGeneration;
+		this.removed = removed;
+		this.removedHorizon = removedHorizon;
+	}
+
+	/**
+	 * Returns row of request with given identifier
+	 *
+	 * @param id
+	 *            identifier of request
+	 * @return row of request or {@code -1} if not found
+	 */
+	public int rowOf(String id) {
+		Integer row = rows.get(id);
+		return row == null ? -1 : row;
+	}
+
+	/**
+	 * Returns identifiers of all requests removed after given generation
+	 *
+	 * @param since
+	 *            generation known to the caller
+	 * @return removed identifiers or {@code null} if removals of that
+	 *         generation have already been forgotten. In that case the caller
+	 *         has to reload all rows.
+	 */
+	public List<String> removedSince(long since) {
+		if (since < removedHorizon) {
+			return null;
+		}
+		List<String> result = Lists.newArrayList();
+		for (Entry<String, Long> entry : removed.entrySet()) {
+			// Ignore requests which have been added again
+			if (entry.getValue() > since && !rows.containsKey(entry.getKey())) {
+				result.add(entry.getKey());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns all rows whose values have changed after given generation
+	 *
+	 * @param since
+	 *            generation known to the caller
+	 * @return changed rows, most recently changed first
+	 */
+	public int[] modifiedSince(long since) {
+		int count = 0;
+		while (count < size && modified[byModified[count]] > since) {
+			count++;
+		}
+		return Arrays.copyOf(byModified, count);
+	}
+
+	/**
+	 * Returns identifiers of all requests which have moved to another queue
+	 * class after given generation and do not belong to the requested class
+	 * anymore. Pollers of the requested class have to treat them as removed.
+	 * Result may contain requests which have never belonged to the requested
+	 * class (e.g. moved between two other classes).
+	 *
+	 * @param since
+	 *            generation known to the caller
+	 * @param requestedClass
+	 *            class of requests (see {@link QueueHelper})
+	 * @return identifiers of requests which have left requested class
+	 */
+	public List<String> leftSince(long since, int requestedClass) {
+		List<String> result = Lists.newArrayList();
+		// A row whose class has changed has been modified as well
+		for (int i : modifiedSince(since)) {
+			if (classModified[i] > since && (queueClass[i] == 0 || !QueueHelper.matches(requestedClass, queueClass[i]))) {
+				result.add(identifier[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sums up known data sizes of all requests belonging to given class
+	 *
+	 * @param requestedClass
+	 *            class of requests (see {@link QueueHelper})
+	 * @return total size in bytes
+	 */
+	public long totalSize(int requestedClass) {
+		long result = 0;
+		for (int i = 0; i < size; i++) {
+			if (queueClass[i] != 0 && dataSize[i] > 0 && QueueHelper.matches(requestedClass, queueClass[i])) {
+				result += dataSize[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts all requests belonging to given class
+	 *
+	 * @param requestedClass
+	 *            class of requests (see {@link QueueHelper})
+	 * @return number of matching requests
+	 */
+	public int count(int requestedClass) {
+		int result = 0;
+		for (int i = 0; i < size; i++) {
+			if (queueClass[i] != 0 && QueueHelper.matches(requestedClass, queueClass[i])) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Compares values of a row with a row of another table
+	 *
+	 * @param row
+	 *            row of this table
+	 * @param other
+	 *            table to compare with
+	 * @param otherRow
+	 *            row of other table
+	 * @return {@code true} if all values are equal
+	 */
+	private boolean rowEquals(int row, RequestTable other, int otherRow) {
+		return queueClass[row] == other.queueClass[otherRow] && priority[row] == other.priority[otherRow] && dataSize[row] == other.dataSize[otherRow]
+				&& fetchedBlocks[row] == other.fetchedBlocks[otherRow] && totalBlocks[row] == other.totalBlocks[otherRow]
+				&& minBlocks[row] == other.minBlocks[otherRow] && failedBlocks[row] == other.failedBlocks[otherRow]
+				&& lastActivity[row] == other.lastActivity[otherRow] && Objects.equal(mime[row], other.mime[otherRow]);
+	}
+
+}
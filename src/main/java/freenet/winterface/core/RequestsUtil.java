@@ -30,6 +30,8 @@ public final class RequestsUtil {
 	public final static String HEADER_MAX_SIZE = "max-size";
 	/** Header key for accepted MIME types */
 	public final static String HEADER_ACCEPT = "accept";
+	/** Header key for delay after which a client may retry */
+	public final static String HEADER_RETRY_AFTER = "Retry-After";
 
 	/** Number of maximum redirect follows */
 	public final static short MAX_RECURSION = 5;
@@ -73,4 +75,25 @@ public final class RequestsUtil {
 		return f;
 	}
 
+	/**
+	 * Parses value of {@link #HEADER_MAX_SIZE} sent by a client
+	 * 
+	 * @param header
+	 *            value of header (may be {@code null})
+	 * @param max
+	 *            configured maximum length
+	 * @return requested size clamped to {@code [1, max]}, or {@code max} if
+	 *         header is missing or no number
+	 */
+	public static long parseMaxSize(String header, long max) {
+		if (header == null) {
+			return max;
+		}
+		try {
+			return Math.max(1, Math.min(Long.parseLong(header.trim()), max));
+		} catch (NumberFormatException e) {
+			return max;
+		}
+	}
+
 }
@@ -1,6 +1,16 @@
 package freenet.winterface.core;
 
+import java.io.IOException;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.Servlet;
@@ -12,14 +22,27 @@ import org.apache.wicket.Application;
 import org.apache.wicket.protocol.http.ContextParamWebApplicationFactory;
 import org.apache.wicket.protocol.http.WicketFilter;
 import org.apache.wicket.protocol.http.WicketServlet;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.ErrorPageErrorHandler;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import freenet.config.InvalidConfigValueException;
+import freenet.winterface.web.core.PushEventHub;
+import freenet.winterface.web.core.PushEventServlet;
 import freenet.winterface.web.core.WinterfaceApplication;
 
 /**
@@ -29,9 +52,16 @@ import freenet.winterface.web.core.WinterfaceApplication;
  * <ul>
  * <li>Starting the server</li>
  * <li>Configuring the server</li>
+ * <li>Applying changed server options without restart</li>
  * <li>Terminating the server</li>
  * </ul>
  * </p>
+ * <p>
+ * If port or bind to hosts change, connectors for new bindings are started
+ * before connectors of removed bindings are closed. A closed connector stops
+ * accepting, but its open connections are drained for up to
+ * {@link #MAX_DRAIN} before it is stopped.
+ * </p>
  * 
  * @author pausb
  * 
@@ -43,6 +73,36 @@ public class ServerManager {
 	 */
 	private Server server;
 
+	/** Configuration the server was started with */
+	private Configuration config;
+
+	/** Running connectors mapped by their binding ({@code host:port}) */
+	private final Map<String, AbstractConnector> connectors = Maps.newLinkedHashMap();
+
+	/** Applies changed server options */
+	private final Configuration.ServerListener reconfigurator = new Reconfigurator();
+
+	/** Stops draining connectors */
+	private ScheduledExecutorService drainer;
+
+	/** Runs binding and start of server in parallel */
+	private ExecutorService startup;
+
+	/** Completes once server accepts connections */
+	private SettableFuture<Server> ready;
+
+	/** {@code true} once connectors have been added to running server */
+	private boolean accepting;
+
+	/** Maximum time (in milliseconds) to drain connections of a closed connector */
+	public final static long MAX_DRAIN = TimeUnit.SECONDS.toMillis(30);
+
+	/** Maximum number of bytes of static files kept in memory */
+	private final static int STATIC_CACHE_SIZE = 4 * 1024 * 1024;
+
+	/** Maximum time (in milliseconds) to finish running requests on shutdown */
+	public final static long SHUTDOWN_DRAIN = TimeUnit.SECONDS.toMillis(5);
+
 	/**
 	 * Log4j logger
 	 */
@@ -52,6 +112,9 @@ public class ServerManager {
 
 	public static final String CONFIG_ID = "winterface-configuration";
 
+	/** Servlet context attribute containing readiness future of {@link Server} */
+	public static final String READY_ID = "winterface-readiness";
+
 	/**
 	 * Starts {@link Server} in the desired mode.
 	 * <p>
@@ -63,50 +126,288 @@ public class ServerManager {
 	 * Starting in development mode also makes Wicket to start in development
 	 * mode
 	 * </p>
+	 * <p>
+	 * This method does not block. Binding of connectors and start of the
+	 * server (including initialization of Wicket application) run in parallel
+	 * on background threads. Connections arriving in the meantime wait in
+	 * accept queue. Once both are done, connectors start accepting and the
+	 * returned future completes.
+	 * </p>
 	 * 
 	 * @param devMode
 	 *            {@code false} to start in deployment mode
-	 * @return running instance of {@link Server}
-	 */
-	public Server startServer(boolean devMode, final Configuration config, final FreenetWrapper fw) {
-		if (server == null) {
-			server = new Server();
-
-			// Bind
-			String[] hosts = config.getBindToHosts().split(",");
-			for (String host : hosts) {
-				SocketConnector connector = new SocketConnector();
-				connector.setMaxIdleTime(config.getIdleTimeout());
-				connector.setSoLingerTime(-1);
-				connector.setHost(host);
-				connector.setPort(config.getPort());
-				server.addConnector(connector);
+	 * @return future completing with running instance of {@link Server}
+	 */
+	public ListenableFuture<Server> startServer(boolean devMode, final Configuration config, final FreenetWrapper fw) {
+		if (server != null) {
+			return ready;
+		}
+		final long start = System.currentTimeMillis();
+		server = new Server();
+		server.setThreadPool(createThreadPool(config));
+		server.setGracefulShutdown((int) SHUTDOWN_DRAIN);
+		this.config = config;
+		drainer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("winterface-drain").build());
+		startup = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("winterface-startup-%d").build());
+		ready = SettableFuture.create();
+
+		ServletContextHandler sch = new ServletContextHandler(ServletContextHandler.SESSIONS);
+		initIPFilter(sch);
+		initErrorHandlers(sch);
+		initWicketServlet(devMode, sch);
+		initPushEvents(sch);
+		initStaticResources(sch);
+
+		/*
+		 * Add PluginRespirator/Configuration to servlet context So it can be
+		 * retrievable by our WebApplication
+		 */
+		sch.setAttribute(FREENET_ID, fw);
+		sch.setAttribute(CONFIG_ID, config);
+		sch.setAttribute(READY_ID, ready);
+
+		server.setHandler(sch);
+
+		logger.info("Starting Jetty Server on port " + config.getPort());
+		// Bind
+		final Future<?> bound = startup.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				bindConnectors();
+				logger.info("Connectors bound after " + (System.currentTimeMillis() - start) + "ms");
+				return null;
+			}
+		});
+		// Start server (without connectors) and wait for binding
+		startup.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					server.start();
+					logger.info("Application started after " + (System.currentTimeMillis() - start) + "ms");
+					bound.get();
+					startConnectors();
+					logger.info("Winterface ready after " + (System.currentTimeMillis() - start) + "ms");
+					ready.set(server);
+				} catch (Exception e) {
+					logger.error("Error by server startup!", e);
+					ready.setException(e);
+				} finally {
+					startup.shutdown();
+				}
 			}
+		});
+		config.addServerListener(reconfigurator);
+		return ready;
+	}
 
-			ServletContextHandler sch = new ServletContextHandler(ServletContextHandler.SESSIONS);
-			initIPFilter(sch, config);
-			initErrorHandlers(sch);
-			initWicketServlet(devMode, sch);
-			initStaticResources(sch);
+	/**
+	 * Creates connectors for all bindings and binds their sockets
+	 * 
+	 * @throws IOException
+	 *             if a socket could not be bound
+	 */
+	private synchronized void bindConnectors() throws IOException {
+		for (String host : bindHosts(config)) {
+			AbstractConnector connector = createConnector(config, host);
+			connector.open();
+			connectors.put(binding(host, config.getPort()), connector);
+		}
+	}
+
+	/**
+	 * Adds bound connectors to running server and starts accepting. Changes
+	 * of bindings during startup are applied afterwards.
+	 * 
+	 * @throws Exception
+	 *             if a connector could not be started
+	 */
+	private synchronized void startConnectors() throws Exception {
+		for (AbstractConnector connector : connectors.values()) {
+			server.addConnector(connector);
+			connector.start();
+		}
+		accepting = true;
+		try {
+			rebind();
+		} catch (InvalidConfigValueException e) {
+			// Bindings changed during startup cannot be applied
+			logger.error("Keeping bindings of startup", e);
+		}
+	}
+
+	/**
+	 * @return future completing once {@link Server} accepts connections
+	 *         ({@code null} if server was never started)
+	 */
+	public ListenableFuture<Server> getReadiness() {
+		return ready;
+	}
+
+	/**
+	 * Creates a bounded {@link QueuedThreadPool} shared by all connectors
+	 * 
+	 * @param config
+	 *            {@link Configuration} containing pool limits
+	 * @return created thread pool
+	 */
+	private QueuedThreadPool createThreadPool(Configuration config) {
+		QueuedThreadPool pool = new QueuedThreadPool();
+		pool.setName("winterface");
+		pool.setDaemon(true);
+		pool.setMinThreads(config.getMinThreads());
+		pool.setMaxThreads(config.getMaxThreads());
+		pool.setMaxQueued(config.getMaxQueued());
+		pool.setMaxStopTimeMs((int) SHUTDOWN_DRAIN);
+		return pool;
+	}
 
-			/*
-			 * Add PluginRespirator/Configuration to servlet context So it can
-			 * be retrievable by our WebApplication
-			 */
-			sch.setAttribute(FREENET_ID, fw);
-			sch.setAttribute(CONFIG_ID, config);
+	/**
+	 * Creates a {@link Connector} for given host.
+	 * <p>
+	 * Non-blocking connectors ({@link SelectChannelConnector}) only occupy a
+	 * thread while a request is handled, so idle keep-alive connections and
+	 * open event streams do not grow the thread pool. Blocking connectors
+	 * ({@link SocketConnector}) need one thread per connection.
+	 * </p>
+	 * 
+	 * @param config
+	 *            {@link Configuration} containing connector settings
+	 * @param host
+	 *            host to bind to
+	 * @return created connector
+	 */
+	private AbstractConnector createConnector(Configuration config, String host) {
+		AbstractConnector connector = config.isNioConnector() ? new SelectChannelConnector() : new SocketConnector();
+		connector.setMaxIdleTime(config.getIdleTimeout());
+		connector.setSoLingerTime(-1);
+		connector.setAcceptors(config.getAcceptors());
+		connector.setAcceptQueueSize(config.getAcceptQueueSize());
+		connector.setHost(host);
+		connector.setPort(config.getPort());
+		return connector;
+	}
 
-			server.setHandler(sch);
+	/**
+	 * Returns hosts to bind to
+	 */
+	private static Set<String> bindHosts(Configuration config) {
+		Set<String> hosts = Sets.newLinkedHashSet();
+		for (String host : config.getBindToHosts().split(",")) {
+			if (host.trim().length() > 0) {
+				hosts.add(host.trim());
+			}
+		}
+		return hosts;
+	}
 
+	/**
+	 * Returns key of a binding
+	 */
+	private static String binding(String host, int port) {
+		return host + ":" + port;
+	}
+
+	/**
+	 * Starts connectors for new bindings and drains connectors of removed
+	 * bindings. Connectors of removed bindings are only drained once all new
+	 * connectors are running, otherwise the running connectors are kept.
+	 * 
+	 * @throws InvalidConfigValueException
+	 *             if no host is left to bind to or a new connector could not
+	 *             be started
+	 */
+	private synchronized void rebind() throws InvalidConfigValueException {
+		if (!accepting) {
+			// Applied once startup is complete
+			return;
+		}
+		int port = config.getPort();
+		Set<String> hosts = bindHosts(config);
+		if (hosts.isEmpty()) {
+			throw new InvalidConfigValueException("At least one host to bind to is needed.");
+		}
+		Set<String> wanted = Sets.newHashSet();
+		Map<String, AbstractConnector> started = Maps.newLinkedHashMap();
+		// Start new connectors first, so server stays reachable
+		for (String host : hosts) {
+			String binding = binding(host, port);
+			wanted.add(binding);
+			if (connectors.containsKey(binding)) {
+				continue;
+			}
+			AbstractConnector connector = createConnector(config, host);
+			server.addConnector(connector);
 			try {
-				logger.info("Starting Jetty Server on port " + config.getPort());
-				server.start();
-				server.join();
+				connector.start();
+				started.put(binding, connector);
+				logger.info("Started connector on " + binding);
 			} catch (Exception e) {
-				logger.error("Error by server startup!", e);
+				logger.error("Error while binding to " + binding, e);
+				server.removeConnector(connector);
+				// Roll back, keeping former bindings
+				for (Map.Entry<String, AbstractConnector> entry : started.entrySet()) {
+					stopConnector(entry.getKey(), entry.getValue());
+				}
+				throw new InvalidConfigValueException("Cannot bind to " + binding + ": " + e.getMessage());
+			}
+		}
+		connectors.putAll(started);
+		Iterator<Map.Entry<String, AbstractConnector>> it = connectors.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, AbstractConnector> entry = it.next();
+			if (!wanted.contains(entry.getKey())) {
+				it.remove();
+				drain(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Stops a connector at once and removes it from server
+	 */
+	private void stopConnector(String binding, AbstractConnector connector) {
+		try {
+			connector.stop();
+		} catch (Exception e) {
+			logger.warn("Error while stopping connector on " + binding, e);
+		}
+		server.removeConnector(connector);
+	}
+
+	/**
+	 * Stops accepting on a connector and stops it after its connections are
+	 * drained
+	 */
+	private void drain(final String binding, final AbstractConnector connector) {
+		try {
+			connector.close();
+		} catch (IOException e) {
+			logger.warn("Error while closing connector on " + binding, e);
+		}
+		// Open connections are closed by Jetty once they are idle
+		long delay = Math.min(config.getIdleTimeout(), MAX_DRAIN);
+		logger.info("Draining connector on " + binding + " for " + delay + "ms");
+		drainer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (ServerManager.this) {
+					stopConnector(binding, connector);
+				}
+				logger.info("Stopped connector on " + binding);
 			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Applies idle timeout to all connectors. Open connections keep their
+	 * timeout, new connections use the new one.
+	 */
+	private synchronized void applyIdleTimeout() {
+		for (AbstractConnector connector : connectors.values()) {
+			connector.setMaxIdleTime(config.getIdleTimeout());
 		}
-		return server;
+		logger.info("Idle timeout changed to " + config.getIdleTimeout() + "ms");
 	}
 
 	/**
@@ -115,9 +416,11 @@ public class ServerManager {
 	 * @param sch
 	 *            parent {@link ServletContextHandler}
 	 */
-	private void initIPFilter(ServletContextHandler sch, Configuration config) {
+	private void initIPFilter(ServletContextHandler sch) {
+		// Allowed hosts are read from configuration in servlet context
 		FilterHolder fh = new FilterHolder(IPFilter.class);
-		fh.setInitParameter(IPFilter.ALLOWED_HOSTS_PARAM, config.getAllowedHosts());
+		// Needed by asynchronous event streams
+		fh.setAsyncSupported(true);
 		sch.addFilter(fh, "/*", EnumSet.of(DispatcherType.REQUEST));
 	}
 
@@ -159,6 +462,19 @@ public class ServerManager {
 		sch.addServlet(sh, "/*");
 	}
 
+	/**
+	 * Initializes {@link PushEventServlet} which streams events of
+	 * {@link PushEventHub} to browsers
+	 * 
+	 * @param sch
+	 *            parent {@link ServletContextHandler}
+	 */
+	private void initPushEvents(ServletContextHandler sch) {
+		ServletHolder sh = new ServletHolder(PushEventServlet.class);
+		sh.setAsyncSupported(true);
+		sch.addServlet(sh, "/events");
+	}
+
 	/**
 	 * Creates and configures a new {@link Servlet} responsible for resources in
 	 * {@code static} folder.
@@ -172,6 +488,10 @@ public class ServerManager {
 		resourceServlet.setInitParameter("dirAllowed", "true");
 		resourceServlet.setInitParameter("resourceBase", staticPath);
 		resourceServlet.setInitParameter("pathInfoOnly", "true");
+		// Keep static files in memory (primed by warm-up)
+		resourceServlet.setInitParameter("maxCacheSize", String.valueOf(STATIC_CACHE_SIZE));
+		resourceServlet.setInitParameter("maxCachedFileSize", String.valueOf(STATIC_CACHE_SIZE));
+		resourceServlet.setInitParameter("maxCachedFiles", "256");
 		// if(DEV_MODE) {
 		// resourceServlet.setInitParameter("maxCacheSize", "0");
 		// }
@@ -180,18 +500,60 @@ public class ServerManager {
 	}
 
 	/**
-	 * Terminates {@link Server} (if running)
+	 * Terminates {@link Server} (if running).
+	 * <p>
+	 * Connectors stop accepting at once, running requests get up to
+	 * {@link #SHUTDOWN_DRAIN} to finish.
+	 * </p>
 	 */
 	public void terminateServer() {
 		if (server != null) {
+			long start = System.currentTimeMillis();
+			config.removeServerListener(reconfigurator);
+			startup.shutdownNow();
+			drainer.shutdownNow();
 			try {
 				server.stop();
-				server.join();
-			} catch (InterruptedException e) {
-				logger.error("Error by server shutdown!", e);
 			} catch (Exception e) {
 				logger.error("Error by server shutdown!", e);
 			}
+			closeConnectors();
+			logger.info("Server stopped after " + (System.currentTimeMillis() - start) + "ms");
+		}
+	}
+
+	/**
+	 * Closes sockets of connectors which were bound but never started
+	 */
+	private synchronized void closeConnectors() {
+		accepting = false;
+		for (Map.Entry<String, AbstractConnector> entry : connectors.entrySet()) {
+			try {
+				entry.getValue().close();
+			} catch (IOException e) {
+				logger.warn("Error while closing connector on " + entry.getKey(), e);
+			}
+		}
+		connectors.clear();
+	}
+
+	/**
+	 * Applies changed server options to running {@link Server}
+	 * 
+	 * @author pausb
+	 */
+	private class Reconfigurator implements Configuration.ServerListener {
+
+		@Override
+		public void bindingChanged() throws InvalidConfigValueException {
+			rebind();
 		}
+
+		@Override
+		public void idleTimeoutChanged() {
+			applyIdleTimeout();
+		}
+
 	}
+
 }
@@ -10,6 +10,7 @@ import freenet.l10n.BaseL10n.LANGUAGE;
 import freenet.node.Node;
 import freenet.pluginmanager.FredPlugin;
 import freenet.pluginmanager.FredPluginConfigurable;
+import freenet.pluginmanager.FredPluginThreadless;
 import freenet.pluginmanager.FredPluginVersioned;
 import freenet.pluginmanager.PluginRespirator;
 
@@ -22,7 +23,7 @@ import freenet.pluginmanager.PluginRespirator;
  * @author pasub
  * 
  */
-public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPluginConfigurable {
+public class WinterfacePlugin implements FredPlugin, FredPluginThreadless, FredPluginVersioned, FredPluginConfigurable {
 
 	/**
 	 * {@link URL} at which {@link WinterfacePlugin} resides
@@ -64,6 +65,7 @@ public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPl
 		logger.debug("Loaded WinterFacePlugin on path " + plugin_path);
 		// initServer();
 		serverManager = new ServerManager();
+		// Returns at once, so node startup is not held up
 		serverManager.startServer(DEV_MODE, config, new FreenetWrapper(pr));
 	}
 
@@ -78,14 +80,19 @@ public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPl
 	}
 
 	/**
-	 * Just for test cases if {@link Node} is not needed
+	 * Just for test cases if {@link Node} is not needed. Blocks until server
+	 * has stopped, since all server threads are daemons.
 	 * 
 	 * @param args
 	 *            start arguments
+	 * @throws Exception
+	 *             if server fails to start or waiting is interrupted
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
 		WinterfacePlugin p = new WinterfacePlugin();
 		p.runPlugin(null);
+		Server server = p.serverManager.getReadiness().get();
+		server.join();
 	}
 
 	@Override
@@ -4,8 +4,10 @@ import org.apache.wicket.model.CompoundPropertyModel;
 import org.apache.wicket.model.LoadableDetachableModel;
 
 import freenet.node.PeerManager;
+import freenet.winterface.web.core.AdmissionController;
 import freenet.winterface.web.core.WinterfaceApplication;
 import freenet.winterface.web.markup.BookmarksPanel;
+import freenet.winterface.web.markup.GatewayPanel;
 import freenet.winterface.web.markup.PeersPanel;
 import freenet.winterface.web.markup.VersionPanel;
 import freenet.winterface.web.markup.VisitURIPanel;
@@ -33,6 +35,16 @@ public class Dashboard extends WinterPage {
 		};
 		add(new PeersPanel("peers-panel",new CompoundPropertyModel<PeerManager>(peerManagerModel)));
 		add(new VersionPanel("version"));
+		// Admission counters are only of interest to gateway operators
+		final LoadableDetachableModel<AdmissionController> admissionModel = new LoadableDetachableModel<AdmissionController>() {
+			@Override
+			protected AdmissionController load() {
+				return ((WinterfaceApplication) getApplication()).getTrackerManager().getAdmissionController();
+			}
+		};
+		GatewayPanel gatewayPanel = new GatewayPanel("gateway-panel", new CompoundPropertyModel<AdmissionController>(admissionModel));
+		gatewayPanel.setVisible(((WinterfaceApplication) getApplication()).getConfiguration().isPublicGateway() && isAllowedFullAccess());
+		add(gatewayPanel);
 		add(new VisitURIPanel("fetchKey"));
 	}
 	
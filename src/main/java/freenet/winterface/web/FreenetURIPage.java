@@ -2,26 +2,22 @@ package freenet.winterface.web;
 
 import java.net.MalformedURLException;
 
-import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.apache.wicket.RestartResponseException;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.model.CompoundPropertyModel;
 import org.apache.wicket.model.LoadableDetachableModel;
-import org.apache.wicket.protocol.http.request.WebClientInfo;
-import org.apache.wicket.request.Request;
 import org.apache.wicket.request.RequestHandlerStack;
 import org.apache.wicket.request.Response;
 import org.apache.wicket.request.http.WebRequest;
 import org.apache.wicket.request.http.flow.AbortWithHttpErrorCodeException;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
-import org.apache.wicket.util.string.StringValue;
 import org.apache.wicket.util.time.Duration;
 
 import freenet.client.FetchContext;
 import freenet.client.FetchException;
-import freenet.client.HighLevelSimpleClientImpl;
 import freenet.client.async.USKManager;
 import freenet.clients.http.FProxyFetchInProgress;
 import freenet.clients.http.FProxyFetchResult;
@@ -31,14 +27,21 @@ import freenet.keys.FreenetURI;
 import freenet.keys.USK;
 import freenet.winterface.core.Configuration;
 import freenet.winterface.core.RequestsUtil;
+import freenet.winterface.web.core.AdmissionController.RejectedException;
 import freenet.winterface.web.core.AjaxFallbackTimerBehavior;
 import freenet.winterface.web.core.FetchTrackerManager;
+import freenet.winterface.web.core.FreenetURIFetchHandler;
 import freenet.winterface.web.core.FreenetURIHandler;
+import freenet.winterface.web.core.PushEventHub;
 import freenet.winterface.web.core.WinterfaceApplication;
 import freenet.winterface.web.markup.FetchProgressPanel;
 
 /**
  * {@link WinterPage} to fetch {@link FreenetURI}s and show the fetch progress
+ * <p>
+ * Only requests which can show a progress page are mapped to this page. All
+ * others are answered by {@link FreenetURIFetchHandler}.
+ * </p>
  * 
  * @author pausb
  * @see FetchTrackerManager
@@ -66,27 +69,15 @@ public class FreenetURIPage extends WinterPage {
 		super(params);
 		path = parametersToPath(params);
 		logger.debug("Fetch request received for " + path);
-		// Make sure user browser data is already collected
-		// Its best to call this in instructor since it makes
-		// a redirection a data gathering page
-		getSession().getClientInfo();
-
-		FetchContext cntx = createFetchContext();
-		boolean canSendProgress = canSendProgress();
-
+		// Requests which cannot show a progress page (e.g. images) never get
+		// here (see FreenetURIFetchHandler.Factory)
 		FProxyFetchWaiter waiter = null;
 
 		// Initiates the fetching progress if it doesn't already exist
 		try {
 			waiter = getWaiter();
-			if (canSendProgress) {
-				// If page has a newer version we restart the
-				restartIfOutdated(waiter);
-			} else {
-				// Requested file is an image or css file. A simple redirect is
-				// not enough. Result is fetched in a recursive manner
-				enterRecursionIfNeeded(waiter, cntx);
-			}
+			// If page has a newer version we restart the
+			restartIfOutdated(waiter);
 		} catch (FetchException e) {
 			// Happens if fetching cannot be started
 			logger.error("Error while fetching Freenet URI", e);
@@ -94,6 +85,11 @@ public class FreenetURIPage extends WinterPage {
 		} catch (MalformedURLException e) {
 			logger.error("Error while parsing FreenetURI", e);
 			throw new AbortWithHttpErrorCodeException(404);
+		} catch (RejectedException e) {
+			// Too many fetches of restricted hosts
+			HttpServletResponse response = (HttpServletResponse) getResponse().getContainerResponse();
+			response.setHeader(RequestsUtil.HEADER_RETRY_AFTER, String.valueOf(e.getRetryAfter()));
+			throw new AbortWithHttpErrorCodeException(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
 		} finally {
 			if (waiter != null) {
 				waiter.close();
@@ -133,7 +129,13 @@ public class FreenetURIPage extends WinterPage {
 			// TODO remove this. Page versioning is not in URL with the new
 			// WinterMapper
 			String refreshURL = "/" + path;
-			AjaxFallbackTimerBehavior refreshBehavior = new AjaxFallbackTimerBehavior(RELOAD_DURATION, refreshURL) {
+			// Progress is pushed as long as the browser supports it
+			FProxyFetchInProgress progress = getProgress();
+			if (progress != null) {
+				((WinterfaceApplication) getApplication()).getPushEventHub().watchFetch(path, progress);
+			}
+			String topic = PushEventHub.TOPIC_FETCH_PREFIX + path;
+			AjaxFallbackTimerBehavior refreshBehavior = new AjaxFallbackTimerBehavior(RELOAD_DURATION, refreshURL, topic) {
 				@Override
 				protected void onTimer(AjaxRequestTarget target) {
 					if (FreenetURIPage.this.getLatestResult().isFinished()) {
@@ -156,6 +158,9 @@ public class FreenetURIPage extends WinterPage {
 			} else if (latestResult.hasData()) {
 				// TODO check for RSS data as in evilHorribleHack of FProxy
 				logger.debug("Passing data to " + FreenetURIHandler.class.getName());
+				if (latestResult.mimeType != null && latestResult.mimeType.startsWith("text/html")) {
+					trackerManager().prefetchLinked(path, latestResult.data, getFetchContext(), isAllowedFullAccess());
+				}
 				throw new RequestHandlerStack.ReplaceHandlerException(new FreenetURIHandler(latestResult), false);
 			}
 		}
@@ -171,38 +176,13 @@ public class FreenetURIPage extends WinterPage {
 	}
 
 	/**
-	 * @return {@link FetchContext} with respect to current {@link WebRequest}
+	 * @return {@link FetchContext} with respect to current
+	 *         {@link WebRequest}
 	 */
-	private FetchContext createFetchContext() {
-		// Tracker Manager
-		FetchTrackerManager trackerManager = trackerManager();
-		HighLevelSimpleClientImpl client = trackerManager.getClient();
-		// Configuration
+	private FetchContext getFetchContext() {
 		Configuration config = ((WinterfaceApplication) getApplication()).getConfiguration();
-		// Max size in HTTP header
-		HttpServletRequest request = getHttpServletRequest();
-		long maxLength = config.getMaxLength();
-		// max-retries
-		// Less than -1 = use default.
-		// 0 = one try only, don't retry
-		// 1 = two tries
-		// 2 = three tries
-		// 3 or more = GO INTO COOLDOWN EVERY 3 TRIES! TAKES *MUCH* LONGER!!!
-		// STRONGLY NOT RECOMMENDED!!!
 		int maxRetries = getPageParameters().get(RequestsUtil.PARAM_MAX_RETRIES).toInt(-2);
-		boolean restricted = (config.isPublicGateway() && !isAllowedFullAccess());
-		if (restricted) {
-			String maxSize = request.getHeader(RequestsUtil.HEADER_MAX_SIZE);
-			maxLength = (maxSize == null ? maxLength : Long.valueOf(maxSize));
-			maxRetries = -2;
-		}
-		FetchContext result = new FetchContext(client.getFetchContext(maxLength), FetchContext.IDENTICAL_MASK, true, null);
-		result.maxOutputLength = maxLength;
-		if (maxRetries >= -1) {
-			result.maxNonSplitfileRetries = maxRetries;
-			result.maxSplitfileBlockRetries = maxRetries;
-		}
-		return result;
+		return trackerManager().getFetchContext(config, getHttpServletRequest(), maxRetries, isAllowedFullAccess());
 	}
 
 	/**
@@ -247,30 +227,6 @@ public class FreenetURIPage extends WinterPage {
 		return result;
 	}
 
-	/**
-	 * Depending on {@link WebClientInfo} of the current {@link Request}, it is
-	 * decided if a progress page should be shown or not.
-	 * <p>
-	 * Returns {@code true} If client is browsing through a browser and requests
-	 * data of MIME-type <tt>text/html</tt> and <tt>forcedownload</tt> parameter
-	 * is not set.
-	 * </p>
-	 * 
-	 * @return {@code false} if no progress page can be shown
-	 */
-	private boolean canSendProgress() {
-		WebClientInfo clientInfo = (WebClientInfo) getSession().getClientInfo();
-		// If client is a browser
-		String ua = clientInfo.getUserAgent();
-		boolean isBrowser = (ua == null) ? false : ((ua.contains("Mozilla/") || (ua.contains("Opera/"))));
-		// What does browser expect
-		String accept = getHttpServletRequest().getHeader("accept");
-		boolean htmlRequest = (accept != null) ? (accept.indexOf("text/html") > -1) : true;
-		// Force download is set
-		StringValue force = getPageParameters().get("forcedownload");
-		return isBrowser && htmlRequest && (force.isNull());
-	}
-
 	/**
 	 * Creates {@link FProxyFetchWaiter} for current path.
 	 * <p>
@@ -283,81 +239,25 @@ public class FreenetURIPage extends WinterPage {
 	 *             if current path is not a valid {@link FreenetURI}
 	 * @throws FetchException
 	 *             if fetch progress cannot be started
-	 * @see #createFetchContext()
+	 * @throws RejectedException
+	 *             if a new fetch is not admitted (public gateway mode)
+	 * @see #getFetchContext()
 	 * @see FProxyFetchTracker#makeFetcher(FreenetURI, long, FetchContext,
 	 *      freenet.clients.http.FProxyFetchInProgress.REFILTER_POLICY)
 	 */
-	private FProxyFetchWaiter getWaiter() throws MalformedURLException, FetchException {
-		return trackerManager().getWaiterFor(path, createFetchContext());
+	private FProxyFetchWaiter getWaiter() throws MalformedURLException, FetchException, RejectedException {
+		String host = getHttpServletRequest().getRemoteAddr();
+		return trackerManager().getWaiterFor(path, getFetchContext(), host, isAllowedFullAccess());
 	}
 
 	/**
 	 * @return progress for current path
-	 * @see #createFetchContext()
+	 * @see #getFetchContext()
 	 * @see FProxyFetchTracker#getFetchInProgress(FreenetURI, long,
 	 *      FetchContext)
 	 */
 	private FProxyFetchInProgress getProgress() {
-		return trackerManager().getProgressFor(path, createFetchContext());
-	}
-
-	/**
-	 * Follows new {@link FreenetURI}s for a given URI.
-	 * <p>
-	 * If fetched data is an image or a CSS file, sending a simple redirect is
-	 * not enough. Instead we first follow the new URIs and then try to render
-	 * the latest version.
-	 * </p>
-	 * 
-	 * @param waiter
-	 *            containing initial result
-	 * @param cntx
-	 *            context for potential deeper fetches
-	 * @throws MalformedURLException
-	 *             if any of new URIs are malformed (no {@link FreenetURI})
-	 * @throws FetchException
-	 *             if fetching progress for new URIs cannot be started
-	 * @see #MAX_RECURSION
-	 */
-	private void enterRecursionIfNeeded(FProxyFetchWaiter waiter, FetchContext cntx) throws MalformedURLException, FetchException {
-		logger.trace("Checking if fetch recursion is needed for " + path);
-		HttpServletRequest request = getHttpServletRequest();
-		String accept = request.getHeader(RequestsUtil.HEADER_ACCEPT);
-		short recursion = RequestsUtil.MAX_RECURSION;
-		boolean shouldEnter = (accept != null && (accept.startsWith("text/css") || accept.startsWith("image/")));
-		FProxyFetchWaiter localWaiter = waiter;
-		if (shouldEnter) {
-			while (recursion > 0) {
-				FreenetURI currentURI = localWaiter.getProgress().uri;
-				logger.trace("Recursion number " + (RequestsUtil.MAX_RECURSION - recursion) + " for " + currentURI);
-				FProxyFetchResult result = localWaiter.getResult(true);
-				FetchException fe = result.failed;
-				if (fe != null) {
-					FreenetURI newURI = fe.newURI;
-					if (newURI == null) {
-						logger.trace("Breaking recursion: No new URI found. (" + currentURI + ")");
-						break;
-					}
-					if (newURI.equals(currentURI)) {
-						logger.trace("Breaking recursion: New URI equals to current one. (" + currentURI + ")");
-						break;
-					}
-					localWaiter.close();
-					final String newPath = fe.newURI.toString();
-					logger.debug("New URI found " + newURI + " for " + currentURI);
-					localWaiter.close();
-					hardRestartPage(newPath);
-				}
-				// No exceptions after finish = no newer versions
-				if (fe == null || result.hasData()) {
-					logger.trace("Breaking recursion: No fetch error occured. (" + currentURI + ")");
-					break;
-				}
-				recursion--;
-			}
-		} else {
-			logger.trace("No recursion needed for" + waiter.getProgress().uri);
-		}
+		return trackerManager().getProgressFor(path, getFetchContext());
 	}
 
 	/**
@@ -385,6 +285,7 @@ public class FreenetURIPage extends WinterPage {
 					waiter.close();
 					// Start fetching again
 					logger.debug("A newer version of USK key is available. Restarting request.");
+					trackerManager().getMetrics().countUskRestart();
 					hardRestartPage();
 				}
 			} catch (MalformedURLException e) {
@@ -395,6 +296,9 @@ public class FreenetURIPage extends WinterPage {
 			final FreenetURI newURI = fe.newURI;
 			if (newURI != null) {
 				logger.debug("A newer version if key is found in FetchException. Restarting request.");
+				if (newURI.isUSK()) {
+					trackerManager().getMetrics().countUskRestart();
+				}
 				hardRestartPage(newURI.toString());
 			}
 		}
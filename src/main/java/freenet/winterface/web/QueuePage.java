@@ -5,47 +5,81 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.apache.wicket.Component;
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.ajax.AbstractAjaxTimerBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
+import org.apache.wicket.ajax.markup.html.form.AjaxCheckBox;
 import org.apache.wicket.ajax.markup.html.form.AjaxFallbackButton;
+import org.apache.wicket.extensions.markup.html.repeater.data.sort.OrderByBorder;
+import org.apache.wicket.markup.head.IHeaderResponse;
 import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.CheckGroup;
 import org.apache.wicket.markup.html.form.DropDownChoice;
 import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.form.IChoiceRenderer;
+import org.apache.wicket.markup.html.form.TextField;
 import org.apache.wicket.markup.html.link.ExternalLink;
+import org.apache.wicket.markup.html.navigation.paging.PagingNavigator;
 import org.apache.wicket.markup.html.panel.FeedbackPanel;
 import org.apache.wicket.markup.repeater.Item;
 import org.apache.wicket.markup.repeater.RefreshingView;
+import org.apache.wicket.markup.repeater.ReuseIfModelsEqualStrategy;
+import org.apache.wicket.model.AbstractReadOnlyModel;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
+import org.apache.wicket.model.PropertyModel;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.util.string.StringValue;
+import org.apache.wicket.util.string.Strings;
+import org.apache.wicket.util.time.Duration;
+import org.apache.wicket.util.visit.IVisit;
+import org.apache.wicket.util.visit.IVisitor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
-import freenet.client.async.DatabaseDisabledException;
 import freenet.node.fcp.FCPServer;
-import freenet.node.fcp.MessageInvalidException;
 import freenet.node.fcp.RequestStatus;
 import freenet.winterface.core.QueueHelper;
+import freenet.winterface.core.QueueIndex;
+import freenet.winterface.core.QueueJob;
+import freenet.winterface.core.QueueJob.Operation;
+import freenet.winterface.core.QueueJobManager;
+import freenet.winterface.core.RequestTable;
+import freenet.winterface.web.core.AjaxFallbackTimerBehavior;
+import freenet.winterface.web.core.PushEventHub;
+import freenet.winterface.web.core.PushEvents;
 import freenet.winterface.web.core.QueueModelsUtil;
+import freenet.winterface.web.core.RequestStatusProvider;
+import freenet.winterface.web.core.RequestStatusProvider.SortKey;
 import freenet.winterface.web.core.RequestStatusView;
+import freenet.winterface.web.core.WinterfaceApplication;
+import freenet.winterface.web.markup.ConfirmPanel;
 
 /**
  * Displays a list of all global {@link RequestStatus}
  * <p>
  * Lists are divided in different categories (see {@link QueueHelper#codeNameMap})
- * and user can change priority and delete items from lists.
+ * and user can change priority, restart and delete items from lists. Each list
+ * is paged and can be sorted and filtered (see {@link RequestStatusProvider}).
+ * Bulk operations are executed in background (see {@link QueueJobManager}).
  * </p>
  * 
  * @author pausb
  * @see FCPServer
  * @see QueueHelper
+ * @see QueueIndex
  * @see RequestStatusView
  */
-// TODO there are missing features such as restart item
 // TODO add no items in queue message
 @SuppressWarnings("serial")
 public class QueuePage extends WinterPage {
@@ -53,6 +87,21 @@ public class QueuePage extends WinterPage {
 	/** An integer representing desired queues to show */
 	private final int targetClass;
 
+	/** Substring of identifier or MIME type to filter queues by */
+	private String filter;
+
+	/** ID of currently running {@link QueueJob} (if any) */
+	private Long jobId;
+	/** Shows progress of currently running {@link QueueJob} */
+	private WebMarkupContainer jobContainer;
+	/** Containers to update after a {@link QueueJob} is finished */
+	private Component[] queueComponents;
+
+	/** {@code true} if changed rows are repainted continuously */
+	private boolean live;
+	/** Table which the rendered rows correspond to (not serialized) */
+	private transient RequestTable renderedTable;
+
 	/**
 	 * Parameter containing target class. It can contain both string and
 	 * integers (see {@link #extractTargetClass()})
@@ -62,6 +111,12 @@ public class QueuePage extends WinterPage {
 	// L10N
 	private final static String L10N_PRIO_PREFIX = "QueueToadlet.priority";
 	private final static String L10N_REMOVE_FAILED = "QueueToadlet.failedToRemoveRequest";
+	private final static String L10N_JOB_PROGRESS = "QueuePage.jobProgress";
+	private final static String L10N_REMOVE_FILTERED_EMPTY = "QueuePage.removeFilteredEmpty";
+	private final static String L10N_REMOVE_FILTERED_CONFIRM = "QueuePage.removeFilteredConfirm";
+
+	/** Interval of checking progress of a running {@link QueueJob} */
+	private final static Duration JOB_POLL_INTERVAL = Duration.seconds(1);
 
 	/** Log4j logger */
 	private final static Logger logger = Logger.getLogger(QueuePage.class);
@@ -123,44 +178,149 @@ public class QueuePage extends WinterPage {
 		};
 		queuesContainer.setOutputMarkupId(true);
 
+		// Live mode: repaint only changed rows
+		final WebMarkupContainer liveContainer = new WebMarkupContainer("liveContainer");
+		liveContainer.setOutputMarkupId(true);
+		liveContainer.add(new AjaxCheckBox("live", new PropertyModel<Boolean>(this, "live")) {
+			@Override
+			protected void onUpdate(AjaxRequestTarget target) {
+				renderedTable = null;
+				target.add(liveContainer);
+			}
+		});
+		liveContainer.add(new AbstractAjaxTimerBehavior(Duration.milliseconds(QueueIndex.REFRESH_INTERVAL)) {
+			@Override
+			protected void onTimer(AjaxRequestTarget target) {
+				repaintChanges(target, navLinksContainer, queuesContainer);
+			}
+
+			@Override
+			public boolean isEnabled(Component component) {
+				return live;
+			}
+
+			@Override
+			protected void updateAjaxAttributes(AjaxRequestAttributes attributes) {
+				super.updateAjaxAttributes(attributes);
+				PushEvents.addPrecondition(attributes, getComponent(), PushEventHub.TOPIC_QUEUE, getUpdateInterval());
+			}
+
+			@Override
+			public void renderHead(Component component, IHeaderResponse response) {
+				super.renderHead(component, response);
+				// Repaint as soon as index changes
+				PushEvents.renderHead(component, response, PushEventHub.TOPIC_QUEUE, getCallbackScript());
+			}
+		});
+
+		// Form to filter queues by identifier or MIME type
+		final IModel<String> filterModel = new PropertyModel<String>(this, "filter");
+		Form<Void> filterForm = new Form<Void>("filterForm");
+		filterForm.add(new TextField<String>("filter", filterModel));
+		queuesContainer.add(filterForm);
+
 		// From to get selected check boxes
-		Form<Void> editForm = new Form<Void>("editForm");
+		final Form<Void> editForm = new Form<Void>("editForm");
 
 		// Feedback panel
-		FeedbackPanel feedback = new FeedbackPanel("feedback");
+		final FeedbackPanel feedback = new FeedbackPanel("feedback");
+		feedback.setOutputMarkupId(true);
 		editForm.add(feedback);
 
 		// Group to collect identifier of all selected items
 		final CheckGroup<String> selectedGroup = new CheckGroup<String>("selectedGroup", new ArrayList<String>());
 		editForm.add(selectedGroup);
+
+		// Progress of running bulk operation
+		jobContainer = new WebMarkupContainer("jobContainer") {
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				// Without JavaScript the timer only reloads the page
+				QueueJob job = getJob();
+				if (jobId != null && (job == null || job.isFinished()) && getRequestCycle().find(AjaxRequestTarget.class) == null) {
+					jobFinished(job);
+				}
+			}
+
+			@Override
+			public boolean isVisible() {
+				return jobId != null;
+			}
+		};
+		jobContainer.setOutputMarkupPlaceholderTag(true);
+		jobContainer.add(new Label("jobStatus", new AbstractReadOnlyModel<String>() {
+			@Override
+			public String getObject() {
+				QueueJob job = getJob();
+				if (job == null) {
+					return "";
+				}
+				Map<String, Integer> values = Maps.newHashMap();
+				values.put("processed", job.getProcessed());
+				values.put("total", job.getTotal());
+				values.put("failed", job.getFailed().size());
+				return localize(L10N_JOB_PROGRESS, Model.ofMap(values));
+			}
+		}));
+		editForm.add(jobContainer);
+
 		// Remove button
 		AjaxFallbackButton removeItems = new AjaxFallbackButton("removeItems", editForm) {
 			@Override
 			protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
-				Collection<String> modelObject = selectedGroup.getModelObject();
-				FCPServer fcp = utilModel.getObject().getFCPServer();
-				for (String id : modelObject) {
-					try {
-						fcp.removeGlobalRequestBlocking(id);
-						logger.debug("Successfully removed item with identifier: " + id);
-					} catch (MessageInvalidException e) {
-						String message = localize(L10N_REMOVE_FAILED);
-						message += "(" + id + ")";
-						form.error(message);
-						logger.debug(message);
-					} catch (DatabaseDisabledException e) {
-						// Cannot happen. QueueUtil has been instantiated
-						// already -> Database is active
+				submitJob(Operation.REMOVE, selectedGroup.getModelObject(), (short) 0, target);
+			}
+		};
+		editForm.add(removeItems);
+		// Restart button
+		AjaxFallbackButton restartItems = new AjaxFallbackButton("restartItems", editForm) {
+			@Override
+			protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
+				submitJob(Operation.RESTART, selectedGroup.getModelObject(), (short) 0, target);
+			}
+		};
+		editForm.add(restartItems);
+		// Remove all items matching current filter (after confirmation)
+		final WebMarkupContainer removeFilteredConfirm = new WebMarkupContainer("removeFilteredConfirm");
+		removeFilteredConfirm.setOutputMarkupPlaceholderTag(true);
+		editForm.add(removeFilteredConfirm);
+		AjaxFallbackButton removeFiltered = new AjaxFallbackButton("removeFiltered", editForm) {
+			@Override
+			protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
+				// A blank filter matches every request
+				if (Strings.isEmpty(filter)) {
+					error(localize(L10N_REMOVE_FILTERED_EMPTY));
+					if (target != null) {
+						target.add(feedback);
 					}
+					return;
+				}
+				final List<String> identifiers = Lists.newArrayList();
+				Iterator<IModel<Integer>> queues = QueueModelsUtil.ofAllQueues(utilModel);
+				while (queues.hasNext()) {
+					RequestStatusProvider provider = new RequestStatusProvider(utilModel, queues.next().getObject(), filterModel);
+					identifiers.addAll(provider.getIdentifiers());
+					provider.detach();
 				}
-				// Make sure that model is up-to-date
-				utilModel.detach();
+				Map<String, Object> values = Maps.newHashMap();
+				values.put("count", identifiers.size());
+				values.put("filter", filter);
+				ConfirmPanel confirm = new ConfirmPanel(removeFilteredConfirm, localize(L10N_REMOVE_FILTERED_CONFIRM, Model.ofMap(values))) {
+					@Override
+					protected void onOk(AjaxRequestTarget target) {
+						submitJob(Operation.REMOVE, identifiers, (short) 0, target);
+					}
+				};
+				confirm.setOutputMarkupId(true);
+				// Replaces place-holder or a confirmation which is still shown
+				form.get(removeFilteredConfirm.getId()).replaceWith(confirm);
 				if (target != null) {
-					target.add(navLinksContainer, queuesContainer);
+					target.add(confirm);
 				}
 			}
 		};
-		editForm.add(removeItems);
+		editForm.add(removeFiltered);
 		// Change priority
 		List<Short> priorities = Arrays.asList((short) 0, (short) 1, (short) 2, (short) 3, (short) 4, (short) 5, (short) 6);
 		IChoiceRenderer<Short> priorityRenderer = new IChoiceRenderer<Short>() {
@@ -180,20 +340,7 @@ public class QueuePage extends WinterPage {
 		AjaxFallbackButton changePriority = new AjaxFallbackButton("changePriority", editForm) {
 			@Override
 			protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
-				Collection<String> modelObject = selectedGroup.getModelObject();
-				FCPServer fcp = utilModel.getObject().getFCPServer();
-				for (String id : modelObject) {
-					try {
-						fcp.modifyGlobalRequestBlocking(id, null, prioritySelect.getModelObject());
-						logger.debug("Successfully change priority of item with identifier: " + id);
-					} catch (DatabaseDisabledException e) {
-						// Cannot happen.
-					}
-				}
-				utilModel.detach();
-				if (target != null) {
-					target.add(navLinksContainer, queuesContainer);
-				}
+				submitJob(Operation.CHANGE_PRIORITY, selectedGroup.getModelObject(), prioritySelect.getModelObject(), target);
 			}
 		};
 		editForm.add(changePriority);
@@ -212,21 +359,255 @@ public class QueuePage extends WinterPage {
 				String itemTitle = QueueHelper.codeNameMap.get(targetClass);
 				// Outer container
 				WebMarkupContainer queueContainer = new WebMarkupContainer("queueContainer");
+				queueContainer.setOutputMarkupId(true);
 				item.add(queueContainer);
 				// Title and anchor
 				Label title = new Label("queueTitle", QueueModelsUtil.ofQueueLocalizedSize(utilModel, targetClass));
+				title.setOutputMarkupId(true);
 				Label queueAnchor = new Label("queueAnchor");
 				queueAnchor.setDefaultModel(Model.of("<a name=\"" + itemTitle + "\"></a>")).setEscapeModelStrings(false);
 				queueAnchor.setRenderBodyOnly(true);
 				queueContainer.add(title, queueAnchor);
 				// Queue itself
-				RequestStatusView queue = new RequestStatusView("queue", utilModel, item.getModelObject());
-				queue.setReuseItems(true);
+				RequestStatusProvider provider = new RequestStatusProvider(utilModel, targetClass, filterModel);
+				RequestStatusView queue = new RequestStatusView("queue", provider);
 				queueContainer.add(queue);
+				queueContainer.add(new PagingNavigator("navigator", queue));
+				// Sortable columns
+				queueContainer.add(new OrderByBorder<SortKey>("orderByPriority", SortKey.PRIORITY, provider));
+				queueContainer.add(new OrderByBorder<SortKey>("orderBySize", SortKey.SIZE, provider));
+				queueContainer.add(new OrderByBorder<SortKey>("orderByProgress", SortKey.PROGRESS, provider));
+				queueContainer.add(new OrderByBorder<SortKey>("orderByLastActivity", SortKey.LAST_ACTIVITY, provider));
+				queueContainer.add(new OrderByBorder<SortKey>("orderByName", SortKey.NAME, provider));
+				// Select all items of this queue (including other pages)
+				final RequestStatusProvider selectProvider = provider;
+				queueContainer.add(new AjaxFallbackButton("selectAll", editForm) {
+					@Override
+					protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
+						Collection<String> selected = selectedGroup.getModelObject();
+						Set<String> known = Sets.newHashSet(selected);
+						for (String id : selectProvider.getIdentifiers()) {
+							if (known.add(id)) {
+								selected.add(id);
+							}
+						}
+						if (target != null) {
+							target.add(queuesContainer);
+						}
+					}
+				});
 			}
 		};
+		// Keep items (and thereby current page and sort order of each queue)
+		queuesRepeater.setItemReuseStrategy(ReuseIfModelsEqualStrategy.getInstance());
 		selectedGroup.add(queuesRepeater);
-		add(navLinksContainer, queuesContainer);
+		add(liveContainer, navLinksContainer, queuesContainer);
+		queueComponents = new Component[] { navLinksContainer, queuesContainer };
+	}
+
+	@Override
+	protected void onBeforeRender() {
+		super.onBeforeRender();
+		// Rows are rendered from latest table
+		renderedTable = QueueModelsUtil.ofRequestTable();
+	}
+
+	/**
+	 * Repaints only rows which have changed since last render (see
+	 * {@link RequestTable#modifiedSince(long)}).
+	 * <p>
+	 * Changed rows of the current page are repopulated and repainted. Rows
+	 * leaving a queue (removed or moved to another queue, including queues
+	 * not shown by this page) are removed from browser. Queues receiving new
+	 * rows or containing a row whose sort key or filtered value has changed
+	 * are repainted as a whole, so their order and filter stay correct.
+	 * Otherwise only queue titles are repainted. If changes cannot be
+	 * determined, all queues are repainted.
+	 * </p>
+	 * 
+	 * @param target
+	 *            {@link AjaxRequestTarget} to add components to
+	 * @param navLinksContainer
+	 *            container of navigation links
+	 * @param queuesContainer
+	 *            container of all queues
+	 */
+	private void repaintChanges(AjaxRequestTarget target, Component navLinksContainer, MarkupContainer queuesContainer) {
+		RequestTable table = QueueModelsUtil.ofRequestTable();
+		RequestTable rendered = renderedTable;
+		if (rendered != null && rendered.generation == table.generation) {
+			return;
+		}
+		List<String> removed = (rendered == null) ? null : table.removedSince(rendered.generation);
+		if (removed == null) {
+			// Changes are not known
+			target.add(navLinksContainer, queuesContainer);
+			renderedTable = table;
+			return;
+		}
+		final Map<Integer, RequestStatusView> views = Maps.newHashMap();
+		queuesContainer.visitChildren(RequestStatusView.class, new IVisitor<RequestStatusView, Void>() {
+			@Override
+			public void component(RequestStatusView view, IVisit<Void> visit) {
+				views.put(view.getTargetClass(), view);
+				visit.dontGoDeeper();
+			}
+		});
+		// Queues whose size has changed
+		Set<Integer> resized = Sets.newHashSet();
+		// Queues which have received new rows or whose order has changed
+		Set<Integer> received = Sets.newHashSet();
+		for (String id : removed) {
+			int row = rendered.rowOf(id);
+			if (row > -1 && removeRow(views.get(rendered.queueClass[row]), id, target)) {
+				resized.add(rendered.queueClass[row]);
+			}
+		}
+		for (int i : table.modifiedSince(rendered.generation)) {
+			int queueClass = table.queueClass[i];
+			boolean shown = queueClass != 0 && QueueHelper.matches(targetClass, queueClass);
+			String id = table.identifier[i];
+			int oldRow = rendered.rowOf(id);
+			int oldClass = (oldRow > -1) ? rendered.queueClass[oldRow] : 0;
+			if (shown && oldClass == queueClass) {
+				// Changed in place
+				RequestStatusView view = views.get(queueClass);
+				if (view == null || received.contains(queueClass)) {
+					continue;
+				}
+				if (((RequestStatusProvider) view.getDataProvider()).isPositionChanged(rendered, oldRow, table, i)) {
+					// Row may move within queue or into or out of current page
+					received.add(queueClass);
+					continue;
+				}
+				Item<RequestStatus> item = view.findItem(id);
+				if (item != null && view.refreshItem(item)) {
+					target.add(item);
+				}
+			} else if (oldClass != queueClass) {
+				// New, moved between queues or left this page
+				if (oldClass != 0 && removeRow(views.get(oldClass), id, target)) {
+					resized.add(oldClass);
+				}
+				if (shown) {
+					resized.add(queueClass);
+					received.add(queueClass);
+				}
+			}
+		}
+		for (int queueClass : received) {
+			RequestStatusView view = views.get(queueClass);
+			if (view == null) {
+				// A queue has appeared
+				target.add(navLinksContainer, queuesContainer);
+				renderedTable = table;
+				return;
+			}
+			target.add(view.getParent());
+		}
+		for (int queueClass : resized) {
+			RequestStatusView view = views.get(queueClass);
+			if (view != null && !received.contains(queueClass)) {
+				target.add(view.getParent().get("queueTitle"));
+			}
+		}
+		if (!resized.isEmpty()) {
+			target.add(navLinksContainer);
+		}
+		renderedTable = table;
+	}
+
+	/**
+	 * Removes a row from browser (if it is part of current page)
+	 * 
+	 * @param view
+	 *            view rendering the row (can be {@code null})
+	 * @param identifier
+	 *            identifier of request
+	 * @param target
+	 *            {@link AjaxRequestTarget} to append JavaScript to
+	 * @return {@code true} if a queue was known to contain the row
+	 */
+	private boolean removeRow(RequestStatusView view, String identifier, AjaxRequestTarget target) {
+		if (view == null) {
+			return false;
+		}
+		Item<RequestStatus> item = view.findItem(identifier);
+		if (item != null) {
+			target.appendJavaScript("jQuery('#" + item.getMarkupId() + "').remove();");
+			item.remove();
+		}
+		return true;
+	}
+
+	/**
+	 * Submits a bulk operation to {@link QueueJobManager} and starts polling
+	 * its progress. Selection is cleared afterwards.
+	 * 
+	 * @param operation
+	 *            operation to execute
+	 * @param identifiers
+	 *            identifiers of requests
+	 * @param priority
+	 *            new priority (only used to change priority)
+	 * @param target
+	 *            {@link AjaxRequestTarget} (can be {@code null})
+	 */
+	private void submitJob(Operation operation, Collection<String> identifiers, short priority, AjaxRequestTarget target) {
+		QueueJob job = getJobManager().submit(operation, identifiers, priority);
+		identifiers.clear();
+		jobId = job.getId();
+		// Remove timers of former jobs
+		for (AjaxFallbackTimerBehavior timer : jobContainer.getBehaviors(AjaxFallbackTimerBehavior.class)) {
+			jobContainer.remove(timer);
+		}
+		jobContainer.add(new AjaxFallbackTimerBehavior(JOB_POLL_INTERVAL) {
+			@Override
+			protected void onTimer(AjaxRequestTarget target) {
+				QueueJob job = getJob();
+				if (job == null || job.isFinished()) {
+					stop();
+					jobFinished(job);
+					target.add(queueComponents);
+				}
+				target.add(jobContainer);
+			}
+		});
+		if (target != null) {
+			target.add(queueComponents);
+		}
+	}
+
+	/**
+	 * Reports failed items of a finished job and makes changes visible
+	 * 
+	 * @param job
+	 *            finished job (can be {@code null})
+	 */
+	private void jobFinished(QueueJob job) {
+		jobId = null;
+		if (job != null && job.getOperation() == Operation.REMOVE) {
+			for (String id : job.getFailed()) {
+				String message = localize(L10N_REMOVE_FAILED) + "(" + id + ")";
+				error(message);
+				logger.debug(message);
+			}
+		}
+		QueueModelsUtil.refreshQueueIndex();
+	}
+
+	/**
+	 * @return currently running {@link QueueJob} or {@code null}
+	 */
+	private QueueJob getJob() {
+		return (jobId == null) ? null : getJobManager().getJob(jobId);
+	}
+
+	/**
+	 * @return {@link QueueJobManager} of application
+	 */
+	private QueueJobManager getJobManager() {
+		return ((WinterfaceApplication) getApplication()).getQueueJobManager();
 	}
 
 	/**
@@ -238,29 +619,11 @@ public class QueuePage extends WinterPage {
 	 * 
 	 * @return generated target class
 	 * @see #QUEUE_PARAM
-	 * @see QueueHelper
+	 * @see QueueHelper#parseTargetClass(String)
 	 */
 	private int extractTargetClass() {
-		int targetClass = 0;
 		StringValue desiredQueue = getPageParameters().get(QUEUE_PARAM);
-		String stringParam = desiredQueue.toString();
-		if ("downloads".equalsIgnoreCase(stringParam)) {
-			targetClass = QueueHelper.DL_ALL;
-		} else if ("uploads".equalsIgnoreCase(stringParam)) {
-			targetClass = QueueHelper.UP_ALL;
-		} else if (stringParam != null) {
-			String[] allClasses = stringParam.split(",");
-			for (String cl : allClasses) {
-				Integer code = QueueHelper.codeNameMap.inverse().get(cl);
-				targetClass = (code == null) ? targetClass : (targetClass |= code);
-			}
-		}
-		// None of the above conditions are fulfilled: either parameter is
-		// invalid or not available at all
-		if (targetClass == 0) {
-			targetClass = QueueHelper.DL_ALL | QueueHelper.UP_ALL;
-		}
-		return targetClass;
+		return QueueHelper.parseTargetClass(desiredQueue.toString());
 	}
 
 }
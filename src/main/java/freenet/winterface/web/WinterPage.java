@@ -1,6 +1,5 @@
 package freenet.winterface.web;
 
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,7 +17,6 @@ import org.apache.wicket.util.cookies.CookieUtils;
 
 import freenet.node.Node;
 import freenet.winterface.core.Configuration;
-import freenet.winterface.core.IPUtils;
 import freenet.winterface.web.core.WinterfaceApplication;
 import freenet.winterface.web.markup.AlertsPanel;
 import freenet.winterface.web.markup.NavPanel;
@@ -137,17 +135,7 @@ public abstract class WinterPage extends WebPage implements NavContributor {
 	protected boolean isAllowedFullAccess() {
 		String remoteAddr = getHttpServletRequest().getRemoteAddr();
 		Configuration config = ((WinterfaceApplication) getApplication()).getConfiguration();
-		String[] fullAccessHosts = config.getFullAccessHosts().split(",");
-		for (String host : fullAccessHosts) {
-			try {
-				if (IPUtils.quietMatches(host, remoteAddr)) {
-					return true;
-				}
-			} catch (UnknownHostException e) {
-				// ignore
-			}
-		}
-		return false;
+		return config.getFullAccessMatcher().matches(remoteAddr);
 	}
 
 	/**
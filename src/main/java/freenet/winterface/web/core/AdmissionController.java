@@ -0,0 +1,398 @@
+package freenet.winterface.web.core;
+
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import freenet.winterface.core.Configuration;
+
+/**
+ * Limits fetches started by restricted hosts in public gateway mode.
+ * <p>
+ * Each new fetch needs a {@link Permit}. Permits are bounded per host and in
+ * total, both by number of fetches and by bytes in flight. As the size of a
+ * fetch is unknown in advance, its maximum output length is reserved. If no
+ * permit is available, the request is queued. Queued requests are served
+ * round-robin by host, so a single host cannot starve others. Requests which
+ * are not admitted within {@link Configuration#getAdmissionTimeout()} seconds
+ * are rejected.
+ * </p>
+ * <p>
+ * A queued request blocks its server thread. Therefore at most
+ * {@link #MAX_QUEUED_PER_HOST} requests per host and a quarter of
+ * {@link Configuration#getMaxThreads()} in total may wait; further requests
+ * are rejected at once, so server threads stay available for other hosts.
+ * </p>
+ * <p>
+ * A permit is released once its fetch is finished. Fetches which are
+ * cancelled silently lose their permit after {@link #MAX_LEASE}.
+ * </p>
+ *
+ * @author pausb
+ * @see FetchTrackerManager
+ */
+public class AdmissionController {
+
+	/** User configuration containing limits */
+	private final Configuration config;
+	/** Number of fetches in flight mapped by host */
+	private final Map<String, Integer> hostFetches;
+	/** Number of reserved bytes mapped by host */
+	private final Map<String, Long> hostBytes;
+	/** Queued tickets mapped by host */
+	private final Map<String, LinkedList<Ticket>> queues;
+	/** Hosts with queued tickets in order of their turn */
+	private final ArrayDeque<String> turns;
+	/** Granted permits */
+	private final Set<Permit> permits;
+
+	/** Number of fetches in flight */
+	private int fetches;
+	/** Number of reserved bytes */
+	private long bytes;
+	/** Number of queued tickets */
+	private int queued;
+	/** Number of admitted fetches */
+	private long admitted;
+	/** Number of rejected fetches */
+	private long rejected;
+	/** Number of expired permits */
+	private long expired;
+
+	/** Maximum lifetime of a permit (in milliseconds) */
+	public final static long MAX_LEASE = TimeUnit.MINUTES.toMillis(30);
+	/** Maximum number of queued tickets per host */
+	public final static int MAX_QUEUED_PER_HOST = 2;
+	/** Share of server threads which may wait for admission */
+	private final static int QUEUED_THREADS_DIVISOR = 4;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(AdmissionController.class);
+
+	/**
+	 * Constructs.
+	 *
+	 * @param config
+	 *            {@link Configuration} containing limits
+	 */
+	public AdmissionController(Configuration config) {
+		this.config = config;
+		this.hostFetches = Maps.newHashMap();
+		this.hostBytes = Maps.newHashMap();
+		this.queues = Maps.newHashMap();
+		this.turns = new ArrayDeque<String>();
+		this.permits = Sets.newHashSet();
+	}
+
+	/**
+	 * Acquires a permit for a new fetch. Blocks until the permit is granted or
+	 * the admission timeout has passed.
+	 *
+	 * @param host
+	 *            address of requesting host
+	 * @param size
+	 *            number of bytes to reserve (must not be negative)
+	 * @return granted {@link Permit}
+	 * @throws RejectedException
+	 *             if no permit could be granted in time
+	 */
+	public synchronized Permit acquire(String host, long size) throws RejectedException {
+		Preconditions.checkArgument(size >= 0, "Negative size");
+		expireLeases();
+		Ticket ticket = new Ticket(host, size);
+		if (queued == 0 && fits(host, size)) {
+			return grant(ticket);
+		}
+		LinkedList<Ticket> queue = queues.get(host);
+		if (queued >= getMaxQueued() || (queue != null && queue.size() >= MAX_QUEUED_PER_HOST)) {
+			throw reject(host, "queue is full");
+		}
+		if (queue == null) {
+			queue = new LinkedList<Ticket>();
+			queues.put(host, queue);
+			turns.add(host);
+		}
+		queue.add(ticket);
+		queued++;
+		// Others may be waiting for a different host only
+		dispatch();
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.getAdmissionTimeout());
+		try {
+			long remaining;
+			while (ticket.permit == null && (remaining = deadline - System.currentTimeMillis()) > 0) {
+				wait(remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (ticket.permit != null) {
+			return ticket.permit;
+		}
+		// Not admitted in time
+		queue.remove(ticket);
+		queued--;
+		if (queue.isEmpty()) {
+			queues.remove(host);
+			turns.remove(host);
+		}
+		throw reject(host, "timeout");
+	}
+
+	/**
+	 * Returns maximum number of queued tickets (waiting server threads)
+	 */
+	private int getMaxQueued() {
+		return Math.max(1, config.getMaxThreads() / QUEUED_THREADS_DIVISOR);
+	}
+
+	/**
+	 * Checks if a fetch fits into all limits
+	 */
+	private boolean fits(String host, long size) {
+		int maxFetches = config.getMaxFetches();
+		long maxBytes = config.getMaxBytesInFlight();
+		int maxHostFetches = config.getMaxFetchesPerHost();
+		long maxHostBytes = config.getMaxBytesInFlightPerHost();
+		Integer f = hostFetches.get(host);
+		Long b = hostBytes.get(host);
+		int currentHostFetches = (f == null) ? 0 : f;
+		long currentHostBytes = (b == null) ? 0 : b;
+		// Limits of 0 are disabled. A single fetch is always allowed to exceed
+		// byte limits, otherwise it would never be admitted. Sizes are
+		// compared against remaining bytes, so large sizes cannot overflow.
+		boolean global = (maxFetches == 0 || fetches < maxFetches) && (maxBytes == 0 || fetches == 0 || size <= maxBytes - bytes);
+		boolean perHost = (maxHostFetches == 0 || currentHostFetches < maxHostFetches)
+				&& (maxHostBytes == 0 || currentHostFetches == 0 || size <= maxHostBytes - currentHostBytes);
+		return global && perHost;
+	}
+
+	/**
+	 * Grants a permit to a ticket
+	 */
+	private Permit grant(Ticket ticket) {
+		Integer f = hostFetches.get(ticket.host);
+		Long b = hostBytes.get(ticket.host);
+		hostFetches.put(ticket.host, (f == null) ? 1 : f + 1);
+		hostBytes.put(ticket.host, (b == null) ? ticket.size : b + ticket.size);
+		fetches++;
+		bytes += ticket.size;
+		admitted++;
+		ticket.permit = new Permit(ticket.host, ticket.size);
+		permits.add(ticket.permit);
+		return ticket.permit;
+	}
+
+	/**
+	 * Creates a {@link RejectedException} and counts it
+	 */
+	private RejectedException reject(String host, String reason) {
+		rejected++;
+		logger.debug("Rejected fetch of " + host + " (" + reason + ")");
+		return new RejectedException(Math.max(1, config.getAdmissionTimeout()));
+	}
+
+	/**
+	 * Grants permits to queued tickets, taking one ticket per host in turn
+	 */
+	private void dispatch() {
+		boolean granted = true;
+		while (granted && !turns.isEmpty()) {
+			granted = false;
+			for (int i = turns.size(); i > 0; i--) {
+				String host = turns.poll();
+				LinkedList<Ticket> queue = queues.get(host);
+				Ticket head = queue.peek();
+				if (fits(host, head.size)) {
+					queue.poll();
+					queued--;
+					grant(head);
+					granted = true;
+				}
+				if (queue.isEmpty()) {
+					queues.remove(host);
+				} else {
+					turns.add(host);
+				}
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Releases a permit
+	 */
+	private synchronized void release(Permit permit) {
+		if (!permits.remove(permit)) {
+			// Already released
+			return;
+		}
+		int f = hostFetches.get(permit.host) - 1;
+		long b = hostBytes.get(permit.host) - permit.size;
+		if (f == 0) {
+			hostFetches.remove(permit.host);
+			hostBytes.remove(permit.host);
+		} else {
+			hostFetches.put(permit.host, f);
+			hostBytes.put(permit.host, b);
+		}
+		fetches--;
+		bytes -= permit.size;
+		dispatch();
+	}
+
+	/**
+	 * Releases permits older than {@link #MAX_LEASE}
+	 */
+	private void expireLeases() {
+		long oldest = System.currentTimeMillis() - MAX_LEASE;
+		for (Permit permit : Sets.newHashSet(permits)) {
+			if (permit.granted < oldest) {
+				expired++;
+				logger.debug("Permit of " + permit.host + " expired");
+				release(permit);
+			}
+		}
+	}
+
+	/**
+	 * @return number of fetches in flight
+	 */
+	public synchronized int getFetches() {
+		return fetches;
+	}
+
+	/**
+	 * @return number of reserved bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return number of hosts with fetches in flight
+	 */
+	public synchronized int getHosts() {
+		return hostFetches.size();
+	}
+
+	/**
+	 * @return number of queued requests
+	 */
+	public synchronized int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return number of admitted fetches
+	 */
+	public synchronized long getAdmitted() {
+		return admitted;
+	}
+
+	/**
+	 * @return number of rejected fetches
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return number of permits released after {@link #MAX_LEASE}
+	 */
+	public synchronized long getExpired() {
+		return expired;
+	}
+
+	/**
+	 * Permission to run a single fetch
+	 *
+	 * @author pausb
+	 */
+	public class Permit {
+
+		/** Host holding permit */
+		private final String host;
+		/** Number of reserved bytes */
+		private final long size;
+		/** Time of granting */
+		private final long granted;
+
+		/**
+		 * Constructs.
+		 */
+		Permit(String host, long size) {
+			this.host = host;
+			this.size = size;
+			this.granted = System.currentTimeMillis();
+		}
+
+		/**
+		 * Releases this permit (may be called more than once)
+		 */
+		public void release() {
+			AdmissionController.this.release(this);
+		}
+	}
+
+	/**
+	 * A request waiting for a {@link Permit}
+	 *
+	 * @author pausb
+	 */
+	private static class Ticket {
+
+		/** Requesting host */
+		final String host;
+		/** Number of bytes to reserve */
+		final long size;
+		/** Granted permit */
+		Permit permit;
+
+		/**
+		 * Constructs.
+		 */
+		Ticket(String host, long size) {
+			this.host = host;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Thrown if a fetch is not admitted in time
+	 *
+	 * @author pausb
+	 */
+	@SuppressWarnings("serial")
+	public static class RejectedException extends Exception {
+
+		/** Seconds after which the client may retry */
+		private final int retryAfter;
+
+		/**
+		 * Constructs.
+		 *
+		 * @param retryAfter
+		 *            seconds after which the client may retry
+		 */
+		public RejectedException(int retryAfter) {
+			super("Too many fetches in progress");
+			this.retryAfter = retryAfter;
+		}
+
+		/**
+		 * @return seconds after which the client may retry
+		 */
+		public int getRetryAfter() {
+			return retryAfter;
+		}
+	}
+
+}
@@ -2,6 +2,7 @@ package freenet.winterface.web.core;
 
 import org.apache.wicket.Component;
 import org.apache.wicket.ajax.AbstractAjaxTimerBehavior;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
 import org.apache.wicket.markup.head.IHeaderResponse;
 import org.apache.wicket.markup.head.StringHeaderItem;
 import org.apache.wicket.util.time.Duration;
@@ -9,20 +10,49 @@ import org.apache.wicket.util.time.Duration;
 public abstract class AjaxFallbackTimerBehavior extends AbstractAjaxTimerBehavior {
 
 	private final String refreshPath;
+	/** Topic of {@link PushEventHub} to subscribe to (may be {@code null}) */
+	private final String topic;
 	private static final long serialVersionUID = 1L;
 
 	public AjaxFallbackTimerBehavior(Duration updateInterval) {
 		this(updateInterval,null);
 	}
-	
+
 	public AjaxFallbackTimerBehavior(Duration updateIntervale, String refreshPath) {
-		super(updateIntervale);
+		this(updateIntervale, refreshPath, null);
+	}
+
+	/**
+	 * Constructs a timer which is triggered by push events of given topic as
+	 * long as they are available (see {@link PushEvents})
+	 *
+	 * @param updateInterval
+	 *            interval of fallback timer
+	 * @param refreshPath
+	 *            path of meta-refresh if JavaScript is disabled
+	 * @param topic
+	 *            topic of {@link PushEventHub}
+	 */
+	public AjaxFallbackTimerBehavior(Duration updateInterval, String refreshPath, String topic) {
+		super(updateInterval);
 		this.refreshPath = refreshPath;
+		this.topic = topic;
 	}
-	
+
+	@Override
+	protected void updateAjaxAttributes(AjaxRequestAttributes attributes) {
+		super.updateAjaxAttributes(attributes);
+		if (topic != null) {
+			PushEvents.addPrecondition(attributes, getComponent(), topic, getUpdateInterval());
+		}
+	}
+
 	@Override
 	public void renderHead(Component component, IHeaderResponse response) {
 		super.renderHead(component, response);
+		if (topic != null) {
+			PushEvents.renderHead(component, response, topic, getCallbackScript());
+		}
 		String content = String.valueOf(getUpdateInterval().seconds());
 		if(refreshPath!=null) {
 			content+=(";URL='"+refreshPath);
@@ -0,0 +1,50 @@
+package freenet.winterface.web.core;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AjaxSelfUpdatingTimerBehavior;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * An {@link AjaxSelfUpdatingTimerBehavior} which only refreshes its
+ * {@link Component} if {@link PushEventHub} reports a change of given topic.
+ * <p>
+ * The timer is only used as fallback if push events are not available.
+ * </p>
+ *
+ * @author pausb
+ * @see PushEvents
+ */
+@SuppressWarnings("serial")
+public class AjaxPushSelfUpdatingTimerBehavior extends AjaxSelfUpdatingTimerBehavior {
+
+	/** Topic of {@link PushEventHub} to subscribe to */
+	private final String topic;
+
+	/**
+	 * Constructs
+	 *
+	 * @param updateInterval
+	 *            interval of fallback timer
+	 * @param topic
+	 *            topic of {@link PushEventHub}
+	 */
+	public AjaxPushSelfUpdatingTimerBehavior(Duration updateInterval, String topic) {
+		super(updateInterval);
+		this.topic = topic;
+	}
+
+	@Override
+	protected void updateAjaxAttributes(AjaxRequestAttributes attributes) {
+		super.updateAjaxAttributes(attributes);
+		PushEvents.addPrecondition(attributes, getComponent(), topic, getUpdateInterval());
+	}
+
+	@Override
+	public void renderHead(Component component, IHeaderResponse response) {
+		super.renderHead(component, response);
+		PushEvents.renderHead(component, response, topic, getCallbackScript());
+	}
+
+}
@@ -0,0 +1,102 @@
+package freenet.winterface.web.core;
+
+import java.net.MalformedURLException;
+
+import org.apache.log4j.Logger;
+import org.apache.wicket.request.http.WebResponse;
+import org.apache.wicket.util.time.Time;
+
+import freenet.client.async.USKManager;
+import freenet.keys.FreenetURI;
+import freenet.keys.USK;
+import freenet.winterface.core.Configuration;
+
+/**
+ * Decides how long browsers may cache content fetched from Freenet.
+ * <p>
+ * Content of CHKs and SSKs never changes and is cached for
+ * {@link Configuration#getImmutableMaxAge()} seconds. A USK edition is only
+ * cached for {@link Configuration#getUskMaxAge()} seconds and only if it is
+ * the latest known edition, so updated freesites are picked up quickly. KSKs
+ * can be inserted by anyone and are never cached.
+ * </p>
+ *
+ * @author pausb
+ * @see FreenetURIHandler
+ */
+public class CachePolicy {
+
+	/** Configuration containing cache lifetimes */
+	private final Configuration config;
+	/** Used to lookup latest known USK editions */
+	private final USKManager uskManager;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(CachePolicy.class);
+
+	/**
+	 * Constructs.
+	 *
+	 * @param config
+	 *            {@link Configuration} containing cache lifetimes
+	 * @param uskManager
+	 *            {@link USKManager} of node
+	 */
+	public CachePolicy(Configuration config, USKManager uskManager) {
+		this.config = config;
+		this.uskManager = uskManager;
+	}
+
+	/**
+	 * Returns browser cache lifetime of content of given key
+	 *
+	 * @param uri
+	 *            fetched {@link FreenetURI}
+	 * @return lifetime in seconds ({@code 0} if content may not be cached)
+	 */
+	public int getMaxAge(FreenetURI uri) {
+		if (uri == null) {
+			return 0;
+		}
+		String type = uri.getKeyType();
+		if ("CHK".equals(type) || "SSK".equals(type)) {
+			return config.getImmutableMaxAge();
+		}
+		if (uri.isUSK()) {
+			long edition = uri.getSuggestedEdition();
+			try {
+				// Negative editions always point to the latest one
+				if (edition >= 0 && edition >= uskManager.lookupKnownGood(USK.create(uri))) {
+					return config.getUskMaxAge();
+				}
+			} catch (MalformedURLException e) {
+				logger.debug("Cannot check edition of " + uri, e);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Sets caching headers of a response
+	 *
+	 * @param uri
+	 *            fetched {@link FreenetURI}
+	 * @param privateContent
+	 *            {@code true} if content may only be cached by the browser
+	 *            (e.g. forced downloads) but not by shared proxies
+	 * @param response
+	 *            {@link WebResponse} to set headers of
+	 */
+	public void apply(FreenetURI uri, boolean privateContent, WebResponse response) {
+		int maxAge = getMaxAge(uri);
+		if (maxAge > 0) {
+			String scope = privateContent ? "private" : "public";
+			String immutable = uri.isUSK() ? "" : ", immutable";
+			response.setHeader("Cache-Control", scope + ", max-age=" + maxAge + immutable);
+			response.setDateHeader("Expires", Time.millis(System.currentTimeMillis() + maxAge * 1000L));
+		} else {
+			response.setHeader("Cache-Control", (privateContent ? "private, " : "") + "no-cache");
+		}
+	}
+
+}
@@ -1,7 +1,6 @@
 package freenet.winterface.web.core;
 
 import org.apache.log4j.Logger;
-//import org.apache.wicket.atmosphere.EventBus;
 
 import freenet.clients.http.FProxyFetchInProgress;
 import freenet.clients.http.FProxyFetchListener;
@@ -11,77 +10,126 @@ import freenet.keys.FreenetURI;
 
 /**
  * Listens for progress updates in process of fetching a {@link FreenetURI} and
- * posts the updates to {@link EventBus}
+ * publishes them to {@link PushEventHub}
  * <p>
- * <strong>THIS FUNCTION IS NOT USED AT THE TIME. IT MAY BE UTILIZIED ONCE AGAIN
- * IF PUSHING PATTERN IS IMPLEMENTED</strong>
+ * Progress events are coalesced, so at most {@link #MAX_EVENTS_PER_SECOND}
+ * updates per second are published. The event of a finished fetch is
+ * published immediately, so waiting pages are reloaded without delay.
  * </p>
- * 
+ *
  * @author pausb
- * @see FetchTrackerManager
+ * @see PushEventHub#watchFetch(String, FProxyFetchInProgress)
  */
-public class FetchListener implements FProxyFetchListener {
+public class FetchListener implements FProxyFetchListener, PushEventHub.Source {
 
-	/** {@link FreenetURI} being monitored */
-	public final FreenetURI uri;
+	/** Hub to publish updates to */
+	private final PushEventHub hub;
+	/** Topic of updates */
+	private final String topic;
 	/** Progress to monitor */
-	final FProxyFetchInProgress progress;
-	/** Manager responsible for the fetching */
-	final FetchTrackerManager manager;
-	/**
-	 * Latest {@link FProxyFetchResult} which is updated on each
-	 * {@link #onEvent()} call
-	 */
-	private FProxyFetchResult latestResult;
+	private final FProxyFetchInProgress progress;
+	/** Latest published value */
+	private volatile String value;
+	/** Time of latest publishing */
+	private long lastPublished;
+	/** {@code true} if publishing is already scheduled */
+	private boolean scheduled;
+
+	/** Maximum number of published progress updates per second */
+	public final static int MAX_EVENTS_PER_SECOND = 4;
+	/** Minimum interval (in milliseconds) between two published updates */
+	private final static long MIN_INTERVAL = 1000 / MAX_EVENTS_PER_SECOND;
 
 	/** Log4j logger */
 	private final static Logger logger = Logger.getLogger(FetchListener.class);
 
 	/**
 	 * Constructs
-	 * 
-	 * @param manager
-	 *            responsible for the fetch process
+	 *
+	 * @param hub
+	 *            to publish updates to
+	 * @param topic
+	 *            topic of updates
 	 * @param progress
 	 *            to listen to its events
 	 */
-	public FetchListener(FetchTrackerManager manager, FProxyFetchInProgress progress) {
-		this.uri = progress.uri;
+	public FetchListener(PushEventHub hub, String topic, FProxyFetchInProgress progress) {
+		this.hub = hub;
+		this.topic = topic;
 		this.progress = progress;
-		this.manager = manager;
+		this.value = computeValue();
 		this.progress.addListener(this);
-		updateLatestResult();
 		logger.debug("Fetch listener registered for URI: " + progress.uri);
 	}
 
 	/**
-	 * Updates {@link #latestResult}
+	 * Computes value of current progress
+	 *
+	 * @return fetched blocks, total blocks and finished flag
 	 */
-	private void updateLatestResult() {
+	private String computeValue() {
 		FProxyFetchWaiter waiter = progress.getWaiter();
-		if (latestResult != null) {
-			latestResult.close();
+		try {
+			FProxyFetchResult result = waiter.getResultFast();
+			try {
+				return result.fetchedBlocks + "/" + result.totalBlocks + "/" + result.isFinished();
+			} finally {
+				result.close();
+			}
+		} finally {
+			waiter.close();
 		}
-		latestResult = waiter.getResultFast();
-		waiter.close();
 	}
 
 	/**
-	 * Returns latest {@link FProxyFetchResult} of current fetching progress
-	 * 
-	 * @return latest result
+	 * Publishes current progress
 	 */
-	public FProxyFetchResult getLatest() {
-		return latestResult;
+	private void publish() {
+		synchronized (this) {
+			scheduled = false;
+			lastPublished = System.currentTimeMillis();
+		}
+		value = computeValue();
+		hub.publish(topic, value);
 	}
 
 	@Override
 	public void onEvent() {
 		logger.trace("Received fetch event for URI: " + progress.uri);
-		if (progress.finished()) {
-			logger.debug("Fetching completed: " + progress.uri);
+		long delay;
+		synchronized (this) {
+			boolean finished = progress.finished();
+			if (scheduled && !finished) {
+				// Coalesced with pending update
+				return;
+			}
+			scheduled = true;
+			if (finished) {
+				logger.debug("Fetching completed: " + progress.uri);
+				delay = 0;
+			} else {
+				delay = Math.max(0, lastPublished + MIN_INTERVAL - System.currentTimeMillis());
+			}
 		}
-		updateLatestResult();
+		hub.schedule(new Runnable() {
+			@Override
+			public void run() {
+				publish();
+			}
+		}, delay);
+	}
+
+	@Override
+	public String poll() {
+		return value;
+	}
+
+	/**
+	 * Stops listening
+	 */
+	public void close() {
+		progress.removeListener(this);
+		logger.debug("Fetch listener removed for URI: " + progress.uri);
 	}
 
 }
@@ -0,0 +1,296 @@
+package freenet.winterface.web.core;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.wicket.request.cycle.RequestCycle;
+
+import com.google.common.collect.Maps;
+
+import freenet.client.FetchException;
+import freenet.client.filter.UnsafeContentTypeException;
+import freenet.clients.http.FProxyFetchResult;
+import freenet.keys.FreenetURI;
+
+/**
+ * Collects metrics of the fetch pipeline.
+ * <p>
+ * Latencies are measured from arrival of a request and recorded in
+ * histograms for three stages:
+ * <ul>
+ * <li>{@value #STAGE_START}: fetch has been started (including admission)</li>
+ * <li>{@value #STAGE_COMPLETE}: fetch has finished, broken down by outcome
+ * (measured for the request which started the fetch)</li>
+ * <li>{@value #STAGE_LAST_BYTE}: response has been written. Besides
+ * {@value #OUTCOME_DATA} this stage records {@value #OUTCOME_NOT_MODIFIED},
+ * {@value #OUTCOME_RANGE_NOT_SATISFIABLE} and {@value #OUTCOME_ABORTED} (if
+ * writing data failed)</li>
+ * </ul>
+ * All histograms are broken down by key type. Additionally served bytes, USK
+ * edition restarts and fetches joined by further requests are counted.
+ * {@link MetricsResource} exports all values in Prometheus text format.
+ * </p>
+ *
+ * @author pausb
+ * @see MetricsResource
+ */
+public class FetchMetrics {
+
+	/** Histograms mapped by stage, key type and outcome */
+	private final ConcurrentMap<String, Histogram> histograms;
+	/** Served bytes mapped by key type */
+	private final ConcurrentMap<String, AtomicLong> bytesServed;
+	/** Number of restarts due to newer USK editions */
+	private final AtomicLong uskRestarts;
+	/** Number of requests joining an existing fetch */
+	private final AtomicLong joined;
+
+	/** Stage: fetch has been started */
+	public final static String STAGE_START = "start";
+	/** Stage: fetch has finished */
+	public final static String STAGE_COMPLETE = "complete";
+	/** Stage: last byte has been written */
+	public final static String STAGE_LAST_BYTE = "last_byte";
+
+	/** Outcome: fetch returned data */
+	public final static String OUTCOME_DATA = "data";
+	/** Outcome: data was rejected by content filter */
+	public final static String OUTCOME_FILTER_ERROR = "filter_error";
+	/** Prefix of outcomes of other {@link FetchException}s (followed by mode) */
+	public final static String OUTCOME_ERROR_PREFIX = "error_";
+	/** Outcome: conditional request was answered without data */
+	public final static String OUTCOME_NOT_MODIFIED = "not_modified";
+	/** Outcome: none of the requested ranges could be served */
+	public final static String OUTCOME_RANGE_NOT_SATISFIABLE = "range_not_satisfiable";
+	/** Outcome: writing data has failed (e.g. client has disconnected) */
+	public final static String OUTCOME_ABORTED = "aborted";
+
+	/** Upper bounds (in milliseconds) of histogram buckets */
+	private final static long[] BUCKETS = { 10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 300000 };
+
+	/**
+	 * Constructs.
+	 */
+	public FetchMetrics() {
+		this.histograms = Maps.newConcurrentMap();
+		this.bytesServed = Maps.newConcurrentMap();
+		this.uskRestarts = new AtomicLong();
+		this.joined = new AtomicLong();
+	}
+
+	/**
+	 * Returns arrival time of current request
+	 *
+	 * @return start time of current {@link RequestCycle} or current time if
+	 *         there is none
+	 */
+	public static long requestStart() {
+		RequestCycle cycle = RequestCycle.get();
+		return (cycle == null) ? System.currentTimeMillis() : cycle.getStartTime();
+	}
+
+	/**
+	 * Returns key type label of given {@link FreenetURI}
+	 *
+	 * @param uri
+	 *            fetched key (may be {@code null})
+	 * @return {@code CHK}, {@code SSK}, {@code USK}, {@code KSK} or
+	 *         {@code other}
+	 */
+	public static String keyType(FreenetURI uri) {
+		String type = (uri == null) ? null : uri.getKeyType();
+		if ("CHK".equals(type) || "SSK".equals(type) || "USK".equals(type) || "KSK".equals(type)) {
+			return type;
+		}
+		return "other";
+	}
+
+	/**
+	 * Returns outcome label of a finished fetch
+	 *
+	 * @param result
+	 *            finished result
+	 * @return outcome label
+	 */
+	public static String outcome(FProxyFetchResult result) {
+		FetchException fe = result.failed;
+		if (fe == null) {
+			return OUTCOME_DATA;
+		}
+		if (fe.getCause() instanceof UnsafeContentTypeException) {
+			return OUTCOME_FILTER_ERROR;
+		}
+		return OUTCOME_ERROR_PREFIX + fe.mode;
+	}
+
+	/**
+	 * Records latency of a stage
+	 *
+	 * @param stage
+	 *            one of {@link #STAGE_START}, {@link #STAGE_COMPLETE} or
+	 *            {@link #STAGE_LAST_BYTE}
+	 * @param uri
+	 *            fetched key
+	 * @param outcome
+	 *            outcome label (may be {@code null} if not known yet)
+	 * @param requestStart
+	 *            arrival time of request (see {@link #requestStart()})
+	 */
+	public void record(String stage, FreenetURI uri, String outcome, long requestStart) {
+		String labels = "stage=\"" + stage + "\",key_type=\"" + keyType(uri) + "\"";
+		if (outcome != null) {
+			labels += ",outcome=\"" + outcome + "\"";
+		}
+		Histogram histogram = histograms.get(labels);
+		if (histogram == null) {
+			Histogram created = new Histogram();
+			histogram = histograms.putIfAbsent(labels, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		histogram.observe(System.currentTimeMillis() - requestStart);
+	}
+
+	/**
+	 * Counts served bytes
+	 *
+	 * @param uri
+	 *            served key
+	 * @param bytes
+	 *            number of written bytes
+	 */
+	public void addBytesServed(FreenetURI uri, long bytes) {
+		String type = keyType(uri);
+		AtomicLong counter = bytesServed.get(type);
+		if (counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = bytesServed.putIfAbsent(type, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.addAndGet(bytes);
+	}
+
+	/**
+	 * Counts a restart due to a newer USK edition
+	 */
+	public void countUskRestart() {
+		uskRestarts.incrementAndGet();
+	}
+
+	/**
+	 * Counts a request joining an existing fetch
+	 */
+	public void countJoined() {
+		joined.incrementAndGet();
+	}
+
+	/**
+	 * Writes all metrics in Prometheus text format
+	 *
+	 * @param out
+	 *            {@link StringBuilder} to append to
+	 */
+	public void writeTo(StringBuilder out) {
+		out.append("# HELP winterface_fetch_latency_seconds Time from request arrival to end of stage\n");
+		out.append("# TYPE winterface_fetch_latency_seconds histogram\n");
+		SortedMap<String, Histogram> sorted = Maps.newTreeMap();
+		sorted.putAll(histograms);
+		for (Map.Entry<String, Histogram> entry : sorted.entrySet()) {
+			entry.getValue().writeTo(out, "winterface_fetch_latency_seconds", entry.getKey());
+		}
+		out.append("# HELP winterface_bytes_served_total Bytes of fetched content written to clients\n");
+		out.append("# TYPE winterface_bytes_served_total counter\n");
+		SortedMap<String, AtomicLong> bytes = Maps.newTreeMap();
+		bytes.putAll(bytesServed);
+		for (Map.Entry<String, AtomicLong> entry : bytes.entrySet()) {
+			out.append("winterface_bytes_served_total{key_type=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().get()).append('\n');
+		}
+		writeCounter(out, "winterface_usk_restarts_total", "Restarts due to newer USK editions", uskRestarts.get());
+		writeCounter(out, "winterface_fetches_joined_total", "Requests joining an existing fetch", joined.get());
+	}
+
+	/**
+	 * Writes a single counter in Prometheus text format
+	 *
+	 * @param out
+	 *            {@link StringBuilder} to append to
+	 * @param name
+	 *            metric name
+	 * @param help
+	 *            description
+	 * @param value
+	 *            current value
+	 */
+	static void writeCounter(StringBuilder out, String name, String help, long value) {
+		writeMetric(out, name, help, "counter", value);
+	}
+
+	/**
+	 * Writes a single metric in Prometheus text format
+	 *
+	 * @param out
+	 *            {@link StringBuilder} to append to
+	 * @param name
+	 *            metric name
+	 * @param help
+	 *            description
+	 * @param type
+	 *            {@code counter} or {@code gauge}
+	 * @param value
+	 *            current value
+	 */
+	static void writeMetric(StringBuilder out, String name, String help, String type, Object value) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Latency histogram with fixed buckets
+	 *
+	 * @author pausb
+	 */
+	private static class Histogram {
+
+		/** Number of observations per bucket (last one is +Inf) */
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length + 1);
+		/** Sum of all observations (in milliseconds) */
+		private final AtomicLong sum = new AtomicLong();
+
+		/**
+		 * Adds an observation
+		 *
+		 * @param millis
+		 *            observed latency
+		 */
+		void observe(long millis) {
+			int i = 0;
+			while (i < BUCKETS.length && millis > BUCKETS[i]) {
+				i++;
+			}
+			counts.incrementAndGet(i);
+			sum.addAndGet(millis);
+		}
+
+		/**
+		 * Writes cumulative buckets, sum and count
+		 */
+		void writeTo(StringBuilder out, String name, String labels) {
+			long cumulative = 0;
+			for (int i = 0; i <= BUCKETS.length; i++) {
+				cumulative += counts.get(i);
+				String le = (i < BUCKETS.length) ? String.valueOf(BUCKETS[i] / 1000.0) : "+Inf";
+				out.append(name).append("_bucket{").append(labels).append(",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+			}
+			out.append(name).append("_sum{").append(labels).append("} ").append(sum.get() / 1000.0).append('\n');
+			out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+		}
+	}
+
+}
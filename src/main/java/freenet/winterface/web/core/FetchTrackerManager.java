@@ -1,10 +1,16 @@
 package freenet.winterface.web.core;
 
 import java.net.MalformedURLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.apache.log4j.Logger;
 
 import com.db4o.ObjectContainer;
+import com.google.common.base.Objects;
 
 import freenet.client.FetchContext;
 import freenet.client.FetchException;
@@ -12,13 +18,20 @@ import freenet.client.HighLevelSimpleClient;
 import freenet.client.HighLevelSimpleClientImpl;
 import freenet.clients.http.FProxyFetchInProgress;
 import freenet.clients.http.FProxyFetchInProgress.REFILTER_POLICY;
+import freenet.clients.http.FProxyFetchListener;
+import freenet.clients.http.FProxyFetchResult;
 import freenet.clients.http.FProxyFetchTracker;
 import freenet.clients.http.FProxyFetchWaiter;
 import freenet.keys.FreenetURI;
 import freenet.node.NodeClientCore;
 import freenet.node.RequestClient;
 import freenet.node.RequestStarter;
+import freenet.support.api.Bucket;
+import freenet.winterface.core.Configuration;
 import freenet.winterface.core.FreenetWrapper;
+import freenet.winterface.core.RequestsUtil;
+import freenet.winterface.web.core.AdmissionController.Permit;
+import freenet.winterface.web.core.AdmissionController.RejectedException;
 
 /**
  * Manages all {@link FreenetURI} fetches.
@@ -32,7 +45,22 @@ public class FetchTrackerManager implements RequestClient {
 	private HighLevelSimpleClientImpl client;
 	/** Actual FProxy fetch tracker */
 	private FProxyFetchTracker tracker;
+	/** Prefetches subresources of fetched pages */
+	private Prefetcher prefetcher;
+	/** Limits fetches of restricted hosts */
+	private AdmissionController admission;
+	/** User configuration */
+	private final Configuration config;
+	/** Metrics of all fetches */
+	private final FetchMetrics metrics = new FetchMetrics();
+	/** Templates of {@link FetchContext}s (never handed out) */
+	private final ConcurrentMap<ContextKey, FetchContext> contexts = new ConcurrentHashMap<ContextKey, FetchContext>();
 	
+	/**
+	 * Maximum number of cached templates (maximum retries requested by hosts
+	 * with full access are arbitrary)
+	 */
+	private final static int MAX_CONTEXTS = 64;
 	/** Default filtering policy*/
 	private final static REFILTER_POLICY DEFAULT_FILTER_POLICY = FProxyFetchInProgress.REFILTER_POLICY.RE_FILTER;
 	/** Log4j logger */
@@ -50,12 +78,190 @@ public class FetchTrackerManager implements RequestClient {
 		NodeClientCore core = wrapper.getNode().clientCore;
 		this.client = new HighLevelSimpleClientImpl(core, core.tempBucketFactory, core.random, RequestStarter.INTERACTIVE_PRIORITY_CLASS, true, true);
 		this.tracker = new FProxyFetchTracker(core.clientContext, client.getFetchContext(), this);
+		this.config = application.getConfiguration();
+		this.prefetcher = new Prefetcher(core, config, tracker);
+		this.admission = new AdmissionController(config);
+	}
+
+	/**
+	 * Returns a {@link FetchContext} for a request
+	 * <p>
+	 * Templates are cached by maximum length, maximum retries and access
+	 * restriction, so repeated calls (e.g. on every progress update) do not
+	 * derive contexts from client defaults again. Maximum lengths requested by
+	 * restricted hosts are rounded up to a power of two (see
+	 * {@link #bucketSize(long, long)}), so they cannot fill the cache. Each
+	 * call returns a copy of the template, which the caller may modify.
+	 * </p>
+	 * 
+	 * @param config
+	 *            user {@link Configuration}
+	 * @param request
+	 *            {@link HttpServletRequest} asking for a {@link FreenetURI}
+	 * @param maxRetries
+	 *            requested maximum number of retries (less than -1 means
+	 *            default)
+	 * @param fullAccess
+	 *            {@code true} if requesting host has full access
+	 * @return private copy of cached {@link FetchContext}
+	 */
+	public FetchContext getFetchContext(Configuration config, HttpServletRequest request, int maxRetries, boolean fullAccess) {
+		// Max size in HTTP header
+		long maxLength = config.getMaxLength();
+		// max-retries
+		// Less than -1 = use default.
+		// 0 = one try only, don't retry
+		// 1 = two tries
+		// 2 = three tries
+		// 3 or more = GO INTO COOLDOWN EVERY 3 TRIES! TAKES *MUCH* LONGER!!!
+		// STRONGLY NOT RECOMMENDED!!!
+		boolean restricted = (config.isPublicGateway() && !fullAccess);
+		if (restricted) {
+			// Size is reserved by AdmissionController, so it must not exceed
+			// configured maximum
+			long requested = RequestsUtil.parseMaxSize(request.getHeader(RequestsUtil.HEADER_MAX_SIZE), maxLength);
+			maxLength = bucketSize(requested, maxLength);
+			maxRetries = -2;
+		}
+		if (maxRetries < -1) {
+			// All defaults share the same context
+			maxRetries = -2;
+		}
+		ContextKey key = new ContextKey(maxLength, maxRetries, restricted);
+		FetchContext template = contexts.get(key);
+		if (template == null) {
+			template = createFetchContext(maxLength, maxRetries);
+			if (contexts.size() < MAX_CONTEXTS) {
+				FetchContext existing = contexts.putIfAbsent(key, template);
+				if (existing != null) {
+					template = existing;
+				}
+			}
+		}
+		return new FetchContext(template, FetchContext.IDENTICAL_MASK, true, null);
+	}
+
+	/**
+	 * Rounds a size up to the next power of two
+	 * 
+	 * @param size
+	 *            requested size (at least 1)
+	 * @param max
+	 *            configured maximum size
+	 * @return rounded size, but not more than maximum size
+	 */
+	private static long bucketSize(long size, long max) {
+		long bucket = Long.highestOneBit(size);
+		if (bucket < size) {
+			// Avoid overflow of largest power of two
+			bucket = (bucket < Long.highestOneBit(Long.MAX_VALUE)) ? bucket << 1 : max;
+		}
+		return Math.min(bucket, max);
+	}
+
+	/**
+	 * Creates a new {@link FetchContext}
+	 * 
+	 * @param maxLength
+	 *            maximum size of data
+	 * @param maxRetries
+	 *            maximum number of retries (less than -1 means default)
+	 * @return created {@link FetchContext}
+	 */
+	private FetchContext createFetchContext(long maxLength, int maxRetries) {
+		FetchContext result = new FetchContext(client.getFetchContext(maxLength), FetchContext.IDENTICAL_MASK, true, null);
+		result.maxOutputLength = maxLength;
+		if (maxRetries >= -1) {
+			result.maxNonSplitfileRetries = maxRetries;
+			result.maxSplitfileBlockRetries = maxRetries;
+		}
+		return result;
 	}
 
 	public FProxyFetchWaiter getWaiterFor(String path,FetchContext fctx) throws MalformedURLException, FetchException {
 		FreenetURI uri = new FreenetURI(path);
 		return tracker.makeFetcher(uri, fctx.maxOutputLength, fctx,DEFAULT_FILTER_POLICY);
 	}
+
+	/**
+	 * Acts as {@link #getWaiterFor(String, FetchContext)}, but new fetches of
+	 * restricted hosts (public gateway mode) have to pass
+	 * {@link AdmissionController} first. Joining an existing fetch needs no
+	 * admission.
+	 * 
+	 * @param path
+	 *            path to fetch (a {@link FreenetURI} in {@link String} format)
+	 * @param fctx
+	 *            {@link FetchContext} of fetch
+	 * @param host
+	 *            address of requesting host
+	 * @param fullAccess
+	 *            {@code true} if requesting host has full access
+	 * @return waiter of fetch
+	 * @throws MalformedURLException
+	 *             if path is not a valid {@link FreenetURI}
+	 * @throws FetchException
+	 *             if fetch cannot be started
+	 * @throws RejectedException
+	 *             if fetch is not admitted in time
+	 */
+	public FProxyFetchWaiter getWaiterFor(String path, FetchContext fctx, String host, boolean fullAccess) throws MalformedURLException, FetchException,
+			RejectedException {
+		FreenetURI uri = new FreenetURI(path);
+		long requestStart = FetchMetrics.requestStart();
+		if (tracker.getFetchInProgress(uri, fctx.maxOutputLength, fctx) != null) {
+			metrics.countJoined();
+			return tracker.makeFetcher(uri, fctx.maxOutputLength, fctx, DEFAULT_FILTER_POLICY);
+		}
+		Permit permit = null;
+		if (config.isPublicGateway() && !fullAccess) {
+			permit = admission.acquire(host, fctx.maxOutputLength);
+		}
+		FProxyFetchWaiter waiter;
+		try {
+			waiter = tracker.makeFetcher(uri, fctx.maxOutputLength, fctx, DEFAULT_FILTER_POLICY);
+		} catch (FetchException e) {
+			if (permit != null) {
+				permit.release();
+			}
+			throw e;
+		}
+		metrics.record(FetchMetrics.STAGE_START, uri, null, requestStart);
+		watchCompletion(waiter.getProgress(), permit, requestStart);
+		return waiter;
+	}
+
+	/**
+	 * Records completion of a new fetch and releases its {@link Permit}
+	 * 
+	 * @param progress
+	 *            progress of fetch
+	 * @param permit
+	 *            permit of fetch (may be {@code null})
+	 * @param requestStart
+	 *            arrival time of request which has started the fetch
+	 */
+	private void watchCompletion(final FProxyFetchInProgress progress, final Permit permit, final long requestStart) {
+		final AtomicBoolean done = new AtomicBoolean();
+		FProxyFetchListener listener = new FProxyFetchListener() {
+			@Override
+			public void onEvent() {
+				if (progress.finished() && done.compareAndSet(false, true)) {
+					if (permit != null) {
+						permit.release();
+					}
+					FProxyFetchWaiter waiter = progress.getWaiter();
+					FProxyFetchResult result = waiter.getResultFast();
+					metrics.record(FetchMetrics.STAGE_COMPLETE, progress.uri, FetchMetrics.outcome(result), requestStart);
+					result.close();
+					waiter.close();
+				}
+			}
+		};
+		progress.addListener(listener);
+		// Fetch may have finished before listener was added
+		listener.onEvent();
+	}
 	
 	public FProxyFetchInProgress getProgressFor(String path, FetchContext fctx) {
 		try {
@@ -67,6 +273,64 @@ public class FetchTrackerManager implements RequestClient {
 		return null;
 	}
 	
+	/**
+	 * Prefetches same-site subresources of a fetched HTML page (if enabled).
+	 * <p>
+	 * Prefetches bypass {@link AdmissionController}, so pages of restricted
+	 * hosts (public gateway mode) are never prefetched.
+	 * </p>
+	 * 
+	 * @param path
+	 *            path of page (a {@link FreenetURI} in {@link String} format)
+	 * @param data
+	 *            filtered content of page
+	 * @param fctx
+	 *            {@link FetchContext} used to fetch page
+	 * @param fullAccess
+	 *            {@code true} if requesting host has full access
+	 * @see Prefetcher
+	 */
+	public void prefetchLinked(String path, Bucket data, FetchContext fctx, boolean fullAccess) {
+		if (config.isPublicGateway() && !fullAccess) {
+			return;
+		}
+		prefetcher.prefetchLinked(path, data, fctx);
+	}
+
+	/**
+	 * Returns {@link AdmissionController} limiting fetches of restricted hosts
+	 * 
+	 * @return admission controller
+	 */
+	public AdmissionController getAdmissionController() {
+		return admission;
+	}
+
+	/**
+	 * Returns metrics of all fetches
+	 * 
+	 * @return fetch metrics
+	 */
+	public FetchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Stops all background fetches
+	 */
+	public void stop() {
+		prefetcher.stop();
+	}
+
+	/**
+	 * Returns filtering policy used for all fetches
+	 * 
+	 * @return filter policy
+	 */
+	public REFILTER_POLICY getFilterPolicy() {
+		return DEFAULT_FILTER_POLICY;
+	}
+
 	/**
 	 * Returns the actual {@link FProxyFetchTracker}
 	 * 
@@ -101,4 +365,42 @@ public class FetchTrackerManager implements RequestClient {
 		// Do nothing
 	}
 
+	/**
+	 * Key of a cached {@link FetchContext} template
+	 * 
+	 * @author pausb
+	 */
+	private static class ContextKey {
+
+		/** Maximum size of data */
+		private final long maxLength;
+		/** Maximum number of retries */
+		private final int maxRetries;
+		/** {@code true} if host has restricted access */
+		private final boolean restricted;
+
+		/**
+		 * Constructs.
+		 */
+		ContextKey(long maxLength, int maxRetries, boolean restricted) {
+			this.maxLength = maxLength;
+			this.maxRetries = maxRetries;
+			this.restricted = restricted;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ContextKey)) {
+				return false;
+			}
+			ContextKey other = (ContextKey) obj;
+			return maxLength == other.maxLength && maxRetries == other.maxRetries && restricted == other.restricted;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(maxLength, maxRetries, restricted);
+		}
+	}
+
 }
@@ -0,0 +1,246 @@
+package freenet.winterface.web.core;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.apache.wicket.Application;
+import org.apache.wicket.request.IRequestCycle;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.Request;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.http.WebResponse;
+import org.apache.wicket.util.string.Strings;
+
+import freenet.client.FetchContext;
+import freenet.client.FetchException;
+import freenet.clients.http.FProxyFetchResult;
+import freenet.clients.http.FProxyFetchWaiter;
+import freenet.keys.FreenetURI;
+import freenet.winterface.core.Configuration;
+import freenet.winterface.core.RequestsUtil;
+import freenet.winterface.web.FreenetURIPage;
+import freenet.winterface.web.core.AdmissionController.RejectedException;
+
+/**
+ * An {@link IRequestHandler} which fetches a {@link FreenetURI} without
+ * constructing a {@link FreenetURIPage}.
+ * <p>
+ * Used for subresources of pages (images, stylesheets and scripts), which
+ * cannot show a progress page. The request waits for the fetch to finish,
+ * follows new URIs (e.g. newer USK editions) up to
+ * {@link RequestsUtil#MAX_RECURSION} times and finally passes data to
+ * {@link FreenetURIHandler}. Failed fetches are answered with an HTTP error
+ * code.
+ * </p>
+ * <p>
+ * Waiting occupies a server thread, so it is bounded by {@link #MAX_WAIT}.
+ * Fetches which take longer keep running in background and the request is
+ * answered with {@code 503} and a {@code Retry-After} header. Retries join the
+ * running fetch.
+ * </p>
+ *
+ * @author pausb
+ * @see Factory
+ */
+public class FreenetURIFetchHandler implements IRequestHandler {
+
+	/** Requested path */
+	private final String path;
+	/** Handler writing fetched data (if any) */
+	private FreenetURIHandler dataHandler;
+
+	/** Maximum time (in milliseconds) a request waits for its fetch */
+	public final static long MAX_WAIT = TimeUnit.SECONDS.toMillis(30);
+	/** Seconds after which a client may retry a fetch which is still running */
+	public final static int RETRY_AFTER = 10;
+	/** Interval (in milliseconds) of checking a running fetch */
+	private final static long POLL_INTERVAL = 250;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(FreenetURIFetchHandler.class);
+
+	/**
+	 * Constructs.
+	 *
+	 * @param path
+	 *            path to fetch (a {@link FreenetURI} in {@link String} format)
+	 */
+	public FreenetURIFetchHandler(String path) {
+		this.path = path;
+	}
+
+	@Override
+	public void respond(IRequestCycle requestCycle) {
+		WebRequest request = (WebRequest) requestCycle.getRequest();
+		WebResponse response = (WebResponse) requestCycle.getResponse();
+		WinterfaceApplication application = (WinterfaceApplication) Application.get();
+		FetchTrackerManager trackerManager = application.getTrackerManager();
+		String host = ((HttpServletRequest) request.getContainerRequest()).getRemoteAddr();
+		boolean fullAccess = application.getConfiguration().getFullAccessMatcher().matches(host);
+		FetchContext cntx = getFetchContext(application, request, fullAccess);
+
+		long deadline = System.currentTimeMillis() + MAX_WAIT;
+		String current = path;
+		for (int recursion = RequestsUtil.MAX_RECURSION; recursion > 0; recursion--) {
+			FProxyFetchWaiter waiter;
+			try {
+				waiter = trackerManager.getWaiterFor(current, cntx, host, fullAccess);
+			} catch (MalformedURLException e) {
+				logger.debug("Cannot fetch malformed URI " + current);
+				response.sendError(HttpServletResponse.SC_NOT_FOUND, null);
+				return;
+			} catch (FetchException e) {
+				logger.error("Error while fetching Freenet URI", e);
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+				return;
+			} catch (RejectedException e) {
+				response.setHeader(RequestsUtil.HEADER_RETRY_AFTER, String.valueOf(e.getRetryAfter()));
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+				return;
+			}
+			FProxyFetchResult result;
+			try {
+				result = await(waiter, deadline);
+			} finally {
+				waiter.close();
+			}
+			if (result == null) {
+				logger.debug("Fetching " + current + " takes too long. Asking client to retry.");
+				response.setHeader(RequestsUtil.HEADER_RETRY_AFTER, String.valueOf(RETRY_AFTER));
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+				return;
+			}
+			if (result.hasData()) {
+				logger.trace("Passing data of " + current + " to " + FreenetURIHandler.class.getName());
+				dataHandler = new FreenetURIHandler(result);
+				dataHandler.respond(requestCycle);
+				return;
+			}
+			FetchException fe = result.failed;
+			result.close();
+			if (fe == null) {
+				// Finished without data nor exception
+				break;
+			}
+			FreenetURI newURI = fe.newURI;
+			if (newURI == null || newURI.toString().equals(current)) {
+				logger.debug("Fetching " + current + " has failed: " + fe.getShortMessage());
+				int status = fe.isFatal() ? HttpServletResponse.SC_NOT_FOUND : HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+				response.sendError(status, fe.getShortMessage());
+				return;
+			}
+			logger.debug("New URI found " + newURI + " for " + current);
+			if (newURI.isUSK()) {
+				trackerManager.getMetrics().countUskRestart();
+			}
+			current = newURI.toString();
+		}
+		response.sendError(HttpServletResponse.SC_NOT_FOUND, null);
+	}
+
+	/**
+	 * Waits for a fetch to finish
+	 *
+	 * @param waiter
+	 *            waiter of fetch
+	 * @param deadline
+	 *            time (in milliseconds) after which waiting is given up
+	 * @return finished result or {@code null} if fetch has not finished in
+	 *         time
+	 */
+	private FProxyFetchResult await(FProxyFetchWaiter waiter, long deadline) {
+		FProxyFetchResult result = waiter.getResultFast();
+		while (!result.isFinished()) {
+			result.close();
+			if (System.currentTimeMillis() >= deadline) {
+				return null;
+			}
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			result = waiter.getResultFast();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a {@link FetchContext} with respect to given request
+	 *
+	 * @param application
+	 *            running {@link WinterfaceApplication}
+	 * @param request
+	 *            current {@link WebRequest}
+	 * @param fullAccess
+	 *            {@code true} if requesting host has full access
+	 * @return {@link FetchContext} of request
+	 */
+	private FetchContext getFetchContext(WinterfaceApplication application, WebRequest request, boolean fullAccess) {
+		Configuration config = application.getConfiguration();
+		HttpServletRequest httpRequest = (HttpServletRequest) request.getContainerRequest();
+		int maxRetries = request.getRequestParameters().getParameterValue(RequestsUtil.PARAM_MAX_RETRIES).toInt(-2);
+		return application.getTrackerManager().getFetchContext(config, httpRequest, maxRetries, fullAccess);
+	}
+
+	@Override
+	public void detach(IRequestCycle requestCycle) {
+		if (dataHandler != null) {
+			dataHandler.detach(requestCycle);
+		}
+	}
+
+	/**
+	 * Creates {@link FreenetURIFetchHandler}s for subresources of pages
+	 * (images, stylesheets and scripts), which cannot show a progress page.
+	 * All other requests (including forced downloads and non-browser clients)
+	 * get {@link FreenetURIPage} and its progress view.
+	 * <p>
+	 * The decision is made on request headers only, so no session is needed.
+	 * Browsers sending {@value #HEADER_FETCH_DEST} are identified by it, others
+	 * by their {@code Accept} header.
+	 * </p>
+	 *
+	 * @author pausb
+	 */
+	public static class Factory implements MappedHandlerFactory {
+
+		/** Header containing the destination of a request */
+		public final static String HEADER_FETCH_DEST = "Sec-Fetch-Dest";
+
+		@Override
+		public IRequestHandler createHandler(Request request) {
+			if (!(request instanceof WebRequest)) {
+				return null;
+			}
+			WebRequest webRequest = (WebRequest) request;
+			if (!isSubresource(webRequest)) {
+				return null;
+			}
+			String path = Strings.join("/", webRequest.getUrl().getSegments());
+			return new FreenetURIFetchHandler(path);
+		}
+
+		/**
+		 * @return {@code true} if request asks for an image, stylesheet or
+		 *         script (without {@code forcedownload} parameter)
+		 */
+		private boolean isSubresource(WebRequest request) {
+			if (!request.getRequestParameters().getParameterValue(RequestsUtil.PARAM_FORCE_DOWNLOAD).isNull()) {
+				return false;
+			}
+			String dest = request.getHeader(HEADER_FETCH_DEST);
+			if (dest != null) {
+				return "image".equals(dest) || "style".equals(dest) || "script".equals(dest);
+			}
+			String accept = request.getHeader(RequestsUtil.HEADER_ACCEPT);
+			return accept != null && (accept.startsWith("image/") || accept.startsWith("text/css"));
+		}
+	}
+
+}
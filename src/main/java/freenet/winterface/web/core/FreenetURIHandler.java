@@ -3,22 +3,29 @@ package freenet.winterface.web.core;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.apache.wicket.Application;
 import org.apache.wicket.request.IRequestCycle;
 import org.apache.wicket.request.IRequestHandler;
 import org.apache.wicket.request.http.WebRequest;
 import org.apache.wicket.request.http.WebResponse;
-import org.apache.wicket.util.io.IOUtils;
 import org.apache.wicket.util.lang.Args;
 import org.apache.wicket.util.string.StringValue;
 
 import freenet.clients.http.FProxyFetchResult;
+import freenet.crypt.SHA256;
 import freenet.keys.FreenetURI;
+import freenet.support.HexUtil;
 import freenet.support.api.Bucket;
+import freenet.support.io.BucketTools;
+import freenet.winterface.core.BucketUtil;
+import freenet.winterface.core.ByteRange;
 import freenet.winterface.web.FreenetURIPage;
 
 /**
@@ -26,7 +33,17 @@ import freenet.winterface.web.FreenetURIPage;
  * fetching of a {@link FreenetURI} has been successful.
  * <p>
  * Data is read from {@link FProxyFetchResult#data} as {@link InputStream} and
- * is written to {@link WebResponse}
+ * is written to {@link WebResponse} using {@link BucketUtil}
+ * </p>
+ * <p>
+ * Byte ranges (see {@link ByteRange}) and conditional requests are supported.
+ * Content of CHKs and SSKs never changes, so their entity tag is derived from
+ * the requested {@link FreenetURI}. USKs (which may be answered with a newer
+ * edition under the same URL) and KSKs get no entity tag.
+ * </p>
+ * <p>
+ * Small results of immutable keys are kept in {@link ResourceCache} and are
+ * served from there by {@link WinterMapper} on following requests.
  * </p>
  * 
  * @author pausb
@@ -34,9 +51,15 @@ import freenet.winterface.web.FreenetURIPage;
  */
 public class FreenetURIHandler implements IRequestHandler {
 
-	/** Result to write to response */
+	/** Result to write to response (or {@code null} if served from cache) */
 	private FProxyFetchResult result;
+	/** Cached result to write to response */
+	private ResourceCache.Entry cached;
+	/** MIME type of content */
+	private final String mimeType;
 
+	/** Number of digest bytes used in entity tags */
+	private final static int ETAG_LENGTH = 16;
 	/** Force download parameter */
 	private final static String FORCE_DOWNLOAD_PARAM = "forcedownload";
 	/** Log4j logger */
@@ -51,6 +74,20 @@ public class FreenetURIHandler implements IRequestHandler {
 	public FreenetURIHandler(FProxyFetchResult result) {
 		Args.notNull(result, "FetchResult");
 		this.result = result;
+		this.mimeType = result.mimeType;
+	}
+
+	/**
+	 * Constructs a handler serving a cached result
+	 * 
+	 * @param cached
+	 *            {@link ResourceCache.Entry} to write to response
+	 * @see ResourceCache
+	 */
+	public FreenetURIHandler(ResourceCache.Entry cached) {
+		Args.notNull(cached, "CacheEntry");
+		this.cached = cached;
+		this.mimeType = cached.getMimeType();
 	}
 
 	@Override
@@ -73,9 +110,9 @@ public class FreenetURIHandler implements IRequestHandler {
 		}
 		// Force download
 		StringValue forceParam = request.getRequestParameters().getParameterValue(FORCE_DOWNLOAD_PARAM);
+		String contentType = mimeType;
 		if(!forceParam.isNull()) {
 			response.addHeader("Content-Disposition", "attachment; filename=\"" + uri.getPreferredFilename() + '"');
-			response.addHeader("Cache-Control", "private");
 			response.addHeader("Content-Transfer-Encoding", "binary");
 			// really the above should be enough, but ...
 			// was application/x-msdownload, but some unix browsers offer to open that in Wine as default!
@@ -83,40 +120,225 @@ public class FreenetURIHandler implements IRequestHandler {
 			// see http://onjava.com/pub/a/onjava/excerpt/jebp_3/index3.html
 			// Testing on FF3.5.1 shows that application/x-force-download wants to run it in wine,
 			// whereas application/force-download wants to save it.
-			response.setContentType("application/force-download");
+			contentType = "application/force-download";
+			response.setContentType(contentType);
 			response.setStatus(HttpServletResponse.SC_OK);
 		} else {
 			// Set MIME-Type
-			if (result.mimeType != null) {
-				response.setContentType(result.mimeType);
+			if (mimeType != null) {
+				response.setContentType(mimeType);
 			}
 			
 		}
-		
 
-		// Set Content length
-		if (result.size != 0) {
-			response.setContentLength(result.size);
+		// Forced downloads used to be sent with "Cache-Control: private" only.
+		// They are still private but may be cached like any other content.
+		WinterfaceApplication application = (WinterfaceApplication) Application.get();
+		application.getCachePolicy().apply(uri, !forceParam.isNull(), response);
+
+		Bucket data = (result == null) ? null : result.getData();
+		if (cached == null && data == null) {
+			logger.error("Null result was sent for processing!");
+			return;
 		}
-		Bucket data = result.getData();
-		if (data != null) {
-			try {
-				InputStream is = data.getInputStream();
-				OutputStream os = response.getOutputStream();
-				IOUtils.copy(is, os);
-				is.close();
-			} catch (IOException e) {
-				logger.error("Error while reading result data.", e);
+		long size = (cached == null) ? data.size() : cached.size();
+		FetchMetrics metrics = application.getTrackerManager().getMetrics();
+		// Conditional requests
+		String etag = createETag(uri);
+		response.setHeader("Accept-Ranges", ByteRange.UNIT);
+		if (etag != null) {
+			response.setHeader("ETag", etag);
+			if (matches(request.getHeader("If-None-Match"), etag)) {
+				logger.trace("Content not modified: " + uri);
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				metrics.record(FetchMetrics.STAGE_LAST_BYTE, uri, FetchMetrics.OUTCOME_NOT_MODIFIED, FetchMetrics.requestStart());
+				return;
 			}
-		} else {
-			logger.error("Null result was sent for processing!");
+		}
+		List<ByteRange> ranges = null;
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null || (etag != null && etag.equals(ifRange.trim()))) {
+			ranges = ByteRange.parse(request.getHeader("Range"), size);
+		}
+		if (ranges == ByteRange.UNSATISFIABLE) {
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader("Content-Range", ByteRange.UNIT + " */" + size);
+			metrics.record(FetchMetrics.STAGE_LAST_BYTE, uri, FetchMetrics.OUTCOME_RANGE_NOT_SATISFIABLE, FetchMetrics.requestStart());
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		long written = 0;
+		String outcome = FetchMetrics.OUTCOME_ABORTED;
+		try {
+			OutputStream os = response.getOutputStream();
+			if (ranges == null) {
+				// Set Content length
+				if (size != 0) {
+					response.setContentLength(size);
+				}
+				ResourceCache cache = application.getResourceCache();
+				if (cached == null && forceParam.isNull() && cache.isCacheable(uri, size)) {
+					// Small immutable result: keep it for following requests
+					byte[] bytes = BucketTools.toByteArray(data);
+					cache.put(ResourceCache.createKey(request, application.getTrackerManager().getFilterPolicy()), bytes, mimeType);
+					os.write(bytes);
+					written = bytes.length;
+				} else {
+					written = write(data, os, 0, size);
+				}
+			} else if (ranges.size() == 1) {
+				ByteRange range = ranges.get(0);
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", range.toContentRange(size));
+				response.setContentLength(range.getLength());
+				written = write(data, os, range.start, range.getLength());
+			} else {
+				written = writeMultipart(response, data, ranges, contentType, size);
+			}
+			outcome = FetchMetrics.OUTCOME_DATA;
+		} catch (IOException e) {
+			logger.error("Error while reading result data.", e);
+		} finally {
+			logThroughput(uri, written, System.currentTimeMillis() - start);
+			metrics.addBytesServed(uri, written);
+			metrics.record(FetchMetrics.STAGE_LAST_BYTE, uri, outcome, FetchMetrics.requestStart());
+		}
+	}
+
+	/**
+	 * Writes a part of content, either from cache or from given {@link Bucket}
+	 * 
+	 * @param data
+	 *            {@link Bucket} containing data (ignored if served from cache)
+	 * @param os
+	 *            {@link OutputStream} to write to
+	 * @param offset
+	 *            first byte to write
+	 * @param length
+	 *            number of bytes to write
+	 * @return number of written bytes
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	private long write(Bucket data, OutputStream os, long offset, long length) throws IOException {
+		if (cached != null) {
+			return cached.writeTo(os, offset, length);
+		}
+		return BucketUtil.copy(data, os, offset, length);
+	}
+
+	/**
+	 * Writes multiple ranges as {@code multipart/byteranges}
+	 * 
+	 * @param response
+	 *            {@link WebResponse} to write to
+	 * @param data
+	 *            {@link Bucket} containing data
+	 * @param ranges
+	 *            requested ranges
+	 * @param contentType
+	 *            content type of each part (may be {@code null})
+	 * @param size
+	 *            total size of data
+	 * @return number of written bytes (excluding part headers)
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	private long writeMultipart(WebResponse response, Bucket data, List<ByteRange> ranges, String contentType, long size) throws IOException {
+		String boundary = Long.toHexString(System.nanoTime()) + Long.toHexString(size);
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setContentType("multipart/byteranges; boundary=" + boundary);
+		OutputStream os = response.getOutputStream();
+		long written = 0;
+		for (ByteRange range : ranges) {
+			StringBuilder header = new StringBuilder();
+			header.append("\r\n--").append(boundary).append("\r\n");
+			if (contentType != null) {
+				header.append("Content-Type: ").append(contentType).append("\r\n");
+			}
+			header.append("Content-Range: ").append(range.toContentRange(size)).append("\r\n\r\n");
+			os.write(header.toString().getBytes("US-ASCII"));
+			written += write(data, os, range.start, range.getLength());
+		}
+		os.write(("\r\n--" + boundary + "--\r\n").getBytes("US-ASCII"));
+		return written;
+	}
+
+	/**
+	 * Creates an entity tag for given {@link FreenetURI}.
+	 * <p>
+	 * Content of CHKs and SSKs never changes. KSKs may be inserted by anyone,
+	 * and a USK request may be answered with a newer edition under the same
+	 * URL, so both get no tag. The tag also contains the MIME type of the
+	 * result, since the same key may be served with a forced type.
+	 * </p>
+	 * 
+	 * @param uri
+	 *            fetched {@link FreenetURI}
+	 * @return quoted entity tag or {@code null} if content is mutable
+	 */
+	private String createETag(FreenetURI uri) {
+		if (uri == null || "KSK".equals(uri.getKeyType()) || uri.isUSK()) {
+			return null;
+		}
+		try {
+			byte[] digest = SHA256.digest((uri.toString(false, false) + '|' + mimeType).getBytes("UTF-8"));
+			return '"' + HexUtil.bytesToHex(digest, 0, ETAG_LENGTH) + '"';
+		} catch (UnsupportedEncodingException e) {
+			// Cannot happen
+			throw new Error(e);
+		}
+	}
+
+	/**
+	 * Checks if an {@code If-None-Match} header matches given entity tag
+	 * 
+	 * @param header
+	 *            value of header (may be {@code null})
+	 * @param etag
+	 *            current entity tag
+	 * @return {@code true} if header contains tag or {@code *}
+	 */
+	private boolean matches(String header, String etag) {
+		if (header == null) {
+			return false;
+		}
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Logs throughput of a single response
+	 * 
+	 * @param uri
+	 *            {@link FreenetURI} which has been served
+	 * @param bytes
+	 *            number of written bytes
+	 * @param millis
+	 *            time needed to write data
+	 */
+	private void logThroughput(FreenetURI uri, long bytes, long millis) {
+		if (logger.isDebugEnabled()) {
+			double kibPerSecond = (bytes / 1024.0) / (Math.max(millis, 1) / 1000.0);
+			logger.debug(String.format("Served %d bytes in %d ms (%.1f KiB/s): %s", bytes, millis, kibPerSecond, uri));
 		}
 	}
 
 	@Override
 	public void detach(IRequestCycle requestCycle) {
 		// Let FProxyFetchInProgress know that we are finished with result.
-		result.close();
+		if (result != null) {
+			result.close();
+		}
 	}
 
 }
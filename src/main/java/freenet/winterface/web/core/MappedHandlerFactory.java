@@ -0,0 +1,33 @@
+package freenet.winterface.web.core;
+
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.Request;
+import org.apache.wicket.request.component.IRequestablePage;
+
+/**
+ * Creates lightweight {@link IRequestHandler}s for {@link WinterMapper}
+ * mappings.
+ * <p>
+ * A factory is registered for a {@link org.apache.wicket.request.Url} prefix
+ * (see {@link WinterMapper#registerHandler(String, MappedHandlerFactory)}) and
+ * is asked before the mapped {@link IRequestablePage} is constructed. This
+ * allows to serve requests which do not need any markup without creating a
+ * page.
+ * </p>
+ * 
+ * @author pausb
+ * @see WinterMapper
+ */
+public interface MappedHandlerFactory {
+
+	/**
+	 * Creates handler for given request
+	 * 
+	 * @param request
+	 *            {@link Request} matching the registered prefix
+	 * @return {@link IRequestHandler} to serve request or {@code null} if the
+	 *         mapped page should be used instead
+	 */
+	IRequestHandler createHandler(Request request);
+
+}
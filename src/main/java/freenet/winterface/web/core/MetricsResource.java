@@ -0,0 +1,86 @@
+package freenet.winterface.web.core;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.apache.wicket.Application;
+import org.apache.wicket.request.resource.AbstractResource;
+
+/**
+ * Exports {@link FetchMetrics}, {@link ResourceCache} and
+ * {@link AdmissionController} counters in Prometheus text format.
+ * <p>
+ * Only hosts with full access may read metrics.
+ * </p>
+ *
+ * @author pausb
+ * @see FetchMetrics
+ */
+@SuppressWarnings("serial")
+public class MetricsResource extends AbstractResource {
+
+	/** Content type of Prometheus text format */
+	private final static String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(MetricsResource.class);
+
+	@Override
+	protected ResourceResponse newResourceResponse(Attributes attributes) {
+		final WinterfaceApplication application = (WinterfaceApplication) Application.get();
+		ResourceResponse response = new ResourceResponse();
+		HttpServletRequest request = (HttpServletRequest) attributes.getRequest().getContainerRequest();
+		if (!application.getConfiguration().getFullAccessMatcher().matches(request.getRemoteAddr())) {
+			response.setError(HttpServletResponse.SC_FORBIDDEN);
+			return response;
+		}
+		response.setContentType(CONTENT_TYPE);
+		response.setTextEncoding("UTF-8");
+		response.disableCaching();
+		response.setWriteCallback(new WriteCallback() {
+			@Override
+			public void writeData(Attributes attributes) {
+				StringBuilder out = new StringBuilder(4096);
+				FetchTrackerManager trackerManager = application.getTrackerManager();
+				trackerManager.getMetrics().writeTo(out);
+				writeResourceCache(out, application.getResourceCache());
+				writeAdmission(out, trackerManager.getAdmissionController());
+				try {
+					attributes.getResponse().getOutputStream().write(out.toString().getBytes("UTF-8"));
+				} catch (IOException e) {
+					logger.debug("Error while writing metrics (client has probably disconnected)", e);
+				}
+			}
+		});
+		return response;
+	}
+
+	/**
+	 * Writes statistics of {@link ResourceCache}
+	 */
+	private static void writeResourceCache(StringBuilder out, ResourceCache cache) {
+		FetchMetrics.writeCounter(out, "winterface_resource_cache_hits_total", "Lookups returning a cached result", cache.getHits());
+		FetchMetrics.writeCounter(out, "winterface_resource_cache_misses_total", "Lookups without result", cache.getMisses());
+		FetchMetrics.writeCounter(out, "winterface_resource_cache_evictions_total", "Evicted results", cache.getEvictions());
+		FetchMetrics.writeCounter(out, "winterface_resource_cache_served_bytes_total", "Bytes served from cache", cache.getBytesServed());
+		FetchMetrics.writeMetric(out, "winterface_resource_cache_bytes", "Currently cached bytes", "gauge", cache.getBytes());
+		FetchMetrics.writeMetric(out, "winterface_resource_cache_max_bytes", "Byte budget of cache", "gauge", cache.getMaxBytes());
+		FetchMetrics.writeMetric(out, "winterface_resource_cache_entries", "Currently cached results", "gauge", cache.size());
+	}
+
+	/**
+	 * Writes counters of {@link AdmissionController}
+	 */
+	private static void writeAdmission(StringBuilder out, AdmissionController admission) {
+		FetchMetrics.writeMetric(out, "winterface_admission_fetches", "Restricted fetches in flight", "gauge", admission.getFetches());
+		FetchMetrics.writeMetric(out, "winterface_admission_bytes", "Bytes reserved by restricted fetches", "gauge", admission.getBytes());
+		FetchMetrics.writeMetric(out, "winterface_admission_queued", "Requests waiting for admission", "gauge", admission.getQueued());
+		FetchMetrics.writeCounter(out, "winterface_admission_admitted_total", "Admitted restricted fetches", admission.getAdmitted());
+		FetchMetrics.writeCounter(out, "winterface_admission_rejected_total", "Rejected restricted fetches", admission.getRejected());
+		FetchMetrics.writeCounter(out, "winterface_admission_expired_total", "Permits released after maximum lease", admission.getExpired());
+	}
+
+}
@@ -0,0 +1,277 @@
+package freenet.winterface.web.core;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import freenet.client.FetchContext;
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.client.HighLevelSimpleClientImpl;
+import freenet.clients.http.FProxyFetchTracker;
+import freenet.keys.FreenetURI;
+import freenet.node.NodeClientCore;
+import freenet.support.api.Bucket;
+import freenet.support.io.BucketTools;
+import freenet.winterface.core.Configuration;
+
+/**
+ * Prefetches subresources (images, stylesheets, scripts, ...) of a fetched
+ * HTML page.
+ * <p>
+ * Once a filtered HTML page is served, keys of its same-site subresources are
+ * extracted and fetched in background by at most {@link #MAX_CONCURRENT}
+ * threads using the priority class of {@link Configuration#getPrefetchPriority()}.
+ * Fetched blocks end up in the node's client cache, so the browser's own
+ * requests for these resources complete from the local store. Resources which
+ * are already being fetched by {@link FProxyFetchTracker} are skipped.
+ * </p>
+ *
+ * @author pausb
+ * @see FetchTrackerManager#prefetchLinked(String, Bucket, FetchContext, boolean)
+ */
+public class Prefetcher {
+
+	/** Node's client core */
+	private final NodeClientCore core;
+	/** User configuration */
+	private final Configuration config;
+	/** Tracker to check for running fetches */
+	private final FProxyFetchTracker tracker;
+	/** Executes prefetches */
+	private final ThreadPoolExecutor executor;
+	/** Client used for all prefetches (replaced if priority changes) */
+	private HighLevelSimpleClientImpl client;
+	/** Priority class of {@link #client} */
+	private short clientPriority;
+	/** Keys being prefetched at the moment */
+	private final Set<String> pending;
+
+	/** Maximum number of concurrent prefetches */
+	public final static int MAX_CONCURRENT = 4;
+	/** Maximum number of queued prefetches */
+	public final static int MAX_QUEUED = 128;
+	/** Maximum number of subresources prefetched per page */
+	public final static int MAX_PER_PAGE = 32;
+	/** Maximum size of HTML pages to parse */
+	private final static long MAX_HTML_SIZE = 1024 * 1024;
+
+	/** Matches {@code src} attributes */
+	private final static Pattern SRC_PATTERN = Pattern.compile("<(?:img|script|input|embed|source|video|audio)\\b[^>]*?\\bsrc\\s*=\\s*[\"']([^\"'#>]+)",
+			Pattern.CASE_INSENSITIVE);
+	/** Matches {@code href} attributes of stylesheets and icons */
+	private final static Pattern LINK_PATTERN = Pattern.compile("<link\\b(?=[^>]*?\\brel\\s*=\\s*[\"'][^\"']*(?:stylesheet|icon))[^>]*?\\bhref\\s*=\\s*[\"']([^\"'#>]+)",
+			Pattern.CASE_INSENSITIVE);
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(Prefetcher.class);
+
+	/**
+	 * Constructs.
+	 *
+	 * @param core
+	 *            node's client core
+	 * @param config
+	 *            user configuration
+	 * @param tracker
+	 *            tracker of running fetches
+	 */
+	public Prefetcher(NodeClientCore core, Configuration config, FProxyFetchTracker tracker) {
+		this.core = core;
+		this.config = config;
+		this.tracker = tracker;
+		this.executor = new ThreadPoolExecutor(MAX_CONCURRENT, MAX_CONCURRENT, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("winterface-prefetch-%d").build());
+		this.executor.allowCoreThreadTimeOut(true);
+		this.pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	}
+
+	/**
+	 * Extracts subresources of an HTML page and schedules their prefetching
+	 *
+	 * @param path
+	 *            path of page (a {@link FreenetURI} in {@link String} format)
+	 * @param data
+	 *            filtered content of page
+	 * @param fctx
+	 *            {@link FetchContext} of page
+	 */
+	public void prefetchLinked(String path, Bucket data, FetchContext fctx) {
+		if (!config.isPrefetchEnabled() || data == null || data.size() > MAX_HTML_SIZE) {
+			return;
+		}
+		FreenetURI pageURI;
+		String html;
+		try {
+			pageURI = new FreenetURI(path);
+			html = new String(BucketTools.toByteArray(data), "UTF-8");
+		} catch (MalformedURLException e) {
+			return;
+		} catch (IOException e) {
+			logger.debug("Cannot read page to prefetch from", e);
+			return;
+		}
+		Set<String> links = Sets.newLinkedHashSet();
+		collect(SRC_PATTERN.matcher(html), links);
+		collect(LINK_PATTERN.matcher(html), links);
+		int scheduled = 0;
+		for (String link : links) {
+			if (scheduled >= MAX_PER_PAGE) {
+				break;
+			}
+			FreenetURI uri = resolve(path, link);
+			if (uri != null && isSameSite(pageURI, uri) && schedule(uri, fctx.maxOutputLength)) {
+				scheduled++;
+			}
+		}
+		logger.debug(String.format("Scheduled %d of %d subresources of %s for prefetching", scheduled, links.size(), path));
+	}
+
+	/**
+	 * Stops all prefetches
+	 */
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Adds first group of all matches to given set
+	 */
+	private void collect(Matcher matcher, Set<String> links) {
+		while (matcher.find()) {
+			links.add(matcher.group(1).trim());
+		}
+	}
+
+	/**
+	 * Resolves a (filtered) link against path of its page
+	 *
+	 * @param path
+	 *            path of page
+	 * @param link
+	 *            link found in page
+	 * @return resolved {@link FreenetURI} or {@code null} if link does not
+	 *         point to a key
+	 */
+	private FreenetURI resolve(String path, String link) {
+		int query = link.indexOf('?');
+		if (query > -1) {
+			link = link.substring(0, query);
+		}
+		if (link.length() == 0 || link.contains("://")) {
+			return null;
+		}
+		String resolved;
+		if (link.startsWith("/")) {
+			resolved = link.substring(1);
+		} else {
+			String base = path.substring(0, path.lastIndexOf('/') + 1);
+			resolved = base + link;
+		}
+		// Collapse "./" and "../" segments
+		while (resolved.contains("/./")) {
+			resolved = resolved.replace("/./", "/");
+		}
+		int up;
+		while ((up = resolved.indexOf("/../")) > 0) {
+			int parent = resolved.lastIndexOf('/', up - 1);
+			if (parent < 0) {
+				return null;
+			}
+			resolved = resolved.substring(0, parent) + resolved.substring(up + 3);
+		}
+		try {
+			return new FreenetURI(resolved);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return {@code true} if both keys belong to the same site
+	 */
+	private boolean isSameSite(FreenetURI page, FreenetURI other) {
+		return page.getKeyType().equals(other.getKeyType()) && Arrays.equals(page.getRoutingKey(), other.getRoutingKey())
+				&& Objects.equal(page.getDocName(), other.getDocName());
+	}
+
+	/**
+	 * Schedules prefetching of a single key
+	 *
+	 * @param uri
+	 *            key to prefetch
+	 * @param maxLength
+	 *            maximum size of data
+	 * @return {@code true} if prefetching has been scheduled
+	 */
+	private boolean schedule(final FreenetURI uri, final long maxLength) {
+		final String key = uri.toString(false, false);
+		if (tracker.getFetchInProgress(uri, maxLength, null) != null || !pending.add(key)) {
+			// Already being fetched
+			return false;
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						fetch(uri, maxLength);
+					} finally {
+						pending.remove(key);
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			pending.remove(key);
+			logger.trace("Prefetch queue is full. Dropping " + key);
+			return false;
+		}
+	}
+
+	/**
+	 * Fetches a key and drops its data
+	 */
+	private void fetch(FreenetURI uri, long maxLength) {
+		HighLevelSimpleClientImpl client = getClient();
+		FetchContext fctx = client.getFetchContext(maxLength);
+		fctx.canWriteClientCache = true;
+		long start = System.currentTimeMillis();
+		try {
+			FetchResult result = client.fetch(uri, maxLength, client, fctx);
+			result.asBucket().free();
+			logger.trace(String.format("Prefetched %s in %d ms", uri, System.currentTimeMillis() - start));
+		} catch (FetchException e) {
+			logger.trace("Prefetching " + uri + " has failed: " + e.getShortMessage());
+		}
+	}
+
+	/**
+	 * Returns client used for prefetches, creating a new one only if
+	 * {@link Configuration#getPrefetchPriority()} has changed
+	 */
+	private synchronized HighLevelSimpleClientImpl getClient() {
+		short priority = config.getPrefetchPriority();
+		if (client == null || clientPriority != priority) {
+			client = new HighLevelSimpleClientImpl(core, core.tempBucketFactory, core.random, priority, true, false);
+			clientPriority = priority;
+		}
+		return client;
+	}
+
+}
@@ -0,0 +1,583 @@
+package freenet.winterface.web.core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+
+import org.apache.log4j.Logger;
+import org.apache.wicket.Application;
+import org.apache.wicket.ThreadContext;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import freenet.clients.http.FProxyFetchInProgress;
+
+/**
+ * Pushes changes of node state to browsers using Server-Sent Events.
+ * <p>
+ * Each browser opens a single connection (see {@link PushEventServlet}),
+ * which its tabs share, and subscribes to a set of topics. A single background thread polls a
+ * {@link Source} for each subscribed topic once per {@link #INTERVAL} and
+ * sends an event to all subscribers of the topic if its value has changed.
+ * This way the state is computed once for all tabs, and tabs only issue Ajax
+ * requests if something has actually changed.
+ * </p>
+ * <p>
+ * Fetch progress is not polled but published by a {@link FetchListener} as
+ * soon as it changes (see {@link #publish(String, String)}).
+ * </p>
+ * <p>
+ * Events are not written by the polling thread. Each connection has a queue
+ * of at most {@link #MAX_PENDING} events which is written by a separate
+ * thread, so a client which stops reading cannot hold up others. Connections
+ * whose queue overflows or whose write takes longer than
+ * {@link #WRITE_TIMEOUT} are dropped.
+ * </p>
+ * <p>
+ * Timer behaviors (e.g. {@link AjaxFallbackTimerBehavior}) subscribe to a
+ * topic and skip their own ticks as long as the connection is open.
+ * </p>
+ *
+ * @author pausb
+ * @see PushEventServlet
+ * @see PushEvents
+ */
+public class PushEventHub {
+
+	/** Counts of alerts by priority */
+	public final static String TOPIC_ALERTS = "alerts";
+	/** Peer statistics */
+	public final static String TOPIC_PEERS = "peers";
+	/** Generation of global queue */
+	public final static String TOPIC_QUEUE = "queue";
+	/** Prefix of fetch progress topics (followed by fetched path) */
+	public final static String TOPIC_FETCH_PREFIX = "fetch:";
+
+	/** Interval (in milliseconds) between two polls */
+	public final static long INTERVAL = 1000;
+	/** Number of polls after which an idle connection receives a comment */
+	private final static int KEEP_ALIVE_TICKS = 15;
+	/** Number of polls after which an unsubscribed fetch source is dropped */
+	private final static int MAX_IDLE_TICKS = 60;
+	/** Maximum number of events waiting to be written to a connection */
+	public final static int MAX_PENDING = 64;
+	/** Time (in milliseconds) after which a blocked write drops its connection */
+	public final static long WRITE_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+	/** Application to bind to polling thread */
+	private final Application application;
+	/** Sources mapped by their topic */
+	private final ConcurrentMap<String, Source> sources;
+	/** Latest value of each topic */
+	private final ConcurrentMap<String, String> values;
+	/** Number of polls without subscribers mapped by (fetch) topic */
+	private final Map<String, Integer> idleTicks;
+	/** Open connections */
+	private final List<Subscriber> subscribers;
+	/** Writes events to connections */
+	private final ExecutorService writers;
+
+	/** Executes polls and publishing */
+	private volatile ScheduledExecutorService executor;
+	/** Number of polls so far */
+	private long ticks;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(PushEventHub.class);
+
+	/**
+	 * Computes current value of a topic
+	 *
+	 * @author pausb
+	 */
+	public interface Source {
+		/**
+		 * @return current value (sent as event data) or {@code null} if
+		 *         unknown
+		 */
+		String poll();
+	}
+
+	/**
+	 * Constructs.
+	 *
+	 * @param application
+	 *            {@link Application} which is bound to the polling thread
+	 */
+	public PushEventHub(Application application) {
+		this.application = application;
+		this.sources = Maps.newConcurrentMap();
+		this.values = Maps.newConcurrentMap();
+		this.idleTicks = Maps.newHashMap();
+		this.subscribers = new CopyOnWriteArrayList<Subscriber>();
+		// Threads of closed connections die once they are idle
+		this.writers = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("winterface-push-writer-%d").build());
+	}
+
+	/**
+	 * Starts polling in background
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("winterface-push-events").build());
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tick();
+				} catch (RuntimeException e) {
+					// Never let the scheduled task die
+					logger.error("Error while pushing events", e);
+				}
+			}
+		}, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+		logger.debug("Push events started");
+	}
+
+	/**
+	 * Stops polling and closes all connections
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		for (Source source : sources.values()) {
+			if (source instanceof FetchListener) {
+				((FetchListener) source).close();
+			}
+		}
+		for (Subscriber subscriber : subscribers) {
+			subscriber.close();
+		}
+		subscribers.clear();
+	}
+
+	/**
+	 * Registers a {@link Source} for given topic
+	 *
+	 * @param topic
+	 *            topic of source
+	 * @param source
+	 *            computes values of topic
+	 */
+	public void register(String topic, Source source) {
+		sources.put(topic, source);
+	}
+
+	/**
+	 * Registers a {@link FetchListener} for progress of a fetch (if not
+	 * already registered)
+	 *
+	 * @param path
+	 *            path being fetched
+	 * @param progress
+	 *            progress of fetch
+	 * @see #TOPIC_FETCH_PREFIX
+	 */
+	public void watchFetch(String path, FProxyFetchInProgress progress) {
+		String topic = TOPIC_FETCH_PREFIX + path;
+		if (sources.containsKey(topic)) {
+			return;
+		}
+		FetchListener listener = new FetchListener(this, topic, progress);
+		if (sources.putIfAbsent(topic, listener) != null) {
+			// Registered concurrently
+			listener.close();
+		}
+	}
+
+	/**
+	 * Sends a new value of a topic to its subscribers without waiting for the
+	 * next poll
+	 *
+	 * @param topic
+	 *            topic of value
+	 * @param value
+	 *            new value
+	 */
+	public void publish(final String topic, final String value) {
+		values.put(topic, value);
+		schedule(new Runnable() {
+			@Override
+			public void run() {
+				deliver(Collections.singletonMap(topic, value));
+			}
+		}, 0);
+	}
+
+	/**
+	 * Executes a task on the thread of this hub
+	 *
+	 * @param task
+	 *            task to execute
+	 * @param delay
+	 *            delay in milliseconds
+	 */
+	void schedule(Runnable task, long delay) {
+		ScheduledExecutorService current = executor;
+		if (current == null) {
+			return;
+		}
+		try {
+			current.schedule(task, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Hub is stopped
+		}
+	}
+
+	/**
+	 * Adds a new connection
+	 *
+	 * @param context
+	 *            {@link AsyncContext} of connection
+	 * @param topics
+	 *            subscribed topics
+	 * @throws IOException
+	 *             if connection cannot be written to
+	 */
+	public void subscribe(AsyncContext context, Set<String> topics) throws IOException {
+		Subscriber subscriber = new Subscriber(context, topics, writers);
+		// Initial state has already been rendered. Fetch progress may have
+		// changed since, so its current value is always sent.
+		for (String topic : topics) {
+			String value = values.get(topic);
+			if (value != null && !topic.startsWith(TOPIC_FETCH_PREFIX)) {
+				subscriber.sent.put(topic, value);
+			}
+		}
+		subscriber.comment("connected");
+		subscribers.add(subscriber);
+		logger.trace("New push subscriber for " + topics);
+	}
+
+	/**
+	 * Removes a connection
+	 *
+	 * @param context
+	 *            {@link AsyncContext} of connection
+	 */
+	public void unsubscribe(AsyncContext context) {
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.context == context) {
+				subscribers.remove(subscriber);
+			}
+		}
+	}
+
+	/**
+	 * @return number of open connections
+	 */
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	/**
+	 * Polls sources of all subscribed topics and sends changed values
+	 */
+	private void tick() {
+		ticks++;
+		if (subscribers.isEmpty()) {
+			dropIdleSources(ImmutableSet.<String> of());
+			return;
+		}
+		ThreadContext.setApplication(application);
+		try {
+			// Poll each subscribed topic once
+			Map<String, String> current = Maps.newHashMap();
+			for (Subscriber subscriber : subscribers) {
+				for (String topic : subscriber.topics) {
+					if (!current.containsKey(topic)) {
+						Source source = sources.get(topic);
+						String value = (source == null) ? null : poll(topic, source);
+						current.put(topic, value);
+						if (value != null) {
+							values.put(topic, value);
+						}
+					}
+				}
+			}
+			boolean keepAlive = (ticks % KEEP_ALIVE_TICKS == 0);
+			Set<Subscriber> idle = deliver(current);
+			if (keepAlive) {
+				for (Subscriber subscriber : idle) {
+					try {
+						subscriber.comment("keep-alive");
+					} catch (IOException e) {
+						disconnect(subscriber);
+					}
+				}
+			}
+			dropIdleSources(current.keySet());
+		} finally {
+			ThreadContext.detach();
+		}
+	}
+
+	/**
+	 * Sends changed values to all subscribers
+	 *
+	 * @param current
+	 *            current values mapped by topic
+	 * @return subscribers which have not received anything
+	 */
+	private Set<Subscriber> deliver(Map<String, String> current) {
+		Set<Subscriber> idle = Sets.newHashSet();
+		long now = System.currentTimeMillis();
+		for (Subscriber subscriber : subscribers) {
+			try {
+				subscriber.check(now);
+				if (!subscriber.send(current)) {
+					idle.add(subscriber);
+				}
+			} catch (IOException e) {
+				disconnect(subscriber);
+			}
+		}
+		return idle;
+	}
+
+	/**
+	 * Removes a subscriber whose connection is lost
+	 */
+	private void disconnect(Subscriber subscriber) {
+		logger.trace("Dropping push subscriber");
+		subscribers.remove(subscriber);
+		subscriber.close();
+	}
+
+	/**
+	 * Polls a single source
+	 *
+	 * @param topic
+	 *            topic of source
+	 * @param source
+	 *            source to poll
+	 * @return current value or {@code null} if polling fails
+	 */
+	private String poll(String topic, Source source) {
+		try {
+			return source.poll();
+		} catch (RuntimeException e) {
+			logger.debug("Error while polling " + topic, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Drops fetch sources which had no subscribers for a while
+	 *
+	 * @param subscribed
+	 *            currently subscribed topics
+	 */
+	private void dropIdleSources(Set<String> subscribed) {
+		Iterator<String> it = sources.keySet().iterator();
+		while (it.hasNext()) {
+			String topic = it.next();
+			if (!topic.startsWith(TOPIC_FETCH_PREFIX)) {
+				continue;
+			}
+			if (subscribed.contains(topic)) {
+				idleTicks.remove(topic);
+				continue;
+			}
+			Integer idle = idleTicks.get(topic);
+			idle = (idle == null) ? 1 : idle + 1;
+			if (idle > MAX_IDLE_TICKS) {
+				Source source = sources.get(topic);
+				if (source instanceof FetchListener) {
+					((FetchListener) source).close();
+				}
+				it.remove();
+				values.remove(topic);
+				idleTicks.remove(topic);
+			} else {
+				idleTicks.put(topic, idle);
+			}
+		}
+	}
+
+	/**
+	 * A single open connection
+	 *
+	 * @author pausb
+	 */
+	private static class Subscriber implements Runnable {
+
+		/** Context of connection */
+		final AsyncContext context;
+		/** Subscribed topics */
+		final Set<String> topics;
+		/** Values already sent mapped by topic */
+		final Map<String, String> sent;
+		/** Writer of connection */
+		final PrintWriter writer;
+		/** Executes {@link #run()} */
+		private final ExecutorService writers;
+		/** Events waiting to be written */
+		private final BlockingQueue<String> pending;
+		/** {@code true} while writing is scheduled or running */
+		private final AtomicBoolean writing;
+		/** Start time of running write (or {@code 0} if none is running) */
+		private volatile long writingSince;
+		/** {@code true} if writing has failed */
+		private volatile boolean failed;
+
+		/**
+		 * Constructs.
+		 */
+		Subscriber(AsyncContext context, Set<String> topics, ExecutorService writers) throws IOException {
+			this.context = context;
+			this.topics = ImmutableSet.copyOf(topics);
+			this.sent = Maps.newHashMap();
+			this.writer = context.getResponse().getWriter();
+			this.writers = writers;
+			this.pending = new ArrayBlockingQueue<String>(MAX_PENDING);
+			this.writing = new AtomicBoolean();
+		}
+
+		/**
+		 * Checks if connection is still usable
+		 *
+		 * @param now
+		 *            current time in milliseconds
+		 * @throws IOException
+		 *             if writing has failed or is blocked for longer than
+		 *             {@link #WRITE_TIMEOUT}
+		 */
+		void check(long now) throws IOException {
+			if (failed) {
+				throw new IOException("Connection closed");
+			}
+			long since = writingSince;
+			if (since != 0 && now - since > WRITE_TIMEOUT) {
+				throw new IOException("Write has timed out");
+			}
+		}
+
+		/**
+		 * Queues all changed values
+		 *
+		 * @param current
+		 *            current values mapped by topic
+		 * @return {@code true} if anything has been queued
+		 * @throws IOException
+		 *             if connection is closed or too many events are pending
+		 */
+		boolean send(Map<String, String> current) throws IOException {
+			boolean sentAny = false;
+			for (String topic : topics) {
+				String value = current.get(topic);
+				if (value != null && !value.equals(sent.get(topic))) {
+					enqueue("event: " + topic + "\ndata: " + value + "\n\n");
+					sent.put(topic, value);
+					sentAny = true;
+				}
+			}
+			return sentAny;
+		}
+
+		/**
+		 * Queues a comment (ignored by browsers)
+		 */
+		void comment(String comment) throws IOException {
+			enqueue(": " + comment + "\n\n");
+		}
+
+		/**
+		 * Queues a message and schedules writing (if not already scheduled)
+		 *
+		 * @throws IOException
+		 *             if connection is closed or queue is full
+		 */
+		private void enqueue(String message) throws IOException {
+			if (failed) {
+				throw new IOException("Connection closed");
+			}
+			if (!pending.offer(message)) {
+				throw new IOException("Too many pending events");
+			}
+			if (writing.compareAndSet(false, true)) {
+				try {
+					writers.execute(this);
+				} catch (RejectedExecutionException e) {
+					failed = true;
+					throw new IOException("Hub is stopped");
+				}
+			}
+		}
+
+		/**
+		 * Writes all pending messages
+		 */
+		@Override
+		public void run() {
+			try {
+				do {
+					String message;
+					while (!failed && (message = pending.poll()) != null) {
+						writingSince = System.currentTimeMillis();
+						writer.write(message);
+						if (pending.isEmpty()) {
+							flush();
+						}
+					}
+					writingSince = 0;
+					writing.set(false);
+					// Messages may have been queued after last poll
+				} while (!failed && !pending.isEmpty() && writing.compareAndSet(false, true));
+			} catch (IOException e) {
+				failed = true;
+				writingSince = 0;
+			}
+		}
+
+		/**
+		 * Flushes writer
+		 *
+		 * @throws IOException
+		 *             if connection is closed
+		 */
+		private void flush() throws IOException {
+			writer.flush();
+			if (writer.checkError()) {
+				throw new IOException("Connection closed");
+			}
+		}
+
+		/**
+		 * Completes connection
+		 */
+		void close() {
+			failed = true;
+			pending.clear();
+			try {
+				context.complete();
+			} catch (IllegalStateException e) {
+				// Already completed
+			}
+		}
+	}
+
+}
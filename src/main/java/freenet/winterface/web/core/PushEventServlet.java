@@ -0,0 +1,81 @@
+package freenet.winterface.web.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Serves the Server-Sent Events stream of {@link PushEventHub}.
+ * <p>
+ * Subscribed topics are passed as (repeatable) {@code topic} parameter, e.g.
+ * {@code /events?topic=alerts&topic=peers}. The request is kept open
+ * asynchronously, so no thread is blocked while waiting for events.
+ * </p>
+ *
+ * @author pausb
+ * @see PushEventHub
+ */
+@SuppressWarnings("serial")
+public class PushEventServlet extends HttpServlet {
+
+	/** Parameter containing subscribed topics */
+	public final static String PARAM_TOPIC = "topic";
+
+	/** MIME type of event streams */
+	private final static String CONTENT_TYPE = "text/event-stream";
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		final PushEventHub hub = (PushEventHub) getServletContext().getAttribute(WinterfaceApplication.PUSH_HUB_ID);
+		String[] topics = req.getParameterValues(PARAM_TOPIC);
+		if (hub == null) {
+			// Application is not initialized (yet): clients fall back to polling
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		if (topics == null || topics.length == 0) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		Set<String> topicSet = Sets.newHashSet(Arrays.asList(topics));
+		resp.setContentType(CONTENT_TYPE);
+		resp.setCharacterEncoding("UTF-8");
+		resp.setHeader("Cache-Control", "no-cache");
+		final AsyncContext context = req.startAsync();
+		// Connection is kept open until client disconnects
+		context.setTimeout(0);
+		context.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+				hub.unsubscribe(context);
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				hub.unsubscribe(context);
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				hub.unsubscribe(context);
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {
+				// Nothing to do
+			}
+		});
+		hub.subscribe(context, topicSet);
+	}
+
+}
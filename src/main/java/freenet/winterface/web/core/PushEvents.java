@@ -0,0 +1,77 @@
+package freenet.winterface.web.core;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.ajax.attributes.AjaxCallListener;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.JavaScriptHeaderItem;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
+import org.apache.wicket.request.resource.JavaScriptResourceReference;
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Connects Ajax timer behaviors to {@link PushEventHub}.
+ * <p>
+ * A behavior subscribes its callback to a topic. While the browser receives
+ * push events the timer does not issue any requests and the callback is only
+ * invoked if the value of the topic has changed. If the browser does not
+ * support Server-Sent Events or the connection is lost, the timer polls as
+ * before.
+ * </p>
+ *
+ * @author pausb
+ * @see PushEventHub
+ */
+public class PushEvents {
+
+	/** Client side of push events */
+	public final static JavaScriptResourceReference JS = new JavaScriptResourceReference(PushEvents.class, "push-events.js");
+
+	/**
+	 * Renders subscription of given callback
+	 *
+	 * @param component
+	 *            {@link Component} the behavior is attached to
+	 * @param response
+	 *            {@link IHeaderResponse} to render to
+	 * @param topic
+	 *            topic to subscribe to
+	 * @param callback
+	 *            callback script of behavior
+	 */
+	public static void renderHead(Component component, IHeaderResponse response, String topic, CharSequence callback) {
+		response.render(JavaScriptHeaderItem.forReference(JS));
+		String script = String.format("Winterface.Events.subscribe('%s', '%s', function() { %s });", escape(topic), component.getMarkupId(), callback);
+		response.render(OnDomReadyHeaderItem.forScript(script));
+	}
+
+	/**
+	 * Adds a precondition which skips timer requests while push events are
+	 * received
+	 *
+	 * @param attributes
+	 *            {@link AjaxRequestAttributes} of behavior
+	 * @param component
+	 *            {@link Component} the behavior is attached to
+	 * @param topic
+	 *            subscribed topic
+	 * @param interval
+	 *            update interval of timer
+	 */
+	public static void addPrecondition(AjaxRequestAttributes attributes, Component component, String topic, Duration interval) {
+		String precondition = String.format("return Winterface.Events.allow('%s', '%s', %d);", escape(topic), component.getMarkupId(), interval.getMilliseconds());
+		attributes.getAjaxCallListeners().add(new AjaxCallListener().onPrecondition(precondition));
+	}
+
+	/**
+	 * Escapes a {@link String} to be used inside single quotes
+	 *
+	 * @param value
+	 *            {@link String} to escape
+	 * @return escaped value
+	 */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("'", "\\'").replace("</", "<\\/");
+	}
+
+}
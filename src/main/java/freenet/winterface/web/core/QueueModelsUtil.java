@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.apache.wicket.Application;
 import org.apache.wicket.Localizer;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.LoadableDetachableModel;
@@ -15,6 +16,8 @@ import com.google.common.collect.Maps;
 import freenet.client.async.DatabaseDisabledException;
 import freenet.node.fcp.RequestStatus;
 import freenet.winterface.core.QueueHelper;
+import freenet.winterface.core.QueueIndex;
+import freenet.winterface.core.RequestTable;
 import freenet.winterface.web.QueuePage;
 
 /**
@@ -41,28 +44,64 @@ public final class QueueModelsUtil {
 
 	/**
 	 * @param targetClass
-	 *            target class to initialize {@link QueueHelper}
+	 *            target class to get {@link QueueHelper} snapshot for
 	 * @return a {@link LoadableDetachableModel} used to access
 	 *         {@link QueueHelper}
+	 * @see QueueIndex#getSnapshot(int)
 	 */
 	public static LoadableDetachableModel<QueueHelper> ofQueueUtil(final int targetClass) {
 		return new LoadableDetachableModel<QueueHelper>() {
 			@Override
 			protected QueueHelper load() {
-				try {
-					logger.debug("Accessing QueueUtil");
-					QueueHelper result = new QueueHelper(targetClass);
-					logger.debug("Queue has " + result.getQueueSize() + " items");
-					return result;
-				} catch (DatabaseDisabledException e) {
-					// TODO forward to error page
-					logger.error("Database seems to be disabled", e);
-				}
-				return null;
+				logger.debug("Accessing QueueUtil");
+				QueueHelper result = queueIndex().getSnapshot(targetClass);
+				logger.debug("Queue has " + result.getQueueSize() + " items");
+				return result;
 			}
 		};
 	}
 
+	/**
+	 * Makes changes of global requests (e.g. removed items) immediately
+	 * visible to all {@link QueueHelper} models.
+	 * 
+	 * @see QueueIndex#refresh()
+	 */
+	public static void refreshQueueIndex() {
+		try {
+			queueIndex().refresh();
+		} catch (DatabaseDisabledException e) {
+			// TODO forward to error page
+			logger.error("Database seems to be disabled", e);
+		}
+	}
+
+	/**
+	 * @return latest {@link RequestTable} of all global requests
+	 * @see QueueIndex#getRequestTable()
+	 */
+	public static RequestTable ofRequestTable() {
+		return queueIndex().getRequestTable();
+	}
+
+	/**
+	 * @param identifier
+	 *            identifier of desired request
+	 * @return current {@link RequestStatus} with given identifier or
+	 *         {@code null} if it does not exist anymore
+	 * @see QueueIndex#getRequest(String)
+	 */
+	public static RequestStatus ofRequest(String identifier) {
+		return queueIndex().getRequest(identifier);
+	}
+
+	/**
+	 * @return {@link QueueIndex} of current {@link WinterfaceApplication}
+	 */
+	private static QueueIndex queueIndex() {
+		return ((WinterfaceApplication) Application.get()).getQueueIndex();
+	}
+
 	/**
 	 * @param parent
 	 *            {@link IModel} to access parent {@link QueueHelper}
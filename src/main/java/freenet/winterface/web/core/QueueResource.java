@@ -0,0 +1,275 @@
+package freenet.winterface.web.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+import org.apache.wicket.request.resource.AbstractResource;
+import org.apache.wicket.util.string.StringValue;
+import org.apache.wicket.util.string.StringValueConversionException;
+
+import freenet.node.fcp.RequestStatus;
+import freenet.winterface.core.QueueHelper;
+import freenet.winterface.core.QueueIndex;
+import freenet.winterface.core.RequestStatusUtil;
+import freenet.winterface.core.RequestTable;
+import freenet.winterface.web.QueuePage;
+
+/**
+ * Streams global {@link RequestStatus}(es) as JSON to scripts polling the
+ * queue.
+ * <p>
+ * Rows are read from current {@link RequestTable} and are written one by one
+ * directly to the output stream. Supported parameters are:
+ * <ul>
+ * <li>{@value #QUEUE_PARAM}: desired queues using the same syntax as
+ * {@link QueuePage} (see {@link QueueHelper#parseTargetClass(String)})</li>
+ * <li>{@value #FORMAT_PARAM}: either {@value #FORMAT_NDJSON} (default, one
+ * JSON object per line) or {@value #FORMAT_JSON} (a single JSON object)</li>
+ * <li>{@value #SINCE_PARAM}: a generation known to the client (see
+ * {@link QueueIndex#getGeneration()}). Only rows changed after that generation
+ * and identifiers of removed requests are written. Requests which have moved
+ * to a queue which is not desired are reported as removed.</li>
+ * </ul>
+ * The first NDJSON line (or the top level object in JSON format) contains the
+ * current generation and whether a full listing follows. A full listing is
+ * sent if no generation is given or removals of the given generation are not
+ * known anymore.
+ * </p>
+ *
+ * @author pausb
+ * @see WinterfaceApplication
+ * @see RequestTable
+ */
+@SuppressWarnings("serial")
+public class QueueResource extends AbstractResource {
+
+	/** Parameter containing desired queues */
+	public final static String QUEUE_PARAM = "queue";
+	/** Parameter containing desired output format */
+	public final static String FORMAT_PARAM = "format";
+	/** Parameter containing last generation known to client */
+	public final static String SINCE_PARAM = "since";
+
+	/** One JSON object per line */
+	public final static String FORMAT_NDJSON = "ndjson";
+	/** A single JSON object */
+	public final static String FORMAT_JSON = "json";
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(QueueResource.class);
+
+	@Override
+	protected ResourceResponse newResourceResponse(Attributes attributes) {
+		PageParameters params = attributes.getParameters();
+		final int targetClass = QueueHelper.parseTargetClass(params.get(QUEUE_PARAM).toOptionalString());
+		final boolean ndjson = !FORMAT_JSON.equalsIgnoreCase(params.get(FORMAT_PARAM).toOptionalString());
+		ResourceResponse response = new ResourceResponse();
+		long since = -1;
+		StringValue sinceValue = params.get(SINCE_PARAM);
+		if (!sinceValue.isEmpty()) {
+			try {
+				since = sinceValue.toLong();
+			} catch (StringValueConversionException e) {
+				response.setError(HttpServletResponse.SC_BAD_REQUEST, "Invalid generation: " + sinceValue);
+				return response;
+			}
+		}
+		// All rows are written from the same table
+		final RequestTable table = QueueModelsUtil.ofRequestTable();
+		final List<String> removed = (since < 0) ? null : table.removedSince(since);
+		final long modifiedSince = (removed == null) ? -1 : since;
+		if (removed != null) {
+			// Requests which have left desired queues
+			removed.addAll(table.leftSince(since, targetClass));
+		}
+
+		response.setContentType(ndjson ? "application/x-ndjson" : "application/json");
+		response.setTextEncoding("UTF-8");
+		response.disableCaching();
+		response.setWriteCallback(new WriteCallback() {
+			@Override
+			public void writeData(Attributes attributes) {
+				try {
+					Writer writer = new BufferedWriter(new OutputStreamWriter(attributes.getResponse().getOutputStream(), "UTF-8"));
+					write(writer, table, targetClass, modifiedSince, removed, ndjson);
+					writer.flush();
+				} catch (IOException e) {
+					logger.debug("Error while streaming queue (client has probably disconnected)", e);
+				}
+			}
+		});
+		return response;
+	}
+
+	/**
+	 * Writes requested rows of given {@link RequestTable}
+	 *
+	 * @param writer
+	 *            {@link Writer} to write to
+	 * @param table
+	 *            table to read rows from
+	 * @param targetClass
+	 *            desired queues
+	 * @param since
+	 *            only rows modified after this generation are written. A
+	 *            negative value writes all rows.
+	 * @param removed
+	 *            identifiers of removed requests and of requests which have
+	 *            left desired queues (ignored if {@code since} is negative)
+	 * @param ndjson
+	 *            {@code true} to write one object per line
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private static void write(Writer writer, RequestTable table, int targetClass, long since, List<String> removed, boolean ndjson) throws IOException {
+		boolean full = since < 0;
+		StringBuilder line = new StringBuilder(256);
+		line.append("{\"generation\":").append(table.generation).append(",\"full\":").append(full);
+		if (ndjson) {
+			line.append("}\n");
+		} else {
+			line.append(",\"removed\":[");
+		}
+		// Removed requests
+		if (!full) {
+			boolean first = true;
+			for (String identifier : removed) {
+				if (ndjson) {
+					line.append("{\"removed\":");
+					appendString(line, identifier);
+					line.append("}\n");
+				} else {
+					line.append(first ? "" : ",");
+					appendString(line, identifier);
+				}
+				first = false;
+				flushIfNeeded(writer, line);
+			}
+		}
+		if (!ndjson) {
+			line.append("],\"requests\":[");
+		}
+		// Changed requests
+		boolean first = true;
+		int[] changed = full ? null : table.modifiedSince(since);
+		int count = full ? table.size : changed.length;
+		for (int k = 0; k < count; k++) {
+			int i = full ? k : changed[k];
+			int queueClass = table.queueClass[i];
+			if (queueClass == 0 || !QueueHelper.matches(targetClass, queueClass)) {
+				continue;
+			}
+			if (!ndjson && !first) {
+				line.append(',');
+			}
+			appendRow(line, table, i);
+			if (ndjson) {
+				line.append('\n');
+			}
+			first = false;
+			flushIfNeeded(writer, line);
+		}
+		if (!ndjson) {
+			line.append("]}");
+		}
+		writer.append(line);
+	}
+
+	/**
+	 * Appends a single row as JSON object
+	 *
+	 * @param sb
+	 *            {@link StringBuilder} to append to
+	 * @param table
+	 *            table to read row from
+	 * @param i
+	 *            row to append
+	 */
+	private static void appendRow(StringBuilder sb, RequestTable table, int i) {
+		sb.append("{\"identifier\":");
+		appendString(sb, table.identifier[i]);
+		sb.append(",\"class\":").append(table.queueClass[i]);
+		sb.append(",\"queue\":");
+		appendString(sb, QueueHelper.codeNameMap.get(table.queueClass[i]));
+		sb.append(",\"priority\":").append(table.priority[i]);
+		sb.append(",\"size\":").append(table.dataSize[i]);
+		sb.append(",\"mime\":");
+		// Unknown MIME types are null in JSON
+		appendString(sb, RequestStatusUtil.FLAG_NO_MIME.equals(table.mime[i]) ? null : table.mime[i]);
+		sb.append(",\"fetchedBlocks\":").append(table.fetchedBlocks[i]);
+		sb.append(",\"totalBlocks\":").append(table.totalBlocks[i]);
+		sb.append(",\"minBlocks\":").append(table.minBlocks[i]);
+		sb.append(",\"failedBlocks\":").append(table.failedBlocks[i]);
+		sb.append(",\"lastActivity\":").append(table.lastActivity[i]);
+		sb.append(",\"modified\":").append(table.modified[i]);
+		sb.append('}');
+	}
+
+	/**
+	 * Appends a quoted and escaped JSON string
+	 *
+	 * @param sb
+	 *            {@link StringBuilder} to append to
+	 * @param value
+	 *            value to append (can be {@code null})
+	 */
+	private static void appendString(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Writes buffered content once it gets large
+	 *
+	 * @param writer
+	 *            {@link Writer} to write to
+	 * @param sb
+	 *            buffered content (cleared after writing)
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private static void flushIfNeeded(Writer writer, StringBuilder sb) throws IOException {
+		if (sb.length() > 4096) {
+			writer.append(sb);
+			sb.setLength(0);
+		}
+	}
+
+}
@@ -0,0 +1,339 @@
+package freenet.winterface.web.core;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.wicket.extensions.markup.html.repeater.util.SortParam;
+import org.apache.wicket.extensions.markup.html.repeater.util.SortableDataProvider;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+
+import freenet.node.fcp.RequestStatus;
+import freenet.winterface.core.QueueHelper;
+import freenet.winterface.core.RequestStatusUtil;
+import freenet.winterface.core.RequestTable;
+import freenet.winterface.web.QueuePage;
+
+/**
+ * A {@link SortableDataProvider} which provides a sorted, filtered and paged
+ * view on a single queue of {@link QueueHelper}.
+ * <p>
+ * Sorting does not query the {@link RequestStatus}(es) on each comparison.
+ * Instead a sort key is calculated once for each {@link RequestStatus} (see
+ * {@link SortKey}) and the resulting order is kept until the provider is
+ * detached. Only the requested slice (see {@link #iterator(long, long)}) is
+ * handed out to be rendered.
+ * </p>
+ *
+ * @author pausb
+ * @see RequestStatusView
+ * @see QueuePage
+ */
+@SuppressWarnings("serial")
+public class RequestStatusProvider extends SortableDataProvider<RequestStatus, RequestStatusProvider.SortKey> {
+
+	/** Various properties to sort {@link RequestStatus}(es) by */
+	public enum SortKey {
+		/** Sort by priority class */
+		PRIORITY,
+		/** Sort by data size */
+		SIZE,
+		/** Sort by time of last activity */
+		LAST_ACTIVITY,
+		/** Sort by progress (fetched blocks) */
+		PROGRESS,
+		/** Sort by file name (or identifier if there is no file) */
+		NAME;
+	}
+
+	/** Model to access parent {@link QueueHelper} */
+	private final IModel<QueueHelper> parent;
+	/** Class of queue to provide */
+	private final int targetClass;
+	/** Model containing the filter string (can be empty) */
+	private final IModel<String> filterModel;
+
+	/** Sorted and filtered requests (cached until detach) */
+	private transient List<RequestStatus> view;
+
+	/**
+	 * Constructs.
+	 *
+	 * @param parent
+	 *            {@link IModel} to access parent {@link QueueHelper}
+	 * @param targetClass
+	 *            class of queue to provide
+	 * @param filterModel
+	 *            {@link IModel} containing a substring which identifier or
+	 *            MIME type of requests must contain
+	 */
+	public RequestStatusProvider(IModel<QueueHelper> parent, int targetClass, IModel<String> filterModel) {
+		this.parent = parent;
+		this.targetClass = targetClass;
+		this.filterModel = filterModel;
+	}
+
+	@Override
+	public Iterator<? extends RequestStatus> iterator(long first, long count) {
+		List<RequestStatus> view = getView();
+		int from = (int) Math.min(first, view.size());
+		int to = (int) Math.min(first + count, view.size());
+		return view.subList(from, to).iterator();
+	}
+
+	@Override
+	public long size() {
+		return getView().size();
+	}
+
+	@Override
+	public IModel<RequestStatus> model(final RequestStatus object) {
+		final String identifier = object.getIdentifier();
+		return new LoadableDetachableModel<RequestStatus>(object) {
+			@Override
+			protected RequestStatus load() {
+				// Single lookup instead of searching (and sorting) the queue
+				return QueueModelsUtil.ofRequest(identifier);
+			}
+		};
+	}
+
+	/**
+	 * @return class of provided queue
+	 */
+	public int getTargetClass() {
+		return targetClass;
+	}
+
+	/**
+	 * Returns identifiers of all filtered requests (not only of the current
+	 * page)
+	 *
+	 * @return identifiers of all requests provided
+	 */
+	public List<String> getIdentifiers() {
+		List<RequestStatus> view = getView();
+		List<String> result = Lists.newArrayListWithCapacity(view.size());
+		for (RequestStatus req : view) {
+			result.add(req.getIdentifier());
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if a change of a request may move it within this provider's
+	 * view or into or out of it, i.e. if its current sort key or a value it is
+	 * filtered by has changed
+	 *
+	 * @param old
+	 *            table containing former values
+	 * @param oldRow
+	 *            row of request in former table
+	 * @param table
+	 *            table containing current values
+	 * @param row
+	 *            row of request in current table
+	 * @return {@code true} if position of request may have changed
+	 */
+	public boolean isPositionChanged(RequestTable old, int oldRow, RequestTable table, int row) {
+		String filter = filterModel == null ? null : filterModel.getObject();
+		if (filter != null && filter.trim().length() > 0 && !Objects.equal(old.mime[oldRow], table.mime[row])) {
+			return true;
+		}
+		SortParam<SortKey> sortParam = getSort();
+		if (sortParam == null || sortParam.getProperty() == SortKey.NAME) {
+			// Names do not change
+			return false;
+		}
+		SortKey key = sortParam.getProperty();
+		return Double.compare(numericKey(key, old, oldRow), numericKey(key, table, row)) != 0;
+	}
+
+	@Override
+	public void detach() {
+		super.detach();
+		view = null;
+		parent.detach();
+	}
+
+	/**
+	 * Returns filtered and sorted requests. Result is calculated at most once
+	 * per request cycle.
+	 *
+	 * @return filtered and sorted requests
+	 */
+	private List<RequestStatus> getView() {
+		if (view == null) {
+			List<RequestStatus> queue = parent.getObject().get(targetClass);
+			if (queue == null) {
+				view = Collections.emptyList();
+			} else {
+				view = sort(filter(queue));
+			}
+		}
+		return view;
+	}
+
+	/**
+	 * Filters given requests regarding {@link #filterModel}
+	 *
+	 * @param queue
+	 *            requests to filter
+	 * @return requests whose identifier or MIME type contain the filter
+	 */
+	private List<RequestStatus> filter(List<RequestStatus> queue) {
+		String filter = filterModel == null ? null : filterModel.getObject();
+		if (filter == null || filter.trim().length() == 0) {
+			return queue;
+		}
+		filter = filter.trim().toLowerCase(Locale.ENGLISH);
+		RequestTable table = QueueModelsUtil.ofRequestTable();
+		List<RequestStatus> result = Lists.newArrayList();
+		for (RequestStatus req : queue) {
+			int row = table.rowOf(req.getIdentifier());
+			String mime = (row > -1) ? table.mime[row] : RequestStatusUtil.getMIME(req);
+			if (req.getIdentifier().toLowerCase(Locale.ENGLISH).contains(filter) || (!RequestStatusUtil.FLAG_NO_MIME.equals(mime) && mime.toLowerCase(Locale.ENGLISH).contains(filter))) {
+				result.add(req);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sorts given requests regarding current {@link SortParam}. Sort keys are
+	 * read once per {@link RequestStatus} from current {@link RequestTable}.
+	 *
+	 * @param queue
+	 *            requests to sort
+	 * @return sorted requests
+	 */
+	private List<RequestStatus> sort(List<RequestStatus> queue) {
+		SortParam<SortKey> sortParam = getSort();
+		if (sortParam == null || queue.size() < 2) {
+			return queue;
+		}
+		SortKey key = sortParam.getProperty();
+		RequestTable table = QueueModelsUtil.ofRequestTable();
+		KeyedStatus[] keyed = new KeyedStatus[queue.size()];
+		int i = 0;
+		for (RequestStatus req : queue) {
+			keyed[i++] = new KeyedStatus(req, key, table);
+		}
+		Arrays.sort(keyed);
+		List<RequestStatus> result = Lists.newArrayListWithCapacity(keyed.length);
+		if (sortParam.isAscending()) {
+			for (KeyedStatus entry : keyed) {
+				result.add(entry.req);
+			}
+		} else {
+			for (int j = keyed.length - 1; j >= 0; j--) {
+				result.add(keyed[j].req);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns numeric sort key of a row
+	 *
+	 * @param key
+	 *            any key except {@link SortKey#NAME}
+	 * @param table
+	 *            table to read values from
+	 * @param row
+	 *            row of request
+	 * @return numeric sort key
+	 */
+	private static double numericKey(SortKey key, RequestTable table, int row) {
+		switch (key) {
+		case PRIORITY:
+			return table.priority[row];
+		case SIZE:
+			return table.dataSize[row];
+		case LAST_ACTIVITY:
+			return table.lastActivity[row];
+		case PROGRESS:
+			return progress(table.fetchedBlocks[row], Math.max(table.totalBlocks[row], table.minBlocks[row]));
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return share of fetched blocks or {@code -1} if total is unknown
+	 */
+	private static double progress(int fetched, int total) {
+		return total > 0 ? fetched / (double) total : -1;
+	}
+
+	/**
+	 * A {@link RequestStatus} with a precalculated sort key
+	 *
+	 * @author pausb
+	 */
+	private static class KeyedStatus implements Comparable<KeyedStatus> {
+
+		/** Request to sort */
+		final RequestStatus req;
+		/** Numeric key (used by all keys except {@link SortKey#NAME}) */
+		final double numericKey;
+		/** Textual key (used by {@link SortKey#NAME}) */
+		final String textKey;
+
+		/**
+		 * Constructs.
+		 *
+		 * @param req
+		 *            request to sort
+		 * @param key
+		 *            desired sort key
+		 * @param table
+		 *            table to read values from. If request is not part of
+		 *            the table, values are read from request itself.
+		 */
+		KeyedStatus(RequestStatus req, SortKey key, RequestTable table) {
+			this.req = req;
+			int row = table.rowOf(req.getIdentifier());
+			String text = null;
+			double numeric = 0;
+			if (key == SortKey.NAME) {
+				File file = RequestStatusUtil.getFile(req);
+				text = (file != null) ? file.getName() : req.getIdentifier();
+			} else if (row > -1) {
+				numeric = numericKey(key, table, row);
+			} else {
+				switch (key) {
+				case PRIORITY:
+					numeric = req.getPriority();
+					break;
+				case SIZE:
+					numeric = RequestStatusUtil.getSize(req);
+					break;
+				case LAST_ACTIVITY:
+					numeric = req.getLastActivity();
+					break;
+				default:
+					numeric = progress(req.getFetchedBlocks(), Math.max(req.getTotalBlocks(), req.getMinBlocks()));
+				}
+			}
+			this.numericKey = numeric;
+			this.textKey = text;
+		}
+
+		@Override
+		public int compareTo(KeyedStatus o) {
+			if (textKey != null && o.textKey != null) {
+				return textKey.compareToIgnoreCase(o.textKey);
+			}
+			return Double.compare(numericKey, o.numericKey);
+		}
+	}
+
+}
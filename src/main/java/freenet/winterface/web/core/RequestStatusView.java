@@ -1,16 +1,17 @@
 package freenet.winterface.web.core;
 
-import java.util.List;
+import java.util.Iterator;
 
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.Component;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.behavior.Behavior;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.Check;
 import org.apache.wicket.markup.html.link.ExternalLink;
-import org.apache.wicket.markup.html.list.ListItem;
-import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.markup.repeater.Item;
+import org.apache.wicket.markup.repeater.data.DataView;
 import org.apache.wicket.model.IModel;
-import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
 
 import freenet.node.fcp.RequestStatus;
@@ -20,7 +21,12 @@ import freenet.winterface.core.RequestProgress;
 import freenet.winterface.core.RequestStatusUtil;
 
 /**
- * A {@link ListView} to render a {@link List} of {@link RequestStatus}(es).
+ * A {@link DataView} to render a page of {@link RequestStatus}(es) provided by
+ * a {@link RequestStatusProvider}.
+ * <p>
+ * Only {@link RequestStatus}(es) of the current page are turned into
+ * components (see {@link #ITEMS_PER_PAGE}).
+ * </p>
  * <p>
  * Each item renders following information of {@link RequestStatus}:
  * <ul>
@@ -38,9 +44,29 @@ import freenet.winterface.core.RequestStatusUtil;
  * 
  * @author pausb
  * @see RequestStatusUtil
+ * @see RequestStatusProvider
  */
 @SuppressWarnings("serial")
-public class RequestStatusView extends ListView<RequestStatus> {
+public class RequestStatusView extends DataView<RequestStatus> {
+
+	/** Number of items to render per page */
+	public final static int ITEMS_PER_PAGE = 50;
+
+	/** Stores identifier of rendered request in each item */
+	private final static MetaDataKey<String> IDENTIFIER_KEY = new MetaDataKey<String>() {
+	};
+
+	/**
+	 * Constructs.
+	 * 
+	 * @param id
+	 *            id of tag to replace this with
+	 * @param provider
+	 *            {@link RequestStatusProvider} of queue to render
+	 */
+	public RequestStatusView(String id, RequestStatusProvider provider) {
+		super(id, provider, ITEMS_PER_PAGE);
+	}
 
 	/**
 	 * Constructs.
@@ -53,14 +79,62 @@ public class RequestStatusView extends ListView<RequestStatus> {
 	 *            class of queue to render
 	 */
 	public RequestStatusView(String id, final IModel<QueueHelper> model, final int targetClass) {
-		super(id);
-		LoadableDetachableModel<List<RequestStatus>> listModel = QueueModelsUtil.ofQueue(model, targetClass);
-		setDefaultModel(listModel);
+		this(id, new RequestStatusProvider(model, targetClass, null));
+	}
+
+	/**
+	 * @return class of rendered queue
+	 */
+	public int getTargetClass() {
+		return ((RequestStatusProvider) getDataProvider()).getTargetClass();
+	}
+
+	/**
+	 * Returns the item of the current page which renders the request with
+	 * given identifier
+	 * 
+	 * @param identifier
+	 *            identifier of request
+	 * @return rendered item or {@code null} if request is not part of the
+	 *         current page
+	 */
+	public Item<RequestStatus> findItem(String identifier) {
+		Iterator<Item<RequestStatus>> items = getItems();
+		while (items.hasNext()) {
+			Item<RequestStatus> item = items.next();
+			if (identifier.equals(item.getMetaData(IDENTIFIER_KEY))) {
+				return item;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reloads and repopulates a single item. Afterwards the item can be
+	 * repainted using Ajax.
+	 * 
+	 * @param item
+	 *            item to repopulate
+	 * @return {@code false} if request of the item does not exist anymore
+	 */
+	public boolean refreshItem(Item<RequestStatus> item) {
+		item.getModel().detach();
+		if (item.getModelObject() == null) {
+			return false;
+		}
+		item.removeAll();
+		for (Behavior behavior : item.getBehaviors()) {
+			item.remove(behavior);
+		}
+		populateItem(item);
+		return true;
 	}
 
 	@Override
-	protected void populateItem(ListItem<RequestStatus> item) {
+	protected void populateItem(Item<RequestStatus> item) {
 		RequestStatus req = item.getModelObject();
+		item.setOutputMarkupId(true);
+		item.setMetaData(IDENTIFIER_KEY, req.getIdentifier());
 		final IModel<String> identifierModel = Model.of(req.getIdentifier());
 		// checkbox
 		Check<String> check = new Check<String>("select", identifierModel);
@@ -76,7 +150,7 @@ public class RequestStatusView extends ListView<RequestStatus> {
 		item.add(new Label("size", Model.of(size)));
 		// Mime
 		String mime = RequestStatusUtil.getMIME(req);
-		item.add(new Label("mime", Model.of(mime)));
+		item.add(new Label("mime", Model.of(RequestStatusUtil.FLAG_NO_MIME.equals(mime) ? "" : mime)));
 		// Progress
 		RequestProgress progressStatus = RequestStatusUtil.getProgress(req);
 		Label progress = new Label("progress");
@@ -0,0 +1,321 @@
+package freenet.winterface.web.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.wicket.request.Request;
+import org.apache.wicket.request.Url;
+
+import freenet.clients.http.FProxyFetchInProgress.REFILTER_POLICY;
+import freenet.keys.FreenetURI;
+import freenet.winterface.core.RequestsUtil;
+
+/**
+ * A cache of small, already filtered results of immutable keys (e.g. images
+ * and CSS files of freesites).
+ * <p>
+ * Entries are mapped by requested {@link FreenetURI}, requested MIME type and
+ * filter policy. The cache is bounded by the total number of cached bytes;
+ * least recently used entries are evicted first. {@link WinterMapper} serves
+ * hits directly with a {@link FreenetURIHandler}, so neither a page nor a
+ * fetch is involved.
+ * </p>
+ * <p>
+ * Data can optionally be kept in direct (off-heap) buffers to keep large
+ * caches out of the garbage collected heap.
+ * </p>
+ *
+ * @author pausb
+ * @see FreenetURIHandler
+ */
+public class ResourceCache {
+
+	/** Maximum number of cached bytes */
+	private final long maxBytes;
+	/** Maximum size of a single entry */
+	private final long maxEntrySize;
+	/** {@code true} to store data in direct buffers */
+	private final boolean offHeap;
+	/** Cached entries in access order */
+	private final LinkedHashMap<String, Entry> entries;
+	/** Number of currently cached bytes */
+	private long bytes;
+
+	/** Number of lookups returning an entry */
+	private final AtomicLong hits;
+	/** Number of lookups without result */
+	private final AtomicLong misses;
+	/** Number of evicted entries */
+	private final AtomicLong evictions;
+	/** Number of bytes served from cache */
+	private final AtomicLong bytesServed;
+
+	/** Fraction of cache a single entry may occupy at most */
+	private final static int MAX_ENTRY_FRACTION = 16;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(ResourceCache.class);
+
+	/**
+	 * Constructs.
+	 *
+	 * @param maxBytes
+	 *            maximum number of cached bytes ({@code 0} disables cache)
+	 * @param offHeap
+	 *            {@code true} to store data in direct buffers
+	 */
+	public ResourceCache(long maxBytes, boolean offHeap) {
+		this.maxBytes = maxBytes;
+		this.maxEntrySize = maxBytes / MAX_ENTRY_FRACTION;
+		this.offHeap = offHeap;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.evictions = new AtomicLong();
+		this.bytesServed = new AtomicLong();
+	}
+
+	/**
+	 * Creates key of a request
+	 *
+	 * @param request
+	 *            {@link Request} for a {@link FreenetURI}
+	 * @param policy
+	 *            filter policy of fetches
+	 * @return key of request
+	 */
+	public static String createKey(Request request, REFILTER_POLICY policy) {
+		Url url = request.getUrl();
+		String mime = request.getRequestParameters().getParameterValue(RequestsUtil.PARAM_MIME).toString("");
+		return url.getPath() + '|' + mime + '|' + policy;
+	}
+
+	/**
+	 * Checks if content of given {@link FreenetURI} may be cached
+	 *
+	 * @param uri
+	 *            fetched key
+	 * @param size
+	 *            size of content
+	 * @return {@code true} if content is immutable and small enough
+	 */
+	public boolean isCacheable(FreenetURI uri, long size) {
+		if (uri == null || size > maxEntrySize) {
+			return false;
+		}
+		String type = uri.getKeyType();
+		return "CHK".equals(type) || "SSK".equals(type);
+	}
+
+	/**
+	 * Returns a cached entry
+	 *
+	 * @param key
+	 *            key of entry (see {@link #createKey(Request, REFILTER_POLICY)}
+	 * @return cached entry or {@code null}
+	 */
+	public Entry get(String key) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Caches content of a result
+	 *
+	 * @param key
+	 *            key of entry (see {@link #createKey(Request, REFILTER_POLICY)}
+	 * @param data
+	 *            (filtered) content
+	 * @param mimeType
+	 *            MIME type of content
+	 */
+	public void put(String key, byte[] data, String mimeType) {
+		if (data.length > maxEntrySize) {
+			return;
+		}
+		ByteBuffer buffer;
+		if (offHeap) {
+			buffer = ByteBuffer.allocateDirect(data.length);
+			buffer.put(data).flip();
+		} else {
+			buffer = ByteBuffer.wrap(data);
+		}
+		Entry entry = new Entry(buffer, mimeType);
+		synchronized (entries) {
+			Entry old = entries.put(key, entry);
+			if (old != null) {
+				bytes -= old.size();
+			}
+			bytes += entry.size();
+			Iterator<Entry> it = entries.values().iterator();
+			while (bytes > maxBytes && it.hasNext()) {
+				Entry eldest = it.next();
+				it.remove();
+				bytes -= eldest.size();
+				evictions.incrementAndGet();
+			}
+		}
+		logger.trace("Cached " + data.length + " bytes for " + key);
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			bytes = 0;
+		}
+	}
+
+	/**
+	 * @return {@code false} if cache has no budget
+	 */
+	public boolean isEnabled() {
+		return maxBytes > 0;
+	}
+
+	/**
+	 * @return number of lookups returning an entry
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of lookups without result
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return ratio of hits to all lookups (between 0 and 1)
+	 */
+	public double getHitRatio() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return (total == 0) ? 0 : (double) h / total;
+	}
+
+	/**
+	 * @return number of evicted entries
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of bytes served from cache
+	 */
+	public long getBytesServed() {
+		return bytesServed.get();
+	}
+
+	/**
+	 * @return number of currently cached bytes
+	 */
+	public long getBytes() {
+		synchronized (entries) {
+			return bytes;
+		}
+	}
+
+	/**
+	 * @return maximum number of cached bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return number of cached entries
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * A single cached result
+	 *
+	 * @author pausb
+	 */
+	public class Entry {
+
+		/** Content (never modified) */
+		private final ByteBuffer data;
+		/** MIME type of content */
+		private final String mimeType;
+
+		/**
+		 * Constructs.
+		 */
+		Entry(ByteBuffer data, String mimeType) {
+			this.data = data;
+			this.mimeType = mimeType;
+		}
+
+		/**
+		 * @return size of content
+		 */
+		public long size() {
+			return data.capacity();
+		}
+
+		/**
+		 * @return MIME type of content
+		 */
+		public String getMimeType() {
+			return mimeType;
+		}
+
+		/**
+		 * Writes a part of content
+		 *
+		 * @param os
+		 *            {@link OutputStream} to write to
+		 * @param offset
+		 *            first byte to write
+		 * @param length
+		 *            number of bytes to write
+		 * @return number of written bytes
+		 * @throws IOException
+		 *             if writing fails
+		 */
+		public long writeTo(OutputStream os, long offset, long length) throws IOException {
+			ByteBuffer view = data.duplicate();
+			view.position((int) offset);
+			int count = (int) Math.min(length, view.remaining());
+			if (view.hasArray()) {
+				os.write(view.array(), view.arrayOffset() + view.position(), count);
+			} else {
+				byte[] chunk = new byte[Math.min(count, 64 * 1024)];
+				int remaining = count;
+				while (remaining > 0) {
+					int n = Math.min(remaining, chunk.length);
+					view.get(chunk, 0, n);
+					os.write(chunk, 0, n);
+					remaining -= n;
+				}
+			}
+			bytesServed.addAndGet(count);
+			return count;
+		}
+	}
+
+}
@@ -0,0 +1,365 @@
+package freenet.winterface.web.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.apache.wicket.Component;
+import org.apache.wicket.markup.Markup;
+import org.apache.wicket.markup.MarkupParser;
+import org.apache.wicket.markup.MarkupResourceStream;
+import org.apache.wicket.protocol.http.WebApplication;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import freenet.winterface.core.Configuration;
+import freenet.winterface.core.ServerManager;
+
+/**
+ * Warms up pages and resources on startup, so first visitors after a node
+ * restart do not pay for class loading and markup parsing.
+ * <p>
+ * Warm-up runs in two phases:
+ * <ul>
+ * <li>{@link #preload()} runs during application init. It parses markup of
+ * all registered pages (including their super classes) and loads
+ * localizations of {@link WinterfaceApplication} into Wicket's properties
+ * cache.</li>
+ * <li>{@link #requestWhenReady(ListenableFuture)} requests each mounted page
+ * and each static resource referenced by page markup once the server accepts
+ * connections. This fills Wicket's markup cache, loads component classes and
+ * primes the static resource cache of Jetty. Requests are sent to the loopback
+ * address within a single session, following redirects of stateful pages.
+ * Latency of each request is logged as first-request latency of that page.</li>
+ * </ul>
+ * Warm-up requests carry {@link #HEADER_WARMUP}, so they can be told apart
+ * from requests of real visitors.
+ * </p>
+ *
+ * @author pausb
+ * @see Configuration#isWarmupEnabled()
+ */
+public class WarmUp {
+
+	/** Application to warm up */
+	private final WebApplication application;
+	/** User configuration containing bindings */
+	private final Configuration config;
+	/** Pages to warm up mapped to their mount paths ({@code null} if not mounted) */
+	private final Map<Class<?>, String> pages;
+	/** Static resources referenced by page markup */
+	private final Set<String> statics;
+
+	/** Header marking warm-up requests */
+	public final static String HEADER_WARMUP = "X-Winterface-Warmup";
+
+	/** Timeout (in milliseconds) of a single warm-up request */
+	private final static int TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
+	/** Maximum number of redirects followed by a single warm-up request */
+	private final static int MAX_REDIRECTS = 3;
+
+	/** Links to static resources in markup */
+	private final static Pattern STATIC_LINK = Pattern.compile("(?:href|src)=\"/?(static/[^\"?#]+)\"");
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(WarmUp.class);
+
+	/**
+	 * Constructs.
+	 *
+	 * @param application
+	 *            {@link WebApplication} to warm up
+	 * @param config
+	 *            {@link Configuration} containing bindings
+	 */
+	public WarmUp(WebApplication application, Configuration config) {
+		this.application = application;
+		this.config = config;
+		this.pages = Maps.newLinkedHashMap();
+		this.statics = Sets.newLinkedHashSet();
+	}
+
+	/**
+	 * Registers a page to warm up
+	 *
+	 * @param path
+	 *            mount path of page or {@code null} if it is not mounted (only
+	 *            its markup is preloaded)
+	 * @param page
+	 *            page class
+	 */
+	public void addPage(String path, Class<?> page) {
+		if (path != null || !pages.containsKey(page)) {
+			pages.put(page, path);
+		}
+	}
+
+	/**
+	 * Preloads markup and localizations. Must be called while
+	 * {@link WebApplication} is bound to current thread (e.g. during init).
+	 */
+	public void preload() {
+		long start = System.currentTimeMillis();
+		Set<Class<?>> visited = Sets.newHashSet();
+		int markups = 0;
+		for (Class<?> page : pages.keySet()) {
+			// Markup of super classes is needed for markup inheritance
+			for (Class<?> c = page; c != null && Component.class.isAssignableFrom(c) && !c.getName().startsWith("org.apache.wicket"); c = c.getSuperclass()) {
+				if (visited.add(c) && preloadMarkup(c)) {
+					markups++;
+				}
+			}
+		}
+		String properties = WinterfaceApplication.class.getName().replace('.', '/');
+		boolean localized = application.getResourceSettings().getPropertiesFactory().load(WinterfaceApplication.class, properties) != null;
+		logger.info("Warm-up preloaded " + markups + " markup files" + (localized ? " and localizations" : "") + " in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Parses markup of a component class and collects its static resources
+	 *
+	 * @return {@code true} if markup was found
+	 */
+	private boolean preloadMarkup(Class<?> clazz) {
+		IResourceStream stream = application.getResourceSettings().getResourceStreamLocator()
+				.locate(clazz, clazz.getName().replace('.', '/'), null, null, null, "html", false);
+		if (stream == null) {
+			return false;
+		}
+		try {
+			Markup markup = new MarkupParser(new MarkupResourceStream(stream)).parse();
+			Matcher matcher = STATIC_LINK.matcher(markup.toString(true));
+			while (matcher.find()) {
+				statics.add("/" + matcher.group(1));
+			}
+			return true;
+		} catch (IOException e) {
+			logger.debug("Error while preloading markup of " + clazz.getName(), e);
+		} catch (ResourceStreamNotFoundException e) {
+			logger.debug("Markup of " + clazz.getName() + " disappeared", e);
+		} finally {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Requests mounted pages and static resources in background once server
+	 * is ready
+	 *
+	 * @param ready
+	 *            completes once server accepts connections (see
+	 *            {@link ServerManager#getReadiness()})
+	 */
+	public void requestWhenReady(final ListenableFuture<?> ready) {
+		final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("winterface-warmup").build());
+		ready.addListener(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ready.get();
+					requestAll();
+				} catch (Exception e) {
+					logger.debug("Skipping warm-up requests, server did not start", e);
+				} finally {
+					executor.shutdown();
+				}
+			}
+		}, executor);
+	}
+
+	/**
+	 * Requests all mounted pages and static resources
+	 */
+	private void requestAll() {
+		String base = baseUrl();
+		if (base == null) {
+			return;
+		}
+		// Shared by all requests, so warm-up creates a single session
+		Map<String, String> cookies = Maps.newLinkedHashMap();
+		long start = System.currentTimeMillis();
+		int requested = 0;
+		for (String path : pages.values()) {
+			if (path != null) {
+				long latency = request(base + path, cookies);
+				if (latency >= 0) {
+					logger.info("First request of " + path + " took " + latency + "ms");
+					requested++;
+				}
+			}
+		}
+		for (String path : statics) {
+			if (request(base + path, cookies) >= 0) {
+				requested++;
+			}
+		}
+		logger.info("Warm-up requested " + requested + " pages and resources in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Returns URL of a loopback binding. Wildcard bindings are reached through
+	 * the loopback address of their family.
+	 *
+	 * @return base URL or {@code null} if server cannot be reached from
+	 *         loopback or loopback is not an allowed host
+	 */
+	private String baseUrl() {
+		String host = null;
+		for (String binding : config.getBindToHosts().split(",")) {
+			String loopback = loopback(binding.trim());
+			// Prefer IPv4, which is the default binding
+			if (loopback != null && (host == null || !loopback.contains(":"))) {
+				host = loopback;
+			}
+		}
+		if (host == null) {
+			logger.info("Skipping warm-up requests, server is not bound to loopback");
+			return null;
+		}
+		if (!config.getAllowedHostsMatcher().matches(host)) {
+			logger.info("Skipping warm-up requests, " + host + " is not an allowed host");
+			return null;
+		}
+		if (host.contains(":")) {
+			host = "[" + host + "]";
+		}
+		return "http://" + host + ":" + config.getPort();
+	}
+
+	/**
+	 * @return loopback address reaching given binding or {@code null} if it
+	 *         is neither loopback nor wildcard
+	 */
+	private static String loopback(String binding) {
+		if (binding.length() == 0) {
+			return null;
+		}
+		try {
+			InetAddress address = InetAddress.getByName(binding);
+			if (address.isLoopbackAddress()) {
+				return address.getHostAddress();
+			} else if (address.isAnyLocalAddress()) {
+				return address instanceof Inet6Address ? "::1" : "127.0.0.1";
+			}
+		} catch (UnknownHostException e) {
+			logger.debug("Cannot resolve binding " + binding, e);
+		}
+		return null;
+	}
+
+	/**
+	 * Requests a single URL and discards its content. Redirects (e.g. of
+	 * stateful pages to their rendered version) are followed, so the buffered
+	 * response is consumed as a browser would.
+	 *
+	 * @param cookies
+	 *            cookies to send, updated by received cookies
+	 * @return latency (including redirects) in milliseconds or {@code -1} if
+	 *         request failed
+	 */
+	private long request(String url, Map<String, String> cookies) {
+		long start = System.currentTimeMillis();
+		String location = url;
+		for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+			HttpURLConnection connection = null;
+			try {
+				connection = (HttpURLConnection) new URL(location).openConnection();
+				connection.setConnectTimeout(TIMEOUT);
+				connection.setReadTimeout(TIMEOUT);
+				connection.setInstanceFollowRedirects(false);
+				connection.setRequestProperty(HEADER_WARMUP, "true");
+				if (!cookies.isEmpty()) {
+					connection.setRequestProperty("Cookie", Joiner.on("; ").withKeyValueSeparator("=").join(cookies));
+				}
+				int status = connection.getResponseCode();
+				storeCookies(connection, cookies);
+				if (status >= HttpURLConnection.HTTP_MULT_CHOICE && status < HttpURLConnection.HTTP_BAD_REQUEST) {
+					String target = connection.getHeaderField("Location");
+					discard(connection.getErrorStream() != null ? connection.getErrorStream() : connection.getInputStream());
+					if (target == null) {
+						logger.debug("Warm-up request of " + location + " redirected without location");
+						return -1;
+					}
+					location = new URL(new URL(location), target).toString();
+					continue;
+				}
+				if (status != HttpURLConnection.HTTP_OK) {
+					logger.debug("Warm-up request of " + location + " answered with " + status);
+					return -1;
+				}
+				discard(connection.getInputStream());
+				return System.currentTimeMillis() - start;
+			} catch (IOException e) {
+				logger.debug("Warm-up request of " + location + " failed", e);
+				return -1;
+			} finally {
+				if (connection != null) {
+					connection.disconnect();
+				}
+			}
+		}
+		logger.debug("Warm-up request of " + url + " redirected too often");
+		return -1;
+	}
+
+	/**
+	 * Stores name and value of cookies set by a response
+	 */
+	private static void storeCookies(HttpURLConnection connection, Map<String, String> cookies) {
+		List<String> headers = connection.getHeaderFields().get("Set-Cookie");
+		if (headers == null) {
+			return;
+		}
+		for (String header : headers) {
+			String cookie = header.split(";", 2)[0];
+			int separator = cookie.indexOf('=');
+			if (separator > 0) {
+				cookies.put(cookie.substring(0, separator).trim(), cookie.substring(separator + 1).trim());
+			}
+		}
+	}
+
+	/**
+	 * Reads and discards a stream
+	 */
+	private static void discard(InputStream in) throws IOException {
+		if (in == null) {
+			return;
+		}
+		try {
+			byte[] buffer = new byte[8192];
+			while (in.read(buffer) != -1) {
+				// discard
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -4,6 +4,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map.Entry;
 import java.util.Properties;
@@ -21,6 +22,8 @@ import org.apache.wicket.request.mapper.info.PageComponentInfo;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.mapper.parameter.PageParametersEncoder;
 
+import freenet.clients.http.FProxyFetchInProgress.REFILTER_POLICY;
+
 /**
  * Responsible to map arbitrary {@link URL}s to desired {@link Page}s.
  * <p>
@@ -44,8 +47,18 @@ public class WinterMapper extends BookmarkableMapper {
 	/** Contains mappings */
 	private HashMap<String, Class<? extends IRequestablePage>> mappings;
 
+	/** Contains handler factories asked before mapped pages are created */
+	private HashMap<String, MappedHandlerFactory> handlerFactories;
+
+	/** Cache of small results served without a page (may be {@code null}) */
+	private final ResourceCache resourceCache;
+	/** Filter policy of cached results */
+	private final REFILTER_POLICY filterPolicy;
+
 	/** File to read static mappings from */
 	private static final String MAPPINGS_FILE = "mappings.properties";
+	/** Prefix of mappings to a {@link MappedHandlerFactory} */
+	private static final String HANDLER_PREFIX = "handler.";
 	/** Log4j Logger */
 	private static final Logger logger = Logger.getLogger(WinterMapper.class);
 
@@ -59,8 +72,26 @@ public class WinterMapper extends BookmarkableMapper {
 	 *            fallback {@link IRequestMapper}
 	 */
 	public WinterMapper(IRequestMapper delegate) {
+		this(delegate, null, null);
+	}
+
+	/**
+	 * Constructs a mapper which serves hits of a {@link ResourceCache}
+	 * directly using {@link FreenetURIHandler}.
+	 * 
+	 * @param delegate
+	 *            fallback {@link IRequestMapper}
+	 * @param resourceCache
+	 *            cache of small results
+	 * @param filterPolicy
+	 *            filter policy of cached results
+	 */
+	public WinterMapper(IRequestMapper delegate, ResourceCache resourceCache, REFILTER_POLICY filterPolicy) {
 		this.delegate = delegate;
+		this.resourceCache = resourceCache;
+		this.filterPolicy = filterPolicy;
 		mappings = new HashMap<String, Class<? extends IRequestablePage>>();
+		handlerFactories = new HashMap<String, MappedHandlerFactory>();
 		loadMappings();
 	}
 
@@ -77,6 +108,28 @@ public class WinterMapper extends BookmarkableMapper {
 		mappings.put(startsWith, pageClass);
 	}
 
+	/**
+	 * Register a {@link MappedHandlerFactory} which is asked before the page
+	 * mapped to a {@link URL} is created
+	 * 
+	 * @param startsWith
+	 *            {@link URL} start
+	 * @param factory
+	 *            creates lightweight handlers
+	 */
+	public void registerHandler(String startsWith, MappedHandlerFactory factory) {
+		handlerFactories.put(startsWith, factory);
+	}
+
+	/**
+	 * Returns all pages which are target of a mapping
+	 * 
+	 * @return mapped page classes
+	 */
+	public Collection<Class<? extends IRequestablePage>> getMappedPages() {
+		return mappings.values();
+	}
+
 	@Override
 	public int getCompatibilityScore(Request request) {
 		return delegate.getCompatibilityScore(request);
@@ -85,6 +138,14 @@ public class WinterMapper extends BookmarkableMapper {
 	@Override
 	public IRequestHandler mapRequest(Request request) {
 		if (urlDesired(request.getClientUrl()) != null) {
+			IRequestHandler cached = mapCached(request);
+			if (cached != null) {
+				return cached;
+			}
+			IRequestHandler handler = mapLightweight(request);
+			if (handler != null) {
+				return handler;
+			}
 			UrlInfo urlInfo = parseRequest(request);
 			if (urlInfo != null) {
 				Class<? extends IRequestablePage> pageClass = urlInfo.getPageClass();
@@ -127,6 +188,43 @@ public class WinterMapper extends BookmarkableMapper {
 		return false;
 	}
 
+	/**
+	 * Looks up {@link ResourceCache} for given {@link Request}
+	 * 
+	 * @param request
+	 *            {@link Request} to look up
+	 * @return {@link FreenetURIHandler} serving cached result or {@code null}
+	 *         if nothing is cached
+	 */
+	private IRequestHandler mapCached(Request request) {
+		if (resourceCache == null || !resourceCache.isEnabled()) {
+			return null;
+		}
+		ResourceCache.Entry entry = resourceCache.get(ResourceCache.createKey(request, filterPolicy));
+		if (entry != null) {
+			logger.trace("Serving from cache: " + request.getUrl());
+			return new FreenetURIHandler(entry);
+		}
+		return null;
+	}
+
+	/**
+	 * Asks registered {@link MappedHandlerFactory}s for a handler
+	 * 
+	 * @param request
+	 *            {@link Request} to map
+	 * @return created handler or {@code null} if mapped page should be used
+	 */
+	private IRequestHandler mapLightweight(Request request) {
+		String addr = request.getUrl().canonical().toString();
+		for (Entry<String, MappedHandlerFactory> entry : handlerFactories.entrySet()) {
+			if (addr.startsWith(entry.getKey())) {
+				return entry.getValue().createHandler(request);
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Checks if {@link WinterMapper} is responsible for the given {@link URL}
 	 * 
@@ -160,6 +258,13 @@ public class WinterMapper extends BookmarkableMapper {
 			for (Entry<Object, Object> entry : mappings.entrySet()) {
 				String startsWith = (String) entry.getKey();
 				String className = (String) entry.getValue();
+				if (startsWith.startsWith(HANDLER_PREFIX)) {
+					startsWith = startsWith.substring(HANDLER_PREFIX.length());
+					MappedHandlerFactory factory = Class.forName(className).asSubclass(MappedHandlerFactory.class).newInstance();
+					registerHandler(startsWith, factory);
+					logger.debug(String.format("Urls starting with %s will be handled by %s", startsWith, className));
+					continue;
+				}
 				Class<? extends IRequestablePage> clazz = Class.forName(className).asSubclass(IRequestablePage.class);
 				registerMapping(startsWith, clazz);
 				logger.debug(String.format("Urls starting with %s will be mapped to %s", startsWith, className));
@@ -170,6 +275,10 @@ public class WinterMapper extends BookmarkableMapper {
 			logger.debug("Error while reading external mapping file.", e);
 		} catch (ClassNotFoundException e) {
 			logger.debug("No such class for mapping is not available", e);
+		} catch (InstantiationException e) {
+			logger.debug("Handler factory cannot be instantiated", e);
+		} catch (IllegalAccessException e) {
+			logger.debug("Handler factory cannot be instantiated", e);
 		}
 	}
 
@@ -1,17 +1,35 @@
 package freenet.winterface.web.core;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.log4j.Logger;
 import org.apache.wicket.Page;
 import org.apache.wicket.protocol.http.WebApplication;
+import org.apache.wicket.request.cycle.AbstractRequestCycleListener;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.resource.IResource;
+import org.apache.wicket.request.resource.ResourceReference;
 import org.apache.wicket.util.cookies.CookieUtils;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import freenet.keys.FreenetURI;
+import freenet.node.PeerManager;
+import freenet.node.useralerts.UserAlert;
+import freenet.winterface.core.AlertsUtil;
 import freenet.winterface.core.Configuration;
 import freenet.winterface.core.FreenetWrapper;
+import freenet.winterface.core.QueueIndex;
+import freenet.winterface.core.QueueJobManager;
 import freenet.winterface.core.ServerManager;
 import freenet.winterface.web.AddFriendPage;
 import freenet.winterface.web.AlertsPage;
 import freenet.winterface.web.Dashboard;
 import freenet.winterface.web.ErrorPage;
+import freenet.winterface.web.FetchErrorPage;
 import freenet.winterface.web.InsertPage;
 import freenet.winterface.web.QueuePage;
 
@@ -21,6 +39,7 @@ import freenet.winterface.web.QueuePage;
  * @author pausb
  * 
  */
+@SuppressWarnings("serial")
 public class WinterfaceApplication extends WebApplication {
 
 	/** FreenetWrapper to interact with node */
@@ -33,27 +52,95 @@ public class WinterfaceApplication extends WebApplication {
 	 */
 	private FetchTrackerManager trackerManager;
 
+	/** Keeps global requests classified into queues */
+	private QueueIndex queueIndex;
+	/** Executes bulk operations on queues */
+	private QueueJobManager queueJobManager;
+
+	/** Decides how long browsers may cache fetched content */
+	private CachePolicy cachePolicy;
+
+	/** Caches small results of immutable keys */
+	private ResourceCache resourceCache;
+
+	/** Pushes changes of node state to browsers */
+	private PushEventHub pushEventHub;
+
 	private CookieUtils cookieUtils;
 
+	/** Warms up pages and resources on startup */
+	private WarmUp warmUp;
+
+	/** Time at which initialization was completed */
+	private long initialized;
+
+	/** {@code true} once first request of a visitor has been reported */
+	private final AtomicBoolean firstRequest = new AtomicBoolean();
+
+	/** Servlet context attribute containing {@link PushEventHub} */
+	public static final String PUSH_HUB_ID = "winterface-push-events";
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(WinterfaceApplication.class);
+
 	@Override
 	protected void init() {
+		long start = System.currentTimeMillis();
 		super.init();
 		// Gather all browser data
 		getRequestCycleSettings().setGatherExtendedBrowserInfo(true);
-		// Configuring custom mapper
-		WinterMapper mapper = new WinterMapper(getRootRequestMapper());
-		setRootRequestMapper(mapper);
 		// Retrieve FreenetWrapper
 		freenetWrapper = (FreenetWrapper) getServletContext().getAttribute(ServerManager.FREENET_ID);
+		config = (Configuration) getServletContext().getAttribute(ServerManager.CONFIG_ID);
 		// Setup manager for FProxyFetchTracker
 		trackerManager = new FetchTrackerManager(freenetWrapper, this);
-		config = (Configuration) getServletContext().getAttribute(ServerManager.CONFIG_ID);
+		resourceCache = new ResourceCache(config.getResourceCacheSize(), config.isResourceCacheOffHeap());
+		// Configuring custom mapper
+		WinterMapper mapper = new WinterMapper(getRootRequestMapper(), resourceCache, trackerManager.getFilterPolicy());
+		setRootRequestMapper(mapper);
+		cachePolicy = new CachePolicy(config, freenetWrapper.getNode().clientCore.uskManager);
+		// Setup queue index
+		queueIndex = new QueueIndex(freenetWrapper.getNode().clientCore.getFCPServer());
+		queueIndex.start();
+		queueJobManager = new QueueJobManager(queueIndex);
+		queueJobManager.start();
+		// Setup push events
+		pushEventHub = new PushEventHub(this);
+		initPushSources();
+		pushEventHub.start();
+		getServletContext().setAttribute(PUSH_HUB_ID, pushEventHub);
 		// Instantiate cookie utils
 		cookieUtils = new CookieUtils();
 		// Add Auto-Linking
 		getMarkupSettings().setAutomaticLinking(true);
 		
+		warmUp = new WarmUp(this, config);
 		initPageMounts();
+		initFirstRequestReport();
+		if (config.isWarmupEnabled()) {
+			// Pages which are not mounted
+			warmUp.addPage(null, FetchErrorPage.class);
+			for (Class<?> page : mapper.getMappedPages()) {
+				warmUp.addPage(null, page);
+			}
+			warmUp.preload();
+			ListenableFuture<?> ready = (ListenableFuture<?>) getServletContext().getAttribute(ServerManager.READY_ID);
+			if (ready != null) {
+				warmUp.requestWhenReady(ready);
+			}
+		}
+		initialized = System.currentTimeMillis();
+		logger.info("Application initialized in " + (initialized - start) + "ms");
+	}
+
+	@Override
+	protected void onDestroy() {
+		getServletContext().removeAttribute(PUSH_HUB_ID);
+		pushEventHub.stop();
+		trackerManager.stop();
+		queueJobManager.stop();
+		queueIndex.stop();
+		super.onDestroy();
 	}
 
 	@Override
@@ -62,13 +149,81 @@ public class WinterfaceApplication extends WebApplication {
 	}
 
 	private void initPageMounts() {
+		warmUp.addPage("/", getHomePage());
 		// Setup error pages
-		mountPage("/error", ErrorPage.class);
+		mount("/error", ErrorPage.class);
 		// Custom mountings
-		mountPage("/addfriend", AddFriendPage.class);
-		mountPage("/messages", AlertsPage.class);
-		mountPage("/insertfile", InsertPage.class);
-		mountPage("/queue", QueuePage.class);
+		mount("/addfriend", AddFriendPage.class);
+		mount("/messages", AlertsPage.class);
+		mount("/insertfile", InsertPage.class);
+		mount("/queue", QueuePage.class);
+		mountResource("/queue.json", new ResourceReference(QueueResource.class, "queue") {
+			@Override
+			public IResource getResource() {
+				return new QueueResource();
+			}
+		});
+		mountResource("/metrics", new ResourceReference(MetricsResource.class, "metrics") {
+			@Override
+			public IResource getResource() {
+				return new MetricsResource();
+			}
+		});
+	}
+
+	/**
+	 * Mounts a page and registers it for warm-up
+	 */
+	private void mount(String path, Class<? extends Page> page) {
+		mountPage(path, page);
+		warmUp.addPage(path, page);
+	}
+
+	/**
+	 * Reports latency of first request of a visitor (warm-up requests are
+	 * ignored)
+	 */
+	private void initFirstRequestReport() {
+		getRequestCycleListeners().add(new AbstractRequestCycleListener() {
+			@Override
+			public void onEndRequest(RequestCycle cycle) {
+				if (firstRequest.get()) {
+					return;
+				}
+				HttpServletRequest request = (HttpServletRequest) cycle.getRequest().getContainerRequest();
+				if (request.getHeader(WarmUp.HEADER_WARMUP) == null && firstRequest.compareAndSet(false, true)) {
+					long now = System.currentTimeMillis();
+					logger.info("First request (" + request.getRequestURI() + ") took " + (now - cycle.getStartTime()) + "ms, " + (now - initialized)
+							+ "ms after initialization");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Registers sources of node wide topics
+	 */
+	private void initPushSources() {
+		pushEventHub.register(PushEventHub.TOPIC_ALERTS, new PushEventHub.Source() {
+			@Override
+			public String poll() {
+				return Arrays.toString(AlertsUtil.countAlertsByPriority(AlertsUtil.getFilteredValidAlerts(UserAlert.MINOR)));
+			}
+		});
+		pushEventHub.register(PushEventHub.TOPIC_PEERS, new PushEventHub.Source() {
+			@Override
+			public String poll() {
+				PeerManager peers = freenetWrapper.getNode().peers;
+				return peers.countConnectedPeers() + "," + peers.countConnectedDarknetPeers() + "," + peers.countConnectedOpennetPeers() + ","
+						+ peers.countBackedOffPeersEither() + "," + peers.countSeednodes();
+			}
+		});
+		pushEventHub.register(PushEventHub.TOPIC_QUEUE, new PushEventHub.Source() {
+			@Override
+			public String poll() {
+				return String.valueOf(queueIndex.getGeneration());
+			}
+		});
 	}
 
 	/**
@@ -87,6 +242,23 @@ public class WinterfaceApplication extends WebApplication {
 		return config;
 	}
 
+	/**
+	 * Returns {@link ResourceCache} containing small results of immutable
+	 * keys
+	 * 
+	 * @return {@link ResourceCache}
+	 */
+	public ResourceCache getResourceCache() {
+		return resourceCache;
+	}
+
+	/**
+	 * @return {@link CachePolicy} of fetched content
+	 */
+	public CachePolicy getCachePolicy() {
+		return cachePolicy;
+	}
+
 	/**
 	 * Return {@link FetchTrackerManager} responsible to track progress of
 	 * {@link FreenetURI}s being fetched
@@ -97,6 +269,33 @@ public class WinterfaceApplication extends WebApplication {
 		return trackerManager;
 	}
 
+	/**
+	 * Returns {@link QueueIndex} containing all global requests
+	 * 
+	 * @return {@link QueueIndex}
+	 */
+	public QueueIndex getQueueIndex() {
+		return queueIndex;
+	}
+
+	/**
+	 * Returns {@link QueueJobManager} executing bulk operations on queues
+	 * 
+	 * @return {@link QueueJobManager}
+	 */
+	public QueueJobManager getQueueJobManager() {
+		return queueJobManager;
+	}
+
+	/**
+	 * Returns {@link PushEventHub} pushing changes of node state to browsers
+	 * 
+	 * @return {@link PushEventHub}
+	 */
+	public PushEventHub getPushEventHub() {
+		return pushEventHub;
+	}
+
 	public CookieUtils getCookieUtils() {
 		return cookieUtils;
 	}
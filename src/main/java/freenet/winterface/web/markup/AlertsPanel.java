@@ -6,7 +6,6 @@ import org.apache.log4j.Logger;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.Component;
 import org.apache.wicket.ajax.AjaxRequestTarget;
-import org.apache.wicket.ajax.AjaxSelfUpdatingTimerBehavior;
 import org.apache.wicket.markup.ComponentTag;
 import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.basic.Label;
@@ -27,6 +26,8 @@ import freenet.winterface.core.AlertsUtil;
 import freenet.winterface.web.AlertsPage;
 import freenet.winterface.web.core.AjaxFallbackCssButton;
 import freenet.winterface.web.core.AjaxFallbackCssButton.ButtonIcon;
+import freenet.winterface.web.core.AjaxPushSelfUpdatingTimerBehavior;
+import freenet.winterface.web.core.PushEventHub;
 
 /**
  * An expandable/collapsable {@link Panel} which shows <i>all<i>
@@ -71,7 +72,7 @@ public class AlertsPanel extends Panel {
 		// Container to ease AJAX refresh
 		final WebMarkupContainer outerContainer = new WebMarkupContainer("outerContainer");
 		outerContainer.setOutputMarkupId(true);
-		outerContainer.add(new AjaxSelfUpdatingTimerBehavior(Duration.seconds(REFRESH_INTERVAL)));
+		outerContainer.add(new AjaxPushSelfUpdatingTimerBehavior(Duration.seconds(REFRESH_INTERVAL), PushEventHub.TOPIC_ALERTS));
 		// No messages label
 		final WebMarkupContainer noMessageContainer = new WebMarkupContainer("noMessageContainer") {
 			@Override
@@ -111,7 +112,7 @@ public class AlertsPanel extends Panel {
 				attributes.put("style", "display:" + displayValue + ";");
 			}
 		};
-		alertsContainer.add(new AjaxSelfUpdatingTimerBehavior(Duration.seconds(5)));
+		alertsContainer.add(new AjaxPushSelfUpdatingTimerBehavior(Duration.seconds(REFRESH_INTERVAL), PushEventHub.TOPIC_ALERTS));
 		alertsContainer.setOutputMarkupId(true);
 		alertsContainer.setOutputMarkupPlaceholderTag(true);
 		PropertyListView<UserAlert> alerts = new PropertyListView<UserAlert>("alert", new CompoundPropertyModel<List<UserAlert>>(itemsModel)) {
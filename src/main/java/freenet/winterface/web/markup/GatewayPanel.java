@@ -0,0 +1,62 @@
+package freenet.winterface.web.markup;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AjaxSelfUpdatingTimerBehavior;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.model.AbstractReadOnlyModel;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.util.time.Duration;
+
+import freenet.support.SizeUtil;
+import freenet.winterface.web.core.AdmissionController;
+
+/**
+ * {@link DashboardPanel} which shows counters of {@link AdmissionController}
+ * (public gateway mode).
+ * 
+ * @author pausb
+ */
+@SuppressWarnings("serial")
+public class GatewayPanel extends DashboardPanel {
+
+	/**
+	 * Constructs
+	 * 
+	 * @param id
+	 *            {@link Component} markup ID
+	 * @param model
+	 *            {@link IModel} to retrieve data from
+	 */
+	public GatewayPanel(String id, IModel<AdmissionController> model) {
+		super(id, model);
+	}
+
+	@Override
+	protected void onInitialize() {
+		super.onInitialize();
+		// Container
+		WebMarkupContainer container = new WebMarkupContainer("gateway-stat");
+		container.setOutputMarkupId(true); // Needed for Ajax auto refresh
+		container.add(new AjaxSelfUpdatingTimerBehavior(Duration.seconds(10)));
+		add(container);
+		container.add(new Label("fetches"));
+		container.add(new Label("hosts"));
+		container.add(new Label("bytes", new AbstractReadOnlyModel<String>() {
+			@Override
+			public String getObject() {
+				return SizeUtil.formatSize(((AdmissionController) getDefaultModelObject()).getBytes());
+			}
+		}));
+		container.add(new Label("queued"));
+		container.add(new Label("admitted"));
+		container.add(new Label("rejected"));
+		container.add(new Label("expired"));
+	}
+
+	@Override
+	public String getName() {
+		return "Gateway Admission";
+	}
+
+}
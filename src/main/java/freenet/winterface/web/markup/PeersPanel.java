@@ -1,13 +1,14 @@
 package freenet.winterface.web.markup;
 
 import org.apache.wicket.Component;
-import org.apache.wicket.ajax.AjaxSelfUpdatingTimerBehavior;
 import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.util.time.Duration;
 
 import freenet.node.PeerManager;
+import freenet.winterface.web.core.AjaxPushSelfUpdatingTimerBehavior;
+import freenet.winterface.web.core.PushEventHub;
 
 /**
  * {@link DashboardPanel} which shows sumarized information about peers.
@@ -35,7 +36,7 @@ public class PeersPanel extends DashboardPanel {
 		// Container
 		WebMarkupContainer container = new WebMarkupContainer("peers-stat");
 		container.setOutputMarkupId(true); // Needed for Ajax auto refresh
-		container.add(new AjaxSelfUpdatingTimerBehavior(Duration.seconds(30)));
+		container.add(new AjaxPushSelfUpdatingTimerBehavior(Duration.seconds(30), PushEventHub.TOPIC_PEERS));
 		add(container);
 		// All peers
 		Label allPeers = new Label("countConnectedPeers");
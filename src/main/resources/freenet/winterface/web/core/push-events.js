@@ -0,0 +1,298 @@
+/*
+ * Client of Winterface push events (see PushEventHub).
+ *
+ * A single EventSource is opened per browser. Tabs elect a leader through
+ * localStorage: the leader holds the connection for the topics of all open
+ * tabs and forwards each event to the other tabs as a storage event. The
+ * leader renews its lease periodically, so another tab takes over if it is
+ * closed or stops renewing. Without localStorage each page opens its own
+ * connection.
+ *
+ * Components subscribe to topics with a callback which is invoked each time
+ * the server reports a change. Timer behaviors skip their own ticks as long
+ * as events are received.
+ */
+var Winterface = Winterface || {};
+
+Winterface.Events = (function() {
+	var PREFIX = "winterface.events.";
+	/** Key of leader's lease */
+	var LEADER = PREFIX + "leader";
+	/** Key of forwarded events */
+	var EVENT = PREFIX + "event";
+	/** Prefix of keys of topics subscribed by each tab */
+	var TAB = PREFIX + "tab.";
+	/** Duration (in milliseconds) of leases and tab entries */
+	var LEASE = 5000;
+	/** Interval (in milliseconds) of lease renewal */
+	var RENEW = 2000;
+
+	var id = new Date().getTime() + "-" + Math.random().toString(36).substring(2);
+	var store = openStorage();
+	var source = null;
+	var sourceTopics = null;
+	var renewal = null;
+	var forwarded = 0;
+	var topics = {};
+	var dispatching = false;
+	var timers = {};
+	var passed = {};
+
+	function openStorage() {
+		try {
+			var storage = window.localStorage;
+			storage.setItem(PREFIX + "probe", id);
+			storage.removeItem(PREFIX + "probe");
+			return storage;
+		} catch (e) {
+			return null;
+		}
+	}
+
+	function now() {
+		return new Date().getTime();
+	}
+
+	function read(key) {
+		try {
+			return JSON.parse(store.getItem(key));
+		} catch (e) {
+			return null;
+		}
+	}
+
+	function keys(map) {
+		var result = [];
+		for (var key in map) {
+			result.push(key);
+		}
+		return result;
+	}
+
+	function dispatch(topic) {
+		var handlers = topics[topic];
+		if (!handlers) {
+			return;
+		}
+		dispatching = true;
+		try {
+			for (var handler in handlers) {
+				handlers[handler]();
+			}
+		} finally {
+			dispatching = false;
+		}
+	}
+
+	/** Collects topics of all open tabs and drops entries of closed ones */
+	function collectTopics(time) {
+		var all = {};
+		for (var topic in topics) {
+			all[topic] = true;
+		}
+		var tabs = [];
+		for (var i = 0; i < store.length; i++) {
+			var key = store.key(i);
+			if (key !== null && key.indexOf(TAB) === 0) {
+				tabs.push(key);
+			}
+		}
+		for (var j = 0; j < tabs.length; j++) {
+			var tab = read(tabs[j]);
+			if (tab === null || tab.time + LEASE < time) {
+				store.removeItem(tabs[j]);
+			} else {
+				for (var k = 0; k < tab.topics.length; k++) {
+					all[tab.topics[k]] = true;
+				}
+			}
+		}
+		return keys(all).sort();
+	}
+
+	/** Opens connection for given topics (if not already open) */
+	function connect(list) {
+		var joined = list.join("\n");
+		if (source !== null && sourceTopics === joined) {
+			return;
+		}
+		disconnect();
+		if (list.length === 0) {
+			return;
+		}
+		var query = [];
+		for (var i = 0; i < list.length; i++) {
+			query.push("topic=" + encodeURIComponent(list[i]));
+		}
+		source = new EventSource("/events?" + query.join("&"));
+		sourceTopics = joined;
+		source.onopen = source.onerror = function() {
+			if (store !== null) {
+				writeLease();
+			}
+		};
+		for (var j = 0; j < list.length; j++) {
+			listen(list[j]);
+		}
+	}
+
+	function disconnect() {
+		if (source !== null) {
+			source.close();
+			source = null;
+			sourceTopics = null;
+		}
+	}
+
+	function listen(topic) {
+		source.addEventListener(topic, function() {
+			if (store !== null) {
+				// Value changes each time, so other tabs always get notified
+				store.setItem(EVENT, JSON.stringify({
+					topic : topic,
+					from : id,
+					n : ++forwarded
+				}));
+			}
+			dispatch(topic);
+		}, false);
+	}
+
+	function writeLease() {
+		store.setItem(LEADER, JSON.stringify({
+			id : id,
+			expires : now() + LEASE,
+			open : source !== null && source.readyState === 1
+		}));
+	}
+
+	/**
+	 * Publishes own topics, and takes over or renews leadership if there is
+	 * no other living leader
+	 */
+	function renew() {
+		if (store === null) {
+			connect(keys(topics).sort());
+			return;
+		}
+		var time = now();
+		store.setItem(TAB + id, JSON.stringify({
+			topics : keys(topics),
+			time : time
+		}));
+		var leader = read(LEADER);
+		if (leader === null || leader.id === id || leader.expires < time) {
+			connect(collectTopics(time));
+			writeLease();
+		} else {
+			disconnect();
+		}
+	}
+
+	function startRenewal() {
+		if (renewal !== null) {
+			return;
+		}
+		renewal = setInterval(renew, RENEW);
+		if (store === null) {
+			return;
+		}
+		window.addEventListener("storage", function(e) {
+			if (e.key === EVENT && e.newValue !== null) {
+				var event = JSON.parse(e.newValue);
+				if (source === null) {
+					dispatch(event.topic);
+				}
+			} else if (e.key === LEADER && e.newValue === null) {
+				// Leader has been closed
+				renew();
+			} else if (e.key !== null && e.key.indexOf(TAB) === 0 && source !== null) {
+				// Topics of another tab may have changed
+				renew();
+			}
+		}, false);
+		window.addEventListener("pagehide", function() {
+			clearInterval(renewal);
+			store.removeItem(TAB + id);
+			var leader = read(LEADER);
+			if (leader !== null && leader.id === id) {
+				store.removeItem(LEADER);
+			}
+			disconnect();
+		}, false);
+		window.addEventListener("pageshow", function(e) {
+			if (e.persisted) {
+				// Restored from back-forward cache
+				renewal = setInterval(renew, RENEW);
+				renew();
+			}
+		}, false);
+	}
+
+	return {
+		/**
+		 * Subscribes a handler to a topic. Handlers are mapped by id, so
+		 * subscribing again (e.g. after an Ajax update) replaces the handler.
+		 */
+		subscribe : function(topic, id, handler) {
+			if (typeof window.EventSource === "undefined") {
+				return;
+			}
+			var isNew = !topics.hasOwnProperty(topic);
+			if (isNew) {
+				topics[topic] = {};
+			}
+			topics[topic][id] = handler;
+			startRenewal();
+			if (isNew) {
+				renew();
+			}
+		},
+
+		/** @return true if push events are currently received */
+		isActive : function() {
+			if (source !== null) {
+				return source.readyState === 1;
+			}
+			if (store === null) {
+				return false;
+			}
+			var leader = read(LEADER);
+			return leader !== null && leader.open === true && leader.expires >= now();
+		},
+
+		/** @return true while handlers of an event are invoked */
+		isDispatching : function() {
+			return dispatching;
+		},
+
+		/**
+		 * Precondition of timer behaviors. While push events are received,
+		 * the Ajax call is skipped and the timer is kept alive on client side
+		 * only, so polling resumes as soon as the connection is lost.
+		 */
+		allow : function(topic, id, interval) {
+			if (dispatching) {
+				return true;
+			}
+			var key = topic + "/" + id;
+			clearTimeout(timers[key]);
+			if (this.isActive()) {
+				timers[key] = setTimeout(function() {
+					var handler = topics[topic] && topics[topic][id];
+					if (handler) {
+						handler();
+					}
+				}, interval);
+				return false;
+			}
+			// Another timer of the same component is already polling
+			var time = now();
+			if (time - (passed[key] || 0) < interval / 2) {
+				return false;
+			}
+			passed[key] = time;
+			return true;
+		}
+	};
+})();
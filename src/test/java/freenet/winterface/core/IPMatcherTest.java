@@ -0,0 +1,151 @@
+package freenet.winterface.core;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link IPMatcher}
+ *
+ * @author pausb
+ */
+public class IPMatcherTest {
+
+	@Test
+	public void matchesPlainAddresses() {
+		IPMatcher matcher = IPMatcher.compile("127.0.0.1, ::1");
+		assertTrue(matcher.matches("127.0.0.1"));
+		assertTrue(matcher.matches("::1"));
+		assertTrue(matcher.matches("0:0:0:0:0:0:0:1"));
+		assertTrue(matcher.matches("[::1]"));
+		assertFalse(matcher.matches("127.0.0.2"));
+		assertFalse(matcher.matches("::2"));
+	}
+
+	@Test
+	public void matchesZeroPrefix() {
+		IPMatcher v4 = IPMatcher.compile("0.0.0.0/0");
+		assertTrue(v4.matches("0.0.0.0"));
+		assertTrue(v4.matches("255.255.255.255"));
+		assertTrue(v4.matches("::ffff:1.2.3.4"));
+		assertFalse(v4.matches("::1"));
+		assertFalse(v4.matches("2001:db8::1"));
+
+		IPMatcher v6 = IPMatcher.compile("::/0");
+		assertTrue(v6.matches("::"));
+		assertTrue(v6.matches("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+		assertTrue(v6.matches("2001:db8::1"));
+		assertTrue(v6.matches("1.2.3.4"));
+	}
+
+	@Test
+	public void matchesFullIPv4Prefix() {
+		IPMatcher matcher = IPMatcher.compile("192.168.1.5/32");
+		assertTrue(matcher.matches("192.168.1.5"));
+		assertFalse(matcher.matches("192.168.1.4"));
+		assertFalse(matcher.matches("192.168.1.6"));
+	}
+
+	@Test
+	public void matchesIPv6NetworkPrefix() {
+		IPMatcher matcher = IPMatcher.compile("2001:db8:1:2::/64");
+		assertTrue(matcher.matches("2001:db8:1:2::"));
+		assertTrue(matcher.matches("2001:db8:1:2:ffff:ffff:ffff:ffff"));
+		assertFalse(matcher.matches("2001:db8:1:1:ffff:ffff:ffff:ffff"));
+		assertFalse(matcher.matches("2001:db8:1:3::"));
+	}
+
+	@Test
+	public void matchesFullIPv6Prefix() {
+		IPMatcher matcher = IPMatcher.compile("2001:db8::7/128");
+		assertTrue(matcher.matches("2001:db8::7"));
+		assertTrue(matcher.matches("2001:0db8:0000:0000:0000:0000:0000:0007"));
+		assertFalse(matcher.matches("2001:db8::6"));
+		assertFalse(matcher.matches("2001:db8::8"));
+	}
+
+	@Test
+	public void matchesIPv4MappedAddresses() {
+		IPMatcher v4 = IPMatcher.compile("10.0.0.0/8");
+		assertTrue(v4.matches("::ffff:10.1.2.3"));
+		assertFalse(v4.matches("::ffff:11.0.0.1"));
+
+		IPMatcher mapped = IPMatcher.compile("::ffff:10.0.0.0/104");
+		assertTrue(mapped.matches("10.0.0.0"));
+		assertTrue(mapped.matches("10.255.255.255"));
+		assertFalse(mapped.matches("11.0.0.0"));
+
+		IPMatcher single = IPMatcher.compile("::ffff:192.168.0.1");
+		assertTrue(single.matches("192.168.0.1"));
+		assertFalse(single.matches("192.168.0.2"));
+	}
+
+	@Test
+	public void matchesDottedMasks() {
+		IPMatcher matcher = IPMatcher.compile("192.168.0.0/255.255.0.0");
+		assertTrue(matcher.matches("192.168.0.1"));
+		assertTrue(matcher.matches("192.168.255.255"));
+		assertFalse(matcher.matches("192.169.0.1"));
+
+		assertTrue(IPMatcher.compile("10.0.0.0/0.0.0.0").matches("1.2.3.4"));
+		assertTrue(IPMatcher.compile("10.0.0.1/255.255.255.255").matches("10.0.0.1"));
+		assertFalse(IPMatcher.compile("10.0.0.1/255.255.255.255").matches("10.0.0.2"));
+	}
+
+	@Test
+	public void ignoresNonContiguousAndIPv6DottedMasks() {
+		assertFalse(IPMatcher.compile("10.0.0.0/255.0.255.0").matches("10.0.0.1"));
+		assertFalse(IPMatcher.compile("10.0.0.0/0.255.255.255").matches("10.0.0.1"));
+		assertFalse(IPMatcher.compile("::/255.255.0.0").matches("::1"));
+	}
+
+	@Test
+	public void ignoresMalformedHosts() {
+		IPMatcher matcher = IPMatcher.compile("not-an-ip, localhost, 300.1.1.1, 10.0.0.1/33, 10.0.0.1/x, 10.0.0.1/-1, ::1/129, 10.0.0.1/, ,127.0.0.1");
+		assertTrue(matcher.matches("127.0.0.1"));
+		assertFalse(matcher.matches("10.0.0.1"));
+		assertFalse(matcher.matches("::1"));
+	}
+
+	@Test
+	public void rejectsMalformedAddresses() {
+		IPMatcher matcher = IPMatcher.compile("::/0");
+		assertFalse(matcher.matches(null));
+		assertFalse(matcher.matches(""));
+		assertFalse(matcher.matches("localhost"));
+		assertFalse(matcher.matches("1.2.3"));
+		assertFalse(matcher.matches("1.2.3.4/8"));
+		assertFalse(matcher.matches("::1::2"));
+		assertTrue(matcher.matches("fe80::1%eth0"));
+	}
+
+	@Test
+	public void matchesNothingWithoutHosts() {
+		assertFalse(IPMatcher.compile(null).matches("127.0.0.1"));
+		assertFalse(IPMatcher.compile("").matches("::1"));
+	}
+
+	@Test
+	public void mergesAdjacentRanges() {
+		IPMatcher matcher = IPMatcher.compile("10.0.0.128/25, 10.0.0.0/25, 10.0.0.64/26");
+		assertTrue(matcher.matches("10.0.0.0"));
+		assertTrue(matcher.matches("10.0.0.127"));
+		assertTrue(matcher.matches("10.0.0.128"));
+		assertTrue(matcher.matches("10.0.0.255"));
+		assertFalse(matcher.matches("10.0.1.0"));
+	}
+
+	@Test
+	public void cachedDecisionsStayCorrect() {
+		IPMatcher matcher = IPMatcher.compile("10.0.0.0/8");
+		for (int i = 0; i < IPMatcher.MAX_CACHED * 2; i++) {
+			String addr = "10.0." + (i >> 8) + "." + (i & 0xff);
+			assertTrue(matcher.matches(addr));
+			assertTrue(matcher.matches(addr));
+		}
+		assertFalse(matcher.matches("11.0.0.1"));
+		assertFalse(matcher.matches("11.0.0.1"));
+	}
+
+}